@@ -0,0 +1,177 @@
+package MPMineSweeper.benchmarks;
+
+import MPMineSweeper.GameBoard;
+import MPMineSweeper.GameRoom;
+import MPMineSweeper.Player;
+import MPMineSweeper.RevealResult;
+import MPMineSweeper.RoomManager;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Building, resetting, flood-filling and scanning square boards of different
+ * sizes. Mine density matches the real 16x16 board with 40 mines, except for
+ * {@link #resetDense}.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class BoardBenchmark {
+
+    /**
+     * A board with the usual mine density.
+     */
+    @State(Scope.Thread)
+    public static class MinedBoard {
+        @Param({ "16", "100", "1000" })
+        public int size;
+
+        public GameRoom room;
+        public GameBoard board;
+
+        @Setup(Level.Trial)
+        public void setUp() {
+            room = new GameRoom("bench", new RoomManager(), size, size, Boards.mines(size));
+            board = new GameBoard(size, size, Boards.mines(size), room);
+        }
+    }
+
+    /**
+     * A 100x100 board with a given share of mines, for mine placement at high
+     * densities.
+     */
+    @State(Scope.Thread)
+    public static class DenseBoard {
+        @Param({ "16", "50", "90", "99" })
+        public int percent;
+
+        public GameBoard board;
+
+        @Setup(Level.Trial)
+        public void setUp() {
+            board = new GameBoard(100, 100, 100 * percent, new GameRoom("bench", new RoomManager()));
+        }
+    }
+
+    /**
+     * A board of at least {@code GameBoard.PARALLEL_CELLS} cells and a fork/join
+     * pool with a given number of threads. With one thread the board is built
+     * sequentially, with more in row bands.
+     */
+    @State(Scope.Thread)
+    public static class ParallelBoard {
+        @Param({ "1000", "4000" })
+        public int size;
+
+        @Param({ "1", "2", "4", "8" })
+        public int threads;
+
+        public GameBoard board;
+        public ForkJoinPool pool;
+        public ForkJoinTask<?> reset;
+
+        @Setup(Level.Trial)
+        public void setUp() {
+            board = new GameBoard(size, size, Boards.mines(size), new GameRoom("bench", new RoomManager()));
+            pool = new ForkJoinPool(threads);
+            reset = ForkJoinTask.adapt(() -> board.reset(1));
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * A board whose every safe cell is revealed, the worst case for the win check.
+     */
+    @State(Scope.Thread)
+    public static class ClearedBoard {
+        @Param({ "16", "100", "1000" })
+        public int size;
+
+        public GameBoard board;
+
+        @Setup(Level.Trial)
+        public void setUp() {
+            board = new GameBoard(size, size, Boards.mines(size), new GameRoom("bench", new RoomManager()));
+            for (int y = 0; y < size; y++) {
+                for (int x = 0; x < size; x++) {
+                    if (!board.getCell(x, y).isMine()) {
+                        board.getCell(x, y).setRevealed(true);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * A board without mines, so one reveal floods every cell. Rebuilt before
+     * each reveal.
+     */
+    @State(Scope.Thread)
+    public static class OpenBoard {
+        @Param({ "16", "100", "1000" })
+        public int size;
+
+        public GameBoard board;
+        public Player player = new Player(1);
+
+        @Setup(Level.Invocation)
+        public void setUp() {
+            board = new GameBoard(size, size, 0, new GameRoom("bench", new RoomManager()));
+            player.setScore(0);
+        }
+    }
+
+    @Benchmark
+    public GameBoard construct(MinedBoard state) {
+        return new GameBoard(state.size, state.size, Boards.mines(state.size), state.room);
+    }
+
+    @Benchmark
+    public GameBoard reset(MinedBoard state) {
+        state.board.reset();
+        return state.board;
+    }
+
+    @Benchmark
+    public GameBoard resetDense(DenseBoard state) {
+        state.board.reset();
+        return state.board;
+    }
+
+    @Benchmark
+    public GameBoard parallelReset(ParallelBoard state) {
+        state.reset.reinitialize();
+        state.pool.invoke(state.reset);
+        return state.board;
+    }
+
+    @Benchmark
+    public RevealResult floodFill(OpenBoard state) {
+        return state.board.revealCell(0, 0, state.player);
+    }
+
+    @Benchmark
+    public boolean allNonMineCellsRevealed(ClearedBoard state) {
+        return state.board.allNonMineCellsRevealed();
+    }
+}
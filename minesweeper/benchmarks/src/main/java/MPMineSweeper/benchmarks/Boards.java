@@ -0,0 +1,21 @@
+package MPMineSweeper.benchmarks;
+
+/**
+ * Shared fixtures for the benchmarks.
+ */
+final class Boards {
+
+    private Boards() {
+    }
+
+    /**
+     * Gets the number of mines for a square board, at the density of the real
+     * game (40 mines on 16x16).
+     *
+     * @param size The board width and height.
+     * @return The mine count.
+     */
+    static int mines(int size) {
+        return (int) ((long) size * size * 40 / 256);
+    }
+}
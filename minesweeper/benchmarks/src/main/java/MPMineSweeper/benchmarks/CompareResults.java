@@ -0,0 +1,160 @@
+package MPMineSweeper.benchmarks;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Compares two JMH result files written with {@code -rf csv}, for example one
+ * from the base revision and one from a change:
+ *
+ * <pre>
+ * java -cp target/benchmarks.jar MPMineSweeper.benchmarks.CompareResults base.csv change.csv
+ * </pre>
+ *
+ * Prints every benchmark and parameter combination found in both files with
+ * both scores and the relative change. A change is only called faster or
+ * slower when the two scores' error margins do not overlap; otherwise it is
+ * reported as noise.
+ */
+public class CompareResults {
+
+    private static final class Result {
+        final String mode;
+        final double score;
+        final double error;
+        final String unit;
+
+        Result(String mode, double score, double error, String unit) {
+            this.mode = mode;
+            this.score = score;
+            this.error = error;
+            this.unit = unit;
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length != 2) {
+            System.err.println("Usage: CompareResults <base.csv> <change.csv>");
+            System.exit(1);
+        }
+        Map<String, Result> base = read(Path.of(args[0]));
+        Map<String, Result> change = read(Path.of(args[1]));
+
+        int nameWidth = "Benchmark".length();
+        for (String name : base.keySet()) {
+            if (change.containsKey(name)) {
+                nameWidth = Math.max(nameWidth, name.length());
+            }
+        }
+        String format = "%-" + nameWidth + "s  %14s  %14s  %8s  %s%n";
+        System.out.printf(format, "Benchmark", "Base", "Change", "Delta", "Verdict");
+        for (Map.Entry<String, Result> entry : base.entrySet()) {
+            Result before = entry.getValue();
+            Result after = change.get(entry.getKey());
+            if (after == null || !before.unit.equals(after.unit)) {
+                continue;
+            }
+            double delta = (after.score - before.score) / before.score * 100;
+            System.out.printf(format, entry.getKey(), formatScore(before), formatScore(after),
+                    String.format("%+.1f%%", delta), verdict(before, after));
+        }
+        for (String name : change.keySet()) {
+            if (!base.containsKey(name)) {
+                System.out.printf(format, name, "-", formatScore(change.get(name)), "", "new");
+            }
+        }
+    }
+
+    private static String formatScore(Result result) {
+        return String.format("%.3f %s", result.score, result.unit.replace("/op", ""));
+    }
+
+    private static String verdict(Result before, Result after) {
+        if (Math.abs(after.score - before.score) <= before.error + after.error) {
+            return "noise";
+        }
+        boolean higherIsBetter = before.mode.equals("thrpt");
+        return (after.score > before.score) == higherIsBetter ? "faster" : "slower";
+    }
+
+    /**
+     * Reads a JMH CSV file into results keyed by benchmark name and parameters.
+     */
+    private static Map<String, Result> read(Path file) throws IOException {
+        List<String> lines = Files.readAllLines(file);
+        Map<String, Result> results = new LinkedHashMap<>();
+        if (lines.isEmpty()) {
+            return results;
+        }
+        List<String> header = split(lines.get(0));
+        int benchmark = header.indexOf("Benchmark");
+        int mode = header.indexOf("Mode");
+        int score = header.indexOf("Score");
+        int error = header.indexOf("Score Error (99.9%)");
+        int unit = header.indexOf("Unit");
+        for (String line : lines.subList(1, lines.size())) {
+            if (line.isBlank()) {
+                continue;
+            }
+            List<String> fields = split(line);
+            StringBuilder name = new StringBuilder(shortName(fields.get(benchmark)));
+            for (int i = 0; i < header.size(); i++) {
+                if (header.get(i).startsWith("Param: ") && i < fields.size() && !fields.get(i).isEmpty()) {
+                    name.append(' ').append(header.get(i).substring(7)).append('=').append(fields.get(i));
+                }
+            }
+            double errorValue = error < 0 ? Double.NaN : parseNumber(fields.get(error));
+            if (Double.isNaN(errorValue)) {
+                errorValue = 0; // JMH has no error margin for a single measurement iteration
+            }
+            results.put(name.toString(), new Result(fields.get(mode), parseNumber(fields.get(score)),
+                    errorValue, fields.get(unit)));
+        }
+        return results;
+    }
+
+    private static String shortName(String benchmark) {
+        String prefix = "MPMineSweeper.benchmarks.";
+        return benchmark.startsWith(prefix) ? benchmark.substring(prefix.length()) : benchmark;
+    }
+
+    private static double parseNumber(String value) {
+        try {
+            return Double.parseDouble(value);
+        } catch (NumberFormatException e) {
+            return Double.NaN;
+        }
+    }
+
+    /**
+     * Splits one CSV line, honouring double-quoted fields.
+     */
+    private static List<String> split(String line) {
+        List<String> fields = new ArrayList<>();
+        StringBuilder field = new StringBuilder();
+        boolean quoted = false;
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (c == '"') {
+                if (quoted && i + 1 < line.length() && line.charAt(i + 1) == '"') {
+                    field.append('"');
+                    i++;
+                } else {
+                    quoted = !quoted;
+                }
+            } else if (c == ',' && !quoted) {
+                fields.add(field.toString());
+                field.setLength(0);
+            } else {
+                field.append(c);
+            }
+        }
+        fields.add(field.toString());
+        return fields;
+    }
+}
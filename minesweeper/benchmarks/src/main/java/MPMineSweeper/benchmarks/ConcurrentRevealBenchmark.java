@@ -0,0 +1,277 @@
+package MPMineSweeper.benchmarks;
+
+import MPMineSweeper.BoardStripes;
+import MPMineSweeper.GameBoard;
+import MPMineSweeper.Player;
+import MPMineSweeper.RevealResult;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.locks.ReentrantLock;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.ThreadParams;
+
+/**
+ * Four players clearing one board at once, with each of the ways a room keeps
+ * their moves apart: one lock for the whole board as in turn mode, a lock per
+ * band of rows as in simultaneous mode, or a compare-and-set per cell as in
+ * lock-free mode. Every thread reveals every cell in its own random order,
+ * flagging some of them first, so the score is the time to clear the board.
+ *
+ * It is also a stress test. Every cell a move reports revealed is tallied, and
+ * the run fails if a cell is reported twice, if the board's counts disagree
+ * with its cells, or if the players' scores add up to anything but 10 points
+ * per safe cell less 50 per mine, at the end of an iteration. The board has no
+ * room, so scores go straight to the players. {@link #main} runs the same check
+ * without JMH:
+ *
+ * <pre>
+ * java -cp target/benchmarks.jar MPMineSweeper.benchmarks.ConcurrentRevealBenchmark [rounds] [size]...
+ * </pre>
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+@Threads(4)
+public class ConcurrentRevealBenchmark {
+
+    /**
+     * The board every thread plays on, rebuilt from the next seed for each
+     * iteration, with its first reveal already made.
+     */
+    @State(Scope.Benchmark)
+    public static class SharedBoard {
+        @Param({ "room", "striped", "cas" })
+        public String engine;
+
+        @Param({ "100", "1000" })
+        public int size;
+
+        public GameBoard board;
+        public ReentrantLock lock;
+        public BoardStripes stripes;
+        public AtomicIntegerArray credits; // Times each cell was reported revealed
+        public Set<Player> players; // Everyone who scored this iteration
+        private long seed;
+
+        @Setup(Level.Iteration)
+        public void setUp() {
+            board = new GameBoard(size, size, Boards.mines(size), null, seed++);
+            board.setTrackChanges(false);
+            lock = new ReentrantLock();
+            stripes = new BoardStripes(size);
+            credits = new AtomicIntegerArray(size * size);
+            players = ConcurrentHashMap.newKeySet();
+            Player opener = new Player(0);
+            players.add(opener);
+            credit(board.revealCell(size / 2, size / 2, opener));
+        }
+
+        int reveal(int x, int y, Player player) {
+            RevealResult result;
+            switch (engine) {
+                case "room":
+                    lock.lock();
+                    try {
+                        result = board.revealCell(x, y, player);
+                    } finally {
+                        lock.unlock();
+                    }
+                    break;
+                case "striped":
+                    try (BoardStripes.Hold hold = stripes.lockRows(y, y)) {
+                        result = board.revealCell(x, y, player, hold);
+                    }
+                    break;
+                default:
+                    result = board.revealCellLockFree(x, y, player);
+                    break;
+            }
+            credit(result);
+            return result.getRevealedCount();
+        }
+
+        void flag(int x, int y, Player player) {
+            switch (engine) {
+                case "room":
+                    lock.lock();
+                    try {
+                        board.toggleFlag(x, y, true, player);
+                    } finally {
+                        lock.unlock();
+                    }
+                    break;
+                case "striped":
+                    try (BoardStripes.Hold hold = stripes.lockRows(y, y)) {
+                        board.toggleFlag(x, y, true, player);
+                    }
+                    break;
+                default:
+                    board.toggleFlagLockFree(x, y, true, player);
+                    break;
+            }
+        }
+
+        private void credit(RevealResult result) {
+            for (int index : result.getRevealedCells()) {
+                if (credits.getAndIncrement(index) != 0) {
+                    throw new IllegalStateException("Cell " + index + " was revealed by two moves");
+                }
+            }
+        }
+
+        @TearDown(Level.Iteration)
+        public void check() {
+            int mines = 0;
+            for (int index = 0; index < size * size; index++) {
+                if (credits.get(index) != 1 || !board.getCell(index % size, index / size).isRevealed()) {
+                    throw new IllegalStateException("Cell " + index + " was revealed " + credits.get(index)
+                            + " times");
+                }
+                if (board.getCell(index % size, index / size).isMine()) {
+                    mines++;
+                }
+            }
+            if (board.getRevealedSafeCount() != size * size - mines || board.getBombRevealedCount() != mines
+                    || board.getFlagCount() != 0) {
+                throw new IllegalStateException("Counts " + board.getRevealedSafeCount() + " safe, "
+                        + board.getBombRevealedCount() + " mines, " + board.getFlagCount()
+                        + " flags do not match the board");
+            }
+            int scores = 0;
+            for (Player player : players) {
+                scores += player.getScore();
+            }
+            int expected = board.getRevealedSafeCount() * 10 - board.getBombRevealedCount() * 50;
+            if (scores != expected) {
+                throw new IllegalStateException("Scores add up to " + scores + ", not " + expected);
+            }
+        }
+    }
+
+    /**
+     * One player: the order it visits the cells in, and which of them it flags.
+     */
+    @State(Scope.Thread)
+    public static class Sweeper {
+        public Player player;
+        public int[] order;
+        public int flagged; // Cells whose index % 8 equals this are flagged before the reveal
+
+        @Setup(Level.Trial)
+        public void setUp(ThreadParams params) {
+            seat(params.getThreadIndex());
+        }
+
+        void seat(int threadIndex) {
+            player = new Player(threadIndex + 1);
+            flagged = threadIndex % 8;
+        }
+
+        @Setup(Level.Iteration)
+        public void shuffle(SharedBoard shared) {
+            player.setScore(0);
+            shared.players.add(player);
+            int cells = shared.size * shared.size;
+            order = new int[cells];
+            for (int i = 0; i < cells; i++) {
+                order[i] = i;
+            }
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            for (int i = cells - 1; i > 0; i--) {
+                int j = random.nextInt(i + 1);
+                int swap = order[i];
+                order[i] = order[j];
+                order[j] = swap;
+            }
+        }
+    }
+
+    @Benchmark
+    public int clearBoard(SharedBoard shared, Sweeper sweeper) {
+        int size = shared.size;
+        int revealed = 0;
+        for (int index : sweeper.order) {
+            int x = index % size;
+            int y = index / size;
+            if (index % 8 == sweeper.flagged) {
+                shared.flag(x, y, sweeper.player);
+            }
+            revealed += shared.reveal(x, y, sweeper.player);
+        }
+        return revealed;
+    }
+
+    /**
+     * Runs the stress test without JMH: four threads clear boards with every
+     * engine, and each board is checked as after a benchmark iteration.
+     *
+     * @param args The number of boards per engine and size, 20 by default, then
+     *             the sizes, 100 by default.
+     * @throws InterruptedException If interrupted while waiting for the threads.
+     */
+    public static void main(String[] args) throws InterruptedException {
+        int rounds = args.length > 0 ? Integer.parseInt(args[0]) : 20;
+        List<Integer> sizes = new ArrayList<>();
+        for (int i = 1; i < args.length; i++) {
+            sizes.add(Integer.parseInt(args[i]));
+        }
+        if (sizes.isEmpty()) {
+            sizes.add(100);
+        }
+        for (String engine : new String[] { "room", "striped", "cas" }) {
+            for (int size : sizes) {
+                SharedBoard shared = new SharedBoard();
+                shared.engine = engine;
+                shared.size = size;
+                for (int round = 0; round < rounds; round++) {
+                    shared.setUp();
+                    Thread[] threads = new Thread[4];
+                    RuntimeException[] failure = new RuntimeException[1];
+                    for (int t = 0; t < threads.length; t++) {
+                        Sweeper sweeper = new Sweeper();
+                        sweeper.seat(t);
+                        sweeper.shuffle(shared);
+                        threads[t] = new Thread(() -> {
+                            try {
+                                new ConcurrentRevealBenchmark().clearBoard(shared, sweeper);
+                            } catch (RuntimeException e) {
+                                failure[0] = e;
+                            }
+                        });
+                    }
+                    for (Thread thread : threads) {
+                        thread.start();
+                    }
+                    for (Thread thread : threads) {
+                        thread.join();
+                    }
+                    if (failure[0] != null) {
+                        throw failure[0];
+                    }
+                    shared.check();
+                }
+                System.out.println(engine + " " + size + "x" + size + ": " + rounds + " boards passed");
+            }
+        }
+    }
+}
@@ -0,0 +1,111 @@
+package MPMineSweeper.benchmarks;
+
+import MPMineSweeper.EncryptionUtil;
+import MPMineSweeper.GameRoom;
+import MPMineSweeper.RoomManager;
+import MPMineSweeper.SessionCipher;
+import MPMineSweeper.TextMessageCodec;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Encrypting and decrypting text protocol lines: a MOVE, and the SNAPSHOT of a
+ * board of each size. {@code ecb} is {@link EncryptionUtil}, which builds a new
+ * cipher for every message; {@code session} is the {@link SessionCipher} each
+ * connection keeps.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CryptoBenchmark {
+    private static final String MOVE = "MOVE 7 9 1";
+    private static final String KEY = EncryptionUtil.createKey();
+
+    /**
+     * A client/server cipher pair and the MOVE line sealed with the ECB helper.
+     */
+    @State(Scope.Thread)
+    public static class Keys {
+        public SessionCipher client;
+        public SessionCipher server;
+        public String ecbMove;
+
+        @Setup(Level.Trial)
+        public void setUp() {
+            client = SessionCipher.forClient(KEY);
+            server = SessionCipher.forServer(KEY);
+            ecbMove = EncryptionUtil.encrypt(MOVE, KEY);
+        }
+    }
+
+    /**
+     * The SNAPSHOT line of a board, plain and sealed.
+     */
+    @State(Scope.Thread)
+    public static class Snapshot {
+        @Param({ "16", "100", "1000" })
+        public int size;
+
+        public String line;
+        public String ecbLine;
+
+        @Setup(Level.Trial)
+        public void setUp() {
+            GameRoom room = new GameRoom("bench", new RoomManager(), size, size, Boards.mines(size));
+            line = TextMessageCodec.format(room.createSnapshot());
+            ecbLine = EncryptionUtil.encrypt(line, KEY);
+        }
+    }
+
+    @Benchmark
+    public String ecbEncryptMove() {
+        return EncryptionUtil.encrypt(MOVE, KEY);
+    }
+
+    @Benchmark
+    public String ecbDecryptMove(Keys keys) {
+        return EncryptionUtil.decrypt(keys.ecbMove, KEY);
+    }
+
+    @Benchmark
+    public String ecbEncryptSnapshot(Snapshot snapshot) {
+        return EncryptionUtil.encrypt(snapshot.line, KEY);
+    }
+
+    @Benchmark
+    public String ecbDecryptSnapshot(Snapshot snapshot) {
+        return EncryptionUtil.decrypt(snapshot.ecbLine, KEY);
+    }
+
+    /**
+     * Sealing and opening together, since the session ciphers reject a message
+     * whose counter they have already seen.
+     */
+    @Benchmark
+    public String sessionRoundTripMove(Keys keys) {
+        return keys.server.decryptLine(keys.client.encryptLine(MOVE));
+    }
+
+    @Benchmark
+    public String sessionRoundTripSnapshot(Keys keys, Snapshot snapshot) {
+        return keys.client.decryptLine(keys.server.encryptLine(snapshot.line));
+    }
+
+    @Benchmark
+    public String sessionEncryptSnapshot(Keys keys, Snapshot snapshot) {
+        return keys.server.encryptLine(snapshot.line);
+    }
+}
@@ -0,0 +1,73 @@
+package MPMineSweeper.benchmarks;
+
+import MPMineSweeper.MoveLog;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Appending MOVE records to a {@link MoveLog} in a temporary directory, from one
+ * thread and from four at once. Includes rolling over to a new segment every
+ * few million records.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class MoveLogBenchmark {
+
+    /**
+     * An open log, deleted after the run.
+     */
+    @State(Scope.Benchmark)
+    public static class Log {
+        public Path directory;
+        public MoveLog log;
+        public int room;
+
+        @Setup(Level.Trial)
+        public void setUp() throws IOException {
+            directory = Files.createTempDirectory("move-log-bench");
+            log = MoveLog.open(directory);
+            room = log.openRoom("bench");
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() throws IOException {
+            log.close();
+            try (Stream<Path> files = Files.walk(directory)) {
+                for (Path path : files.sorted(Comparator.reverseOrder()).toList()) {
+                    Files.delete(path);
+                }
+            }
+        }
+    }
+
+    @Benchmark
+    public void appendMove(Log state) {
+        state.log.move(state.room, 1, 7, 9);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public void appendMoveContended(Log state) {
+        state.log.move(state.room, 1, 7, 9);
+    }
+}
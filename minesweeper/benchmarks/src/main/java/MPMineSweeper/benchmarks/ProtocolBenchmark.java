@@ -0,0 +1,114 @@
+package MPMineSweeper.benchmarks;
+
+import MPMineSweeper.BinaryMessageDecoder;
+import MPMineSweeper.BinaryMessageEncoder;
+import MPMineSweeper.ClientBoard;
+import MPMineSweeper.GameRoom;
+import MPMineSweeper.Message;
+import MPMineSweeper.RoomManager;
+import MPMineSweeper.TextMessageCodec;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Building a board snapshot on the server and turning it into wire form and
+ * back, and applying it on the client. The parse benchmarks are what
+ * {@code GameClient} does with every SNAPSHOT before handing the cells to
+ * {@link ClientBoard#apply}, which is measured with every cell changing and
+ * with none. The repaint that follows needs a window and is not measured here.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class ProtocolBenchmark {
+
+    @Param({ "16", "100", "1000" })
+    public int size;
+
+    private GameRoom room;
+    private Message snapshot;
+    private String snapshotLine;
+    private byte[] snapshotPayload;
+    private ClientBoard clientBoard;
+    private int[] hiddenCells; // The snapshot's cells, as the client parses them
+    private int[] revealedCells; // The same cells, each revealed
+    private boolean revealed; // Which of the two the client board holds
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        room = new GameRoom("bench", new RoomManager(), size, size, Boards.mines(size));
+        snapshot = room.createSnapshot();
+        snapshotLine = TextMessageCodec.format(snapshot);
+        snapshotPayload = BinaryMessageEncoder.encode(snapshot);
+        clientBoard = new ClientBoard(size, size);
+        hiddenCells = TextMessageCodec.parse(snapshotLine).getArgs();
+        revealedCells = hiddenCells.clone();
+        for (int i = 0; i + 3 < revealedCells.length; i += 4) {
+            revealedCells[i + 2] = 1;
+            revealedCells[i + 3] = (revealedCells[i] + revealedCells[i + 1]) % 9;
+        }
+    }
+
+    /**
+     * GameRoom.createGameStateMessage, through the public method that wraps it.
+     */
+    @Benchmark
+    public Message createSnapshot() {
+        return room.createSnapshot();
+    }
+
+    @Benchmark
+    public String formatText() {
+        return TextMessageCodec.format(snapshot);
+    }
+
+    @Benchmark
+    public Message parseText() {
+        return TextMessageCodec.parse(snapshotLine);
+    }
+
+    @Benchmark
+    public byte[] encodeBinary() {
+        return BinaryMessageEncoder.encode(snapshot);
+    }
+
+    @Benchmark
+    public Message decodeBinary() {
+        return BinaryMessageDecoder.decode(snapshotPayload);
+    }
+
+    /**
+     * ClientBoard.apply of a snapshot in which every cell differs from the
+     * last one, alternating between the board hidden and revealed.
+     */
+    @Benchmark
+    public ClientBoard applySnapshot() {
+        revealed = !revealed;
+        clientBoard.apply(revealed ? revealedCells : hiddenCells);
+        return clientBoard;
+    }
+
+    /**
+     * ClientBoard.apply of a snapshot the board already holds, as a resync of
+     * a client that missed nothing is.
+     */
+    @Benchmark
+    public ClientBoard applyUnchanged() {
+        clientBoard.apply(hiddenCells);
+        return clientBoard;
+    }
+}
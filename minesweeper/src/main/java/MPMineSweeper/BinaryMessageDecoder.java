@@ -0,0 +1,115 @@
+package MPMineSweeper;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Decodes payloads produced by {@link BinaryMessageEncoder}, and reads
+ * length-prefixed frames from a blocking stream.
+ */
+public class BinaryMessageDecoder {
+    /** Largest frame either side accepts; a full 1000x1000 snapshot fits comfortably. */
+    public static final int MAX_FRAME_SIZE = 16 * 1024 * 1024;
+
+    /**
+     * Decodes one payload.
+     *
+     * @param payload The decrypted payload bytes.
+     * @return The message, or null if the opcode is unknown or the payload is truncated.
+     */
+    public static Message decode(byte[] payload) {
+        if (payload == null || payload.length == 0) {
+            return null;
+        }
+        Opcode opcode = Opcode.fromCode(payload[0] & 0xFF & ~BinaryMessageEncoder.SEQUENCED);
+        if (opcode == null) {
+            return null;
+        }
+        int[] position = { 1 };
+        try {
+            int sequence = (payload[0] & BinaryMessageEncoder.SEQUENCED) == 0 ? 0 : readVarint(payload, position);
+            int argCount = readVarint(payload, position);
+            if (argCount < 0 || argCount > payload.length) {
+                return null;
+            }
+            int[] args = new int[argCount];
+            for (int i = 0; i < argCount; i++) {
+                args[i] = unzigzag(readVarint(payload, position));
+            }
+            int textLength = readVarint(payload, position);
+            String text = null;
+            if (textLength > 0) {
+                if (position[0] + textLength > payload.length) {
+                    return null;
+                }
+                text = new String(payload, position[0], textLength, StandardCharsets.UTF_8);
+            }
+            Message message = Message.withText(opcode, text, args);
+            return sequence == 0 ? message : message.withSequence(sequence);
+        } catch (ArrayIndexOutOfBoundsException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Reads one length-prefixed frame from a stream.
+     *
+     * @param in The stream positioned at the start of a frame.
+     * @return The frame payload, or null at end of stream.
+     * @throws IOException If the stream fails or the frame is oversized or truncated.
+     */
+    public static byte[] readFrame(InputStream in) throws IOException {
+        int length = 0;
+        int shift = 0;
+        int b;
+        do {
+            b = in.read();
+            if (b < 0) {
+                if (shift == 0) {
+                    return null;
+                }
+                throw new EOFException("Stream ended inside a frame header");
+            }
+            length |= (b & 0x7F) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0 && shift < 35);
+        if (length < 0 || length > MAX_FRAME_SIZE) {
+            throw new IOException("Frame too large: " + length);
+        }
+        byte[] payload = new byte[length];
+        int read = 0;
+        while (read < length) {
+            int n = in.read(payload, read, length - read);
+            if (n < 0) {
+                throw new EOFException("Stream ended inside a frame");
+            }
+            read += n;
+        }
+        return payload;
+    }
+
+    /**
+     * Reads an unsigned varint.
+     *
+     * @param source   The bytes to read from.
+     * @param position A one-element holder for the read position, advanced past the varint.
+     * @return The value.
+     */
+    public static int readVarint(byte[] source, int[] position) {
+        int value = 0;
+        int shift = 0;
+        byte b;
+        do {
+            b = source[position[0]++];
+            value |= (b & 0x7F) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0 && shift < 35);
+        return value;
+    }
+
+    private static int unzigzag(int value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+}
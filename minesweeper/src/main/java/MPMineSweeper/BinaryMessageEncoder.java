@@ -0,0 +1,103 @@
+package MPMineSweeper;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Encodes messages for the binary protocol. A payload is the opcode byte, the
+ * argument count and every argument as varints (zigzag, so negative scores stay
+ * short), then the optional word as a length-prefixed UTF-8 string. A numbered
+ * message sets the top bit of the opcode byte and follows it with its sequence
+ * number as a varint. On the wire each payload is preceded by its length as a
+ * varint.
+ */
+public class BinaryMessageEncoder {
+    /** Set in the opcode byte of a numbered message. */
+    static final int SEQUENCED = 0x80;
+
+    /**
+     * Encodes one message into a payload.
+     *
+     * @param message The message to encode.
+     * @return The payload bytes, without the frame length prefix.
+     */
+    public static byte[] encode(Message message) {
+        int[] args = message.getArgs();
+        byte[] text = message.getText() == null ? null : message.getText().getBytes(StandardCharsets.UTF_8);
+
+        int sequence = message.getSequence();
+        int size = 1 + (sequence == 0 ? 0 : varintSize(sequence)) + varintSize(args.length);
+        for (int arg : args) {
+            size += varintSize(zigzag(arg));
+        }
+        size += text == null ? 1 : varintSize(text.length) + text.length;
+
+        byte[] payload = new byte[size];
+        int position = 0;
+        if (sequence == 0) {
+            payload[position++] = (byte) message.getOpcode().getCode();
+        } else {
+            payload[position++] = (byte) (message.getOpcode().getCode() | SEQUENCED);
+            position = writeVarint(payload, position, sequence);
+        }
+        position = writeVarint(payload, position, args.length);
+        for (int arg : args) {
+            position = writeVarint(payload, position, zigzag(arg));
+        }
+        if (text == null) {
+            payload[position] = 0;
+        } else {
+            position = writeVarint(payload, position, text.length);
+            System.arraycopy(text, 0, payload, position, text.length);
+        }
+        return payload;
+    }
+
+    /**
+     * Prefixes a payload with its length, producing a complete frame.
+     *
+     * @param payload The (encrypted) payload.
+     * @return The frame bytes.
+     */
+    public static byte[] frame(byte[] payload) {
+        byte[] frame = new byte[varintSize(payload.length) + payload.length];
+        int position = writeVarint(frame, 0, payload.length);
+        System.arraycopy(payload, 0, frame, position, payload.length);
+        return frame;
+    }
+
+    /**
+     * Writes an unsigned varint, seven bits per byte, low bits first.
+     *
+     * @param target   The array to write into.
+     * @param position The index of the first byte to write.
+     * @param value    The value, treated as unsigned.
+     * @return The index after the last byte written.
+     */
+    public static int writeVarint(byte[] target, int position, int value) {
+        while ((value & ~0x7F) != 0) {
+            target[position++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        target[position++] = (byte) value;
+        return position;
+    }
+
+    /**
+     * Gets the number of bytes an unsigned varint takes.
+     *
+     * @param value The value, treated as unsigned.
+     * @return The encoded size, 1 to 5 bytes.
+     */
+    public static int varintSize(int value) {
+        int size = 1;
+        while ((value & ~0x7F) != 0) {
+            size++;
+            value >>>= 7;
+        }
+        return size;
+    }
+
+    private static int zigzag(int value) {
+        return (value << 1) ^ (value >> 31);
+    }
+}
@@ -0,0 +1,144 @@
+package MPMineSweeper;
+
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Locks for a board played in simultaneous mode, one per band of
+ * {@link #STRIPE_ROWS} rows. A move locks only the bands it touches, so moves
+ * in different parts of the board run at the same time.
+ *
+ * Bands are always locked in ascending order, and a thread holds one
+ * contiguous range of them. A flood fill that spreads beyond its range extends
+ * it: bands further down the board can be waited for, since every band it
+ * holds comes before them; bands further up are only tried, and if one is busy
+ * the whole range is given up and locked again from the first band. No two
+ * threads can therefore wait for each other.
+ */
+public final class BoardStripes {
+    static final int STRIPE_ROWS = 8;
+
+    private final ReentrantLock[] locks;
+    private final int height;
+
+    /**
+     * Creates the locks for a board.
+     *
+     * @param height The board height in rows.
+     */
+    public BoardStripes(int height) {
+        this.height = height;
+        this.locks = new ReentrantLock[(height + STRIPE_ROWS - 1) / STRIPE_ROWS];
+        for (int i = 0; i < locks.length; i++) {
+            locks[i] = new ReentrantLock();
+        }
+    }
+
+    /**
+     * Locks the bands holding a range of rows.
+     *
+     * @param top    The first row.
+     * @param bottom The last row, inclusive.
+     * @return The held bands, to be closed when done.
+     */
+    public Hold lockRows(int top, int bottom) {
+        Hold hold = new Hold();
+        hold.lockRange(top / STRIPE_ROWS, bottom / STRIPE_ROWS);
+        return hold;
+    }
+
+    /**
+     * Locks every band, which excludes every other move.
+     *
+     * @return The held bands, to be closed when done.
+     */
+    public Hold lockAll() {
+        return lockRows(0, height - 1);
+    }
+
+    private void lock(int stripe) {
+        ReentrantLock lock = locks[stripe];
+        if (lock.tryLock()) {
+            ServerMetrics.get().lockAcquired(0, false);
+            return;
+        }
+        long start = System.nanoTime();
+        lock.lock();
+        ServerMetrics.get().lockAcquired(System.nanoTime() - start, true);
+    }
+
+    /**
+     * A contiguous range of bands held by one thread.
+     */
+    public final class Hold implements AutoCloseable {
+        private int low = 0; // First held band
+        private int high = -1; // Last held band; low > high while nothing is held
+
+        private Hold() {
+        }
+
+        private void lockRange(int first, int last) {
+            low = first;
+            for (int stripe = first; stripe <= last; stripe++) {
+                lock(stripe);
+                high = stripe;
+            }
+        }
+
+        /**
+         * Checks whether a range of rows may be read and written.
+         *
+         * @param top    The first row.
+         * @param bottom The last row, inclusive.
+         * @return true if every band holding those rows is held.
+         */
+        public boolean coversRows(int top, int bottom) {
+            return top / STRIPE_ROWS >= low && bottom / STRIPE_ROWS <= high;
+        }
+
+        /**
+         * Checks whether every band of the board is held.
+         *
+         * @return true if no other move can run.
+         */
+        public boolean coversAll() {
+            return low == 0 && high == locks.length - 1;
+        }
+
+        /**
+         * Grows the held range to cover a range of rows, as described for the
+         * class. Bands that had to be given up may have changed in between.
+         *
+         * @param top    The first row.
+         * @param bottom The last row, inclusive.
+         */
+        public void extendRows(int top, int bottom) {
+            int first = Math.min(low, top / STRIPE_ROWS);
+            int last = Math.max(high, bottom / STRIPE_ROWS);
+            for (int stripe = high + 1; stripe <= last; stripe++) {
+                lock(stripe); // After every held band, so waiting keeps the order
+                high = stripe;
+            }
+            while (low > first) {
+                if (!locks[low - 1].tryLock()) {
+                    close();
+                    lockRange(first, last);
+                    return;
+                }
+                ServerMetrics.get().lockAcquired(0, false);
+                low--;
+            }
+        }
+
+        /**
+         * Unlocks every held band.
+         */
+        @Override
+        public void close() {
+            for (int stripe = high; stripe >= low; stripe--) {
+                locks[stripe].unlock();
+            }
+            low = 0;
+            high = -1;
+        }
+    }
+}
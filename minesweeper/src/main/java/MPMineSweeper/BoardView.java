@@ -0,0 +1,240 @@
+package MPMineSweeper;
+
+import javax.swing.ImageIcon;
+import javax.swing.JComponent;
+import javax.swing.SwingUtilities;
+import java.awt.Color;
+import java.awt.Dimension;
+import java.awt.Graphics;
+import java.awt.Graphics2D;
+import java.awt.Image;
+import java.awt.Rectangle;
+import java.awt.event.MouseAdapter;
+import java.awt.event.MouseEvent;
+import java.net.URL;
+
+/**
+ * Draws the visible part of the board as one component, straight from the
+ * client's {@link ClientBoard}. Cells are squares of {@link #CELL_SIZE}
+ * pixels, so a mouse position maps to a cell by division, and only the cells
+ * inside the clip are painted. When cells change, only the rectangle around
+ * the visible ones is repainted.
+ *
+ * A left click on a hidden cell reveals it and a right click flags or unflags
+ * it. Clicks are ignored while the cells are disabled.
+ */
+public class BoardView extends JComponent {
+    public static final int CELL_SIZE = 24;
+
+    private static final Color HIDDEN = Color.LIGHT_GRAY;
+    private static final Color REVEALED = Color.WHITE;
+    private static final Color MINE = Color.RED;
+    private static final Color FLAGGED = Color.YELLOW;
+    private static final Color GRID = Color.BLACK;
+    private static final Image mineImage = loadImage("/mineicon.png");
+    private static final Image flagImage = loadImage("/flagicon.png");
+    private static final Image[] numberImages = new Image[8];
+    static {
+        for (int i = 0; i < 8; i++) {
+            numberImages[i] = loadImage("/iconNumber" + (i + 1) + ".png");
+        }
+    }
+
+    private final ClientBoard board;
+    private final CellActions actions;
+    private int originX; // Board coordinates of the top left visible cell
+    private int originY;
+    private int columns; // Visible columns
+    private int rows; // Visible rows
+    private boolean cellsEnabled = true;
+
+    /**
+     * What a click on a cell asks for.
+     */
+    public interface CellActions {
+        /**
+         * A hidden cell that is not flagged was left clicked.
+         *
+         * @param x The column on the board.
+         * @param y The row on the board.
+         */
+        void reveal(int x, int y);
+
+        /**
+         * A cell that is not revealed was right clicked.
+         *
+         * @param x       The column on the board.
+         * @param y       The row on the board.
+         * @param flagged true to place a flag, false to remove it.
+         */
+        void flag(int x, int y, boolean flagged);
+    }
+
+    /**
+     * Creates a view of a board, showing nothing until it is given a region.
+     *
+     * @param board   The board to draw.
+     * @param actions What to do when a cell is clicked.
+     */
+    public BoardView(ClientBoard board, CellActions actions) {
+        this.board = board;
+        this.actions = actions;
+        setOpaque(true);
+        setBackground(HIDDEN);
+        addMouseListener(new MouseAdapter() {
+            @Override
+            public void mouseClicked(MouseEvent e) {
+                handleClick(e);
+            }
+        });
+    }
+
+    private static Image loadImage(String name) {
+        URL url = BoardView.class.getResource(name);
+        return url != null ? new ImageIcon(url).getImage() : null;
+    }
+
+    /**
+     * Sets the part of the board on screen.
+     *
+     * @param x       The left column.
+     * @param y       The top row.
+     * @param columns The number of visible columns.
+     * @param rows    The number of visible rows.
+     */
+    public void setRegion(int x, int y, int columns, int rows) {
+        boolean resized = columns != this.columns || rows != this.rows;
+        this.originX = x;
+        this.originY = y;
+        this.columns = columns;
+        this.rows = rows;
+        if (resized) {
+            revalidate();
+        }
+        repaint();
+    }
+
+    /**
+     * Enables or disables clicks on cells.
+     *
+     * @param enabled true to act on clicks, false to ignore them.
+     */
+    public void setCellsEnabled(boolean enabled) {
+        cellsEnabled = enabled;
+    }
+
+    @Override
+    public Dimension getPreferredSize() {
+        return new Dimension(columns * CELL_SIZE, rows * CELL_SIZE);
+    }
+
+    @Override
+    public Dimension getMinimumSize() {
+        return getPreferredSize();
+    }
+
+    /**
+     * Repaints the visible cells among those that changed on the board, as one
+     * rectangle around them. Called by the board on the event dispatch thread.
+     *
+     * @param indices The changed cells, y * board width + x.
+     */
+    public void showCells(int[] indices) {
+        int width = board.getWidth();
+        int minColumn = columns;
+        int minRow = rows;
+        int maxColumn = -1;
+        int maxRow = -1;
+        for (int index : indices) {
+            int column = index % width - originX;
+            int row = index / width - originY;
+            if (column >= 0 && column < columns && row >= 0 && row < rows) {
+                minColumn = Math.min(minColumn, column);
+                maxColumn = Math.max(maxColumn, column);
+                minRow = Math.min(minRow, row);
+                maxRow = Math.max(maxRow, row);
+            }
+        }
+        if (maxColumn >= 0) {
+            repaint(minColumn * CELL_SIZE, minRow * CELL_SIZE, (maxColumn - minColumn + 1) * CELL_SIZE,
+                    (maxRow - minRow + 1) * CELL_SIZE);
+        }
+    }
+
+    private void handleClick(MouseEvent e) {
+        if (!cellsEnabled || e.getX() < 0 || e.getY() < 0) {
+            return;
+        }
+        int column = e.getX() / CELL_SIZE;
+        int row = e.getY() / CELL_SIZE;
+        if (column >= columns || row >= rows) {
+            return;
+        }
+        int x = originX + column;
+        int y = originY + row;
+        int state = board.getState(x, y);
+        if (SwingUtilities.isRightMouseButton(e)) {
+            if (state == 0 || state == 3) {
+                actions.flag(x, y, state == 0);
+            }
+        } else if (SwingUtilities.isLeftMouseButton(e) && state == 0) {
+            actions.reveal(x, y);
+        }
+    }
+
+    @Override
+    protected void paintComponent(Graphics g) {
+        Graphics2D g2 = (Graphics2D) g;
+        Rectangle clip = g2.getClipBounds();
+        if (clip == null) {
+            clip = new Rectangle(0, 0, getWidth(), getHeight());
+        }
+        g2.setColor(getBackground());
+        g2.fillRect(clip.x, clip.y, clip.width, clip.height);
+
+        int firstColumn = Math.max(0, clip.x / CELL_SIZE);
+        int firstRow = Math.max(0, clip.y / CELL_SIZE);
+        int lastColumn = Math.min(columns - 1, (clip.x + clip.width - 1) / CELL_SIZE);
+        int lastRow = Math.min(rows - 1, (clip.y + clip.height - 1) / CELL_SIZE);
+        for (int row = firstRow; row <= lastRow; row++) {
+            for (int column = firstColumn; column <= lastColumn; column++) {
+                int x = originX + column;
+                int y = originY + row;
+                paintCell(g2, column * CELL_SIZE, row * CELL_SIZE, board.getState(x, y), board.getMineCount(x, y));
+            }
+        }
+    }
+
+    /**
+     * Paints one cell as the old buttons showed it: grey while hidden, white
+     * with its count once revealed, red with a mine and yellow with a flag.
+     */
+    private void paintCell(Graphics2D g2, int left, int top, int state, int minesCount) {
+        Image image;
+        switch (state) {
+            case 1: // Revealed cell with no mine
+                g2.setColor(REVEALED);
+                image = minesCount > 0 && minesCount <= 8 ? numberImages[minesCount - 1] : null;
+                break;
+            case 2: // Revealed cell with a mine
+                g2.setColor(MINE);
+                image = mineImage;
+                break;
+            case 3: // Flagged
+                g2.setColor(FLAGGED);
+                image = flagImage;
+                break;
+            default: // Hidden
+                g2.setColor(HIDDEN);
+                image = null;
+                break;
+        }
+        g2.fillRect(left, top, CELL_SIZE, CELL_SIZE);
+        if (image != null) {
+            int inset = (CELL_SIZE - image.getWidth(null)) / 2;
+            g2.drawImage(image, left + inset, top + inset, null);
+        }
+        g2.setColor(GRID);
+        g2.drawRect(left, top, CELL_SIZE - 1, CELL_SIZE - 1);
+    }
+}
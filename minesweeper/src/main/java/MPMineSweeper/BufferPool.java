@@ -0,0 +1,69 @@
+package MPMineSweeper;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A small pool of fixed-size direct byte buffers shared by the NIO event loops,
+ * so socket reads and writes do not allocate a new buffer per message.
+ */
+public class BufferPool {
+    private final int bufferSize;
+    private final int maxPooled;
+    private final ConcurrentLinkedQueue<ByteBuffer> freeBuffers;
+    private final AtomicInteger pooledCount;
+
+    /**
+     * Creates an empty pool. Buffers are allocated lazily on first use.
+     *
+     * @param bufferSize The capacity of every buffer handed out.
+     * @param maxPooled  The most idle buffers kept around; extras are left to the GC.
+     */
+    public BufferPool(int bufferSize, int maxPooled) {
+        this.bufferSize = bufferSize;
+        this.maxPooled = maxPooled;
+        this.freeBuffers = new ConcurrentLinkedQueue<>();
+        this.pooledCount = new AtomicInteger(0);
+    }
+
+    /**
+     * Takes a cleared buffer from the pool, allocating one if the pool is empty.
+     *
+     * @return A buffer ready for writing.
+     */
+    public ByteBuffer acquire() {
+        ByteBuffer buffer = freeBuffers.poll();
+        if (buffer == null) {
+            return ByteBuffer.allocateDirect(bufferSize);
+        }
+        pooledCount.decrementAndGet();
+        buffer.clear();
+        return buffer;
+    }
+
+    /**
+     * Returns a buffer to the pool. The caller must not touch it afterwards.
+     *
+     * @param buffer The buffer previously obtained from {@link #acquire()}.
+     */
+    public void release(ByteBuffer buffer) {
+        if (buffer.capacity() != bufferSize) {
+            return;
+        }
+        if (pooledCount.incrementAndGet() <= maxPooled) {
+            freeBuffers.offer(buffer);
+        } else {
+            pooledCount.decrementAndGet();
+        }
+    }
+
+    /**
+     * Gets the capacity of the buffers in this pool.
+     *
+     * @return The buffer size in bytes.
+     */
+    public int getBufferSize() {
+        return bufferSize;
+    }
+}
@@ -1,22 +1,23 @@
 package MPMineSweeper;
 
+/**
+ * A view of one cell of a {@link GameBoard}. The board keeps every cell packed
+ * into a byte; reads and writes through this view go straight to that byte, so
+ * a view holds no state of its own and may be discarded at any time.
+ */
 public class Cell {
-    private boolean isMine; // Indicates if the cell is a mine
-    private boolean flagged; // Indicates if the cell is flagged
-    private int neighboringMines; // Number of neighboring mines
-    private boolean isRevealed; // Indicates if the cell is revealed
-    private Player revealedBy; // Player who revealed this cell
+    private final GameBoard board;
+    private final int index;
 
     /**
-     * Constructor for Cell. Initializes the cell as not a mine, not flagged,
-     * with zero neighboring mines, not revealed, and with no player who revealed it.
+     * Creates a view of one cell.
+     *
+     * @param board The board holding the cell.
+     * @param index The cell's index, y * width + x.
      */
-    public Cell() {
-        this.isMine = false;
-        this.flagged = false;
-        this.neighboringMines = 0;
-        this.isRevealed = false;
-        this.revealedBy = null;
+    Cell(GameBoard board, int index) {
+        this.board = board;
+        this.index = index;
     }
 
     /**
@@ -24,15 +25,15 @@ public class Cell {
      * @return true if the cell is a mine, false otherwise.
      */
     public boolean isMine() {
-        return isMine;
+        return (board.getState(index) & GameBoard.MINE) != 0;
     }
 
     /**
-     * Sets the cell as a mine or not.
+     * Sets the cell as a mine or not. Neighbouring counts are not updated.
      * @param mine true to set the cell as a mine, false otherwise.
      */
     public void setMine(boolean mine) {
-        isMine = mine;
+        setBit(GameBoard.MINE, mine);
     }
 
     /**
@@ -40,7 +41,7 @@ public class Cell {
      * @return true if the cell is flagged, false otherwise.
      */
     public boolean isFlagged() {
-        return flagged;
+        return (board.getState(index) & GameBoard.FLAGGED) != 0;
     }
 
     /**
@@ -48,7 +49,7 @@ public class Cell {
      * @param flagged true to flag the cell, false to unflag it.
      */
     public void setFlagged(boolean flagged) {
-        this.flagged = flagged;
+        setBit(GameBoard.FLAGGED, flagged);
     }
 
     /**
@@ -56,15 +57,15 @@ public class Cell {
      * @return the number of neighboring mines.
      */
     public int getNeighboringMines() {
-        return neighboringMines;
+        return board.getState(index) & GameBoard.COUNT_MASK;
     }
 
     /**
      * Sets the number of neighboring mines for this cell.
-     * @param neighboringMines the number of neighboring mines.
+     * @param neighboringMines the number of neighboring mines, 0 to 8.
      */
     public void setNeighboringMines(int neighboringMines) {
-        this.neighboringMines = neighboringMines;
+        board.setState(index, board.getState(index) & ~GameBoard.COUNT_MASK | neighboringMines & GameBoard.COUNT_MASK);
     }
 
     /**
@@ -72,7 +73,7 @@ public class Cell {
      * @return true if the cell is revealed, false otherwise.
      */
     public boolean isRevealed() {
-        return isRevealed;
+        return (board.getState(index) & GameBoard.REVEALED) != 0;
     }
 
     /**
@@ -80,22 +81,11 @@ public class Cell {
      * @param revealed true to reveal the cell, false to hide it.
      */
     public void setRevealed(boolean revealed) {
-        isRevealed = revealed;
+        setBit(GameBoard.REVEALED, revealed);
     }
 
-    /**
-     * Gets the player who revealed the cell.
-     * @return the player who revealed the cell, or null if the cell hasn't been revealed yet.
-     */
-    public Player getRevealedBy() {
-        return revealedBy;
-    }
-
-    /**
-     * Sets the player who revealed the cell.
-     * @param player the player who revealed the cell.
-     */
-    public void setRevealedBy(Player player) {
-        this.revealedBy = player;
+    private void setBit(int bit, boolean set) {
+        int state = board.getState(index);
+        board.setState(index, set ? state | bit : state & ~bit);
     }
 }
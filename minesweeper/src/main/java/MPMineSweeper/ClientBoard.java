@@ -0,0 +1,158 @@
+package MPMineSweeper;
+
+import javax.swing.SwingUtilities;
+import java.util.BitSet;
+import java.util.function.Consumer;
+
+/**
+ * The client's copy of the board: the last state heard for every cell. The
+ * thread reading from the server applies {@code UPDATE}, {@code SNAPSHOT} and
+ * {@code CELL_STATE} messages to it, and only cells whose state or mine count
+ * actually changed are marked. One task on the event dispatch thread then hands
+ * every cell marked since the last task to the window, so a burst of messages
+ * costs one task and one repaint, however many cells it names.
+ *
+ * The window reads cells on the event dispatch thread without locking. A cell
+ * that changes after the last task may be shown in its old state for a moment,
+ * but it is marked, and the next task shows it again.
+ */
+public final class ClientBoard {
+    private volatile Grid grid;
+    private BitSet changed; // Cells changed since the last task, guarded by this
+    private boolean taskPending; // A task is queued and has not taken the changed cells yet
+    private volatile Consumer<int[]> listener;
+
+    /** One board size's cells; replaced whole, so a reader never mixes two sizes. */
+    private static final class Grid {
+        final int width;
+        final int height;
+        final byte[] states; // y * width + x
+        final byte[] mineCounts;
+
+        Grid(int width, int height) {
+            this.width = width;
+            this.height = height;
+            this.states = new byte[width * height];
+            this.mineCounts = new byte[width * height];
+        }
+    }
+
+    /**
+     * Creates a board with every cell hidden.
+     *
+     * @param width  The board width in cells.
+     * @param height The board height in cells.
+     */
+    public ClientBoard(int width, int height) {
+        reset(width, height);
+    }
+
+    /**
+     * Sets what is told about changed cells, on the event dispatch thread.
+     *
+     * @param listener Called with the index, y * width + x, of every cell that
+     *                 changed since it was last called, each once.
+     */
+    public void setListener(Consumer<int[]> listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Starts a board of a new size with every cell hidden. Cells changed on the
+     * old board and not yet shown are forgotten; the window redraws every cell
+     * when it learns the new size.
+     *
+     * @param width  The board width in cells.
+     * @param height The board height in cells.
+     */
+    public synchronized void reset(int width, int height) {
+        grid = new Grid(width, height);
+        changed = new BitSet(width * height);
+    }
+
+    /**
+     * Applies cell states from the server, keeping only those that differ from
+     * what the board holds. Cells outside the board are ignored.
+     *
+     * @param cells x, y, state, count quadruples, as UPDATE and SNAPSHOT carry them.
+     */
+    public synchronized void apply(int[] cells) {
+        Grid current = grid;
+        boolean any = false;
+        for (int i = 0; i + 3 < cells.length; i += 4) {
+            int x = cells[i];
+            int y = cells[i + 1];
+            if (x < 0 || x >= current.width || y < 0 || y >= current.height) {
+                continue;
+            }
+            int index = y * current.width + x;
+            byte state = (byte) cells[i + 2];
+            byte mineCount = (byte) cells[i + 3];
+            if (current.states[index] != state || current.mineCounts[index] != mineCount) {
+                current.states[index] = state;
+                current.mineCounts[index] = mineCount;
+                changed.set(index);
+                any = true;
+            }
+        }
+        if (any && !taskPending) {
+            taskPending = true;
+            SwingUtilities.invokeLater(this::showChanges);
+        }
+    }
+
+    /**
+     * Hands the cells changed since the last call to the listener. Runs on the
+     * event dispatch thread, queued by the first change after the last call.
+     */
+    private void showChanges() {
+        int[] indices;
+        synchronized (this) {
+            taskPending = false;
+            indices = changed.stream().toArray();
+            changed.clear();
+        }
+        Consumer<int[]> current = listener;
+        if (current != null && indices.length > 0) {
+            current.accept(indices);
+        }
+    }
+
+    public int getWidth() {
+        return grid.width;
+    }
+
+    public int getHeight() {
+        return grid.height;
+    }
+
+    /**
+     * Gets a cell's state.
+     *
+     * @param x The column.
+     * @param y The row.
+     * @return 0 hidden, 1 revealed, 2 revealed mine or 3 flagged; 0 outside the board.
+     */
+    public int getState(int x, int y) {
+        Grid current = grid;
+        if (x < 0 || x >= current.width || y < 0 || y >= current.height) {
+            return 0;
+        }
+        return current.states[y * current.width + x];
+    }
+
+    /**
+     * Gets the number of mines around a cell, as last sent by the server.
+     *
+     * @param x The column.
+     * @param y The row.
+     * @return The count; 0 outside the board.
+     */
+    public int getMineCount(int x, int y) {
+        Grid current = grid;
+        if (x < 0 || x >= current.width || y < 0 || y >= current.height) {
+            return 0;
+        }
+        return current.mineCounts[y * current.width + x];
+    }
+}
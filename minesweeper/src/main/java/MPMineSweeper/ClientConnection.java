@@ -0,0 +1,53 @@
+package MPMineSweeper;
+
+/**
+ * The transport underneath a {@link ClientHandler}. Implementations decide how
+ * lines and frames reach the wire; the handler only deals with whole protocol
+ * lines or whole binary frames.
+ */
+public interface ClientConnection {
+
+    /**
+     * Queues or writes a single protocol line to the client. The line terminator
+     * is added by the connection.
+     *
+     * @param line The line to send, without a trailing newline.
+     */
+    void sendLine(String line);
+
+    /**
+     * Queues or writes a single binary frame. The length prefix is added by the
+     * connection.
+     *
+     * @param payload The frame payload.
+     */
+    void sendFrame(byte[] payload);
+
+    /**
+     * Blocks the calling writer while the connection already has more data in
+     * flight than it wants buffered. Returns at once on connections whose writes
+     * block by themselves, and once the connection is closed.
+     *
+     * @throws InterruptedException If the writer is interrupted while waiting.
+     */
+    void awaitWritable() throws InterruptedException;
+
+    /**
+     * Closes the underlying connection once data already handed to it has been
+     * written. Calling this more than once is harmless.
+     */
+    void close();
+
+    /**
+     * Closes the underlying connection immediately, dropping anything not yet
+     * written. Used for clients that stopped reading.
+     */
+    void abort();
+
+    /**
+     * Returns the remote address of the client, for logging.
+     *
+     * @return The client's host address.
+     */
+    String getRemoteAddress();
+}
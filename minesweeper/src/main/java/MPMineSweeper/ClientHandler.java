@@ -1,34 +1,56 @@
 package MPMineSweeper;
 
-import java.io.*;
-import java.net.Socket;
+import MPMineSweeper.GameLog.Category;
+
+import java.io.IOException;
 
 public class ClientHandler implements Runnable {
-    private Socket clientSocket;
-    private GameServer server;
-    private PrintWriter out;
-    private BufferedReader in;
+    private ClientConnection connection;
+    private GameRoom room;
     private Player player;
-    private String encryptionKey;
+    private SessionCipher cipher;
+    private boolean binaryProtocol;
+    private OutboundQueue outbound;
+    private Session session;
+    private volatile Viewport viewport; // null means the whole board
 
     /**
      * Constructs a ClientHandler for managing client-server communication.
      *
-     * @param socket The socket through which the client is connected.
-     * @param server The game server instance.
-     * @param player The player associated with this client.
+     * @param connection     The connection through which the client is connected.
+     * @param room           The game room the player was seated in.
+     * @param player         The player associated with this client.
+     * @param cipher         The connection's session cipher, keyed from the client's handshake.
+     * @param binaryProtocol true if the client negotiated binary framing, false for text lines.
+     * @param session        The player's session, which numbers the messages sent to them.
      */
-    public ClientHandler(Socket socket, GameServer server, Player player, String encryptionKey) {
-        this.clientSocket = socket;
-        this.server = server;
+    public ClientHandler(ClientConnection connection, GameRoom room, Player player, SessionCipher cipher,
+            boolean binaryProtocol, Session session) {
+        this(connection, room, player, cipher, binaryProtocol, session,
+                new OutboundQueue(OutboundQueue.DEFAULT_CAPACITY, room.getOverflowPolicy()));
+    }
+
+    /**
+     * Constructs a handler with its own outbound queue, for clients that are
+     * not seated players.
+     *
+     * @param connection     The connection through which the client is connected.
+     * @param room           The game room the client is in.
+     * @param player         The player associated with this client, or null for none.
+     * @param cipher         The connection's session cipher, keyed from the client's handshake.
+     * @param binaryProtocol true if the client negotiated binary framing, false for text lines.
+     * @param session        The player's session, or null for none.
+     * @param outbound       The queue of messages waiting to be written.
+     */
+    ClientHandler(ClientConnection connection, GameRoom room, Player player, SessionCipher cipher,
+            boolean binaryProtocol, Session session, OutboundQueue outbound) {
+        this.connection = connection;
+        this.room = room;
         this.player = player;
-        this.encryptionKey = encryptionKey;
-        try {
-            out = new PrintWriter(clientSocket.getOutputStream(), true);
-            in = new BufferedReader(new InputStreamReader(clientSocket.getInputStream()));
-        } catch (IOException e) {
-            System.err.println("Error initializing streams: " + e.getMessage());
-        }
+        this.cipher = cipher;
+        this.binaryProtocol = binaryProtocol;
+        this.session = session;
+        this.outbound = outbound;
     }
 
     /**
@@ -40,31 +62,151 @@ public class ClientHandler implements Runnable {
         return player;
     }
 
+    /**
+     * Gets the room this client is in.
+     *
+     * @return The room.
+     */
+    GameRoom getRoom() {
+        return room;
+    }
+
+    /**
+     * Gets the player number to log this client under.
+     *
+     * @return The player's number, or 0 for a client that is not a player.
+     */
+    int getLogNumber() {
+        return player == null ? 0 : player.getPlayerNumber();
+    }
+
+    /**
+     * Gets the session this client's connection belongs to.
+     *
+     * @return The player's session.
+     */
+    public Session getSession() {
+        return session;
+    }
+
+    /**
+     * Checks whether this handler's connection is the one the player's messages
+     * are written to.
+     *
+     * @return false once the connection dropped or a reconnect replaced it.
+     */
+    public boolean isAttached() {
+        return session.isAttached(this);
+    }
+
+    /**
+     * Gets the part of the board this client is shown.
+     *
+     * @return The client's viewport, or null if it sees the whole board.
+     */
+    public Viewport getViewport() {
+        return viewport;
+    }
+
+    /**
+     * Sets the part of the board this client is shown. Callers hold the room's
+     * game lock, so no update is filtered against a half-changed viewport.
+     *
+     * @param viewport The new viewport, or null for the whole board.
+     */
+    void setViewport(Viewport viewport) {
+        this.viewport = viewport;
+    }
+
     public void updatePlayerScore(Integer score) {
         this.player.setScore(score);
-        sendMessage("SCORE " + score);
+        sendMessage(Message.of(Opcode.SCORE, score));
+    }
+
+    /**
+     * Checks whether this client talks the binary protocol.
+     *
+     * @return true for binary frames, false for text lines.
+     */
+    public boolean usesBinaryProtocol() {
+        return binaryProtocol;
     }
 
     /**
      * The main run method of the runnable. Listens for messages from the client and
-     * processes them.
+     * processes them. Only used for blocking socket connections; event-driven
+     * connections call {@link #handleLine(String)}, {@link #handleFrame(byte[])}
+     * and {@link #handleDisconnect()} themselves.
      */
     @Override
     public void run() {
+        SocketConnection socketConnection = (SocketConnection) connection;
         try {
-            String inputLine;
-            while ((inputLine = in.readLine()) != null) {
-                boolean shouldContinue = interpretClientMessage(inputLine);
-                if (!shouldContinue) {
-                    break;
+            if (binaryProtocol) {
+                byte[] frame;
+                while ((frame = socketConnection.readFrame()) != null) {
+                    if (!handleFrame(frame)) {
+                        break;
+                    }
+                }
+            } else {
+                String inputLine;
+                while ((inputLine = socketConnection.readLine()) != null) {
+                    boolean shouldContinue = handleLine(inputLine);
+                    if (!shouldContinue) {
+                        break;
+                    }
                 }
             }
         } catch (IOException e) {
-            System.err.println("Client disconnected unexpectedly: " + e.getMessage());
+            GameLog.warn(Category.CONNECTION, "disconnected").with("player", getLogNumber())
+                    .with("error", e.getMessage()).log();
         } finally {
-            server.handlePlayerQuit(player);
-            closeConnection();
+            handleDisconnect();
+        }
+    }
+
+    /**
+     * Processes one complete line received from the client.
+     *
+     * @param inputLine The encrypted line, without its terminator.
+     * @return true if the connection should continue, false otherwise.
+     */
+    boolean handleLine(String inputLine) {
+        return interpretClientMessage(inputLine);
+    }
+
+    /**
+     * Processes one complete binary frame received from the client.
+     *
+     * @param frame The encrypted frame payload.
+     * @return true if the connection should continue, false otherwise.
+     */
+    boolean handleFrame(byte[] frame) {
+        int frameBytes = BinaryMessageEncoder.varintSize(frame.length) + frame.length;
+        byte[] payload = cipher.decrypt(frame);
+        if (payload == null) {
+            ServerMetrics.get().bytesIn(frameBytes);
+            return false; // Forged, replayed or undecryptable frame, terminate connection
         }
+        Message message = BinaryMessageDecoder.decode(payload);
+        if (message == null) {
+            ServerMetrics.get().bytesIn(frameBytes);
+            GameLog.warn(Category.PROTOCOL, "unknown-command").with("player", getLogNumber())
+                    .with("opcode", payload.length > 0 ? payload[0] & 0xFF : -1).log();
+            return true;
+        }
+        ServerMetrics.get().messageIn(message.getOpcode(), frameBytes);
+        return handleMessage(message);
+    }
+
+    /**
+     * Tells the room the client has gone away and releases the connection. In a
+     * game under way the player keeps their seat for a while, to reconnect.
+     */
+    void handleDisconnect() {
+        room.handleDisconnect(this);
+        closeConnection();
     }
 
     /**
@@ -74,82 +216,118 @@ public class ClientHandler implements Runnable {
      * @return true if the connection should continue, false otherwise.
      */
     private boolean interpretClientMessage(String inputLine) {
-        String decryptedString = EncryptionUtil.decrypt(inputLine, this.encryptionKey);
+        String decryptedString = cipher.decryptLine(inputLine);
 
-        System.out.println("KKM: decryptedString: " + decryptedString);
+        GameLog.debug(Category.PROTOCOL, "received").with("player", getLogNumber())
+                .with("message", decryptedString).log();
 
-        String[] parts = decryptedString.split(" ");
-        // String[] parts = inputLine.split(" ");
-        if (parts.length == 0) {
+        int lineBytes = inputLine.length() + 1; // Base64 is ASCII, plus the line terminator
+        if (decryptedString == null || decryptedString.isEmpty()) {
+            ServerMetrics.get().bytesIn(lineBytes);
             return false; // Empty message, terminate connection
         }
-    
-        String command = parts[0];
-        switch (command) {
-            case "MOVE":
-                handleMoveCommand(parts);
+
+        Message message = TextMessageCodec.parse(decryptedString);
+        if (message == null) {
+            ServerMetrics.get().bytesIn(lineBytes);
+            GameLog.warn(Category.PROTOCOL, "unknown-command").with("player", getLogNumber())
+                    .with("message", decryptedString).log();
+            return true;
+        }
+        ServerMetrics.get().messageIn(message.getOpcode(), lineBytes);
+        return handleMessage(message);
+    }
+
+    /**
+     * Dispatches a decoded client message, whichever protocol it arrived on.
+     *
+     * @param message The message received from the client.
+     * @return true if the connection should continue, false otherwise.
+     */
+    boolean handleMessage(Message message) {
+        switch (message.getOpcode()) {
+            case MOVE:
+                handleMoveCommand(message);
                 break;
-            case "FLAG":
-                handleFlagCommand(parts);
+            case FLAG:
+                handleFlagCommand(message);
                 break;
-            case "REQUEST_CELL_STATE":
-                handleRequestCellStateCommand(parts);
+            case REQUEST_CELL_STATE:
+                handleRequestCellStateCommand(message);
                 break;
-            case "READY":
-                server.playerReady(player);
+            case READY:
+                room.playerReady(player);
                 break;
-            case "PLAYER_QUIT":
-                handlePlayerQuitCommand(parts);
+            case RESYNC:
+                room.sendSnapshot(this);
+                break;
+            case VIEWPORT:
+                handleViewportCommand(message);
+                break;
+            case QUIT:
+            case PLAYER_QUIT:
+                handlePlayerQuitCommand(message);
                 break;
             default:
-                System.err.println("Unknown command from client: " + command);
+                GameLog.warn(Category.PROTOCOL, "unknown-command").with("player", getLogNumber())
+                        .with("opcode", message.getOpcode()).log();
                 break;
         }
         return true;
     }
 
-  private void handlePlayerQuitCommand(String[] parts) {
-    server.handlePlayerQuit(player);
-}
+    private void handlePlayerQuitCommand(Message message) {
+        room.handlePlayerQuit(player);
+    }
 
-    
     /**
      * Handles the 'MOVE' command from the client.
      *
-     * @param parts The parts of the message, split by spaces.
+     * @param message The MOVE message: x, y and the sender's player number.
      */
-    private void handleMoveCommand(String[] parts) {
-        if (parts.length == 4) {
-            int x = Integer.parseInt(parts[1]);
-            int y = Integer.parseInt(parts[2]);
-            server.processPlayerMove(player, x, y);
+    private void handleMoveCommand(Message message) {
+        if (message.getArgCount() == 3) {
+            int x = message.getArg(0);
+            int y = message.getArg(1);
+            room.processPlayerMove(player, x, y);
         }
     }
 
     /**
      * Handles the 'FLAG' command from the client.
      *
-     * @param parts The parts of the message, split by spaces.
+     * @param message The FLAG message: x, y and 1 to flag or 0 to unflag.
      */
-    private void handleFlagCommand(String[] parts) {
-        if (parts.length == 4) {
-            int x = Integer.parseInt(parts[1]);
-            int y = Integer.parseInt(parts[2]);
-            boolean isFlagged = parts[3].equals("1");
-            server.toggleFlag(x, y, isFlagged, player);
+    private void handleFlagCommand(Message message) {
+        if (message.getArgCount() == 3) {
+            int x = message.getArg(0);
+            int y = message.getArg(1);
+            boolean isFlagged = message.getArg(2) == 1;
+            room.toggleFlag(x, y, isFlagged, player);
+        }
+    }
+
+    /**
+     * Handles the 'VIEWPORT' command from the client.
+     *
+     * @param message The VIEWPORT message: x, y, width and height of the visible region.
+     */
+    private void handleViewportCommand(Message message) {
+        if (message.getArgCount() == 4) {
+            room.setViewport(this, message.getArg(0), message.getArg(1), message.getArg(2), message.getArg(3));
         }
     }
 
     /**
      * Handles the 'REQUEST_CELL_STATE' command from the client.
      *
-     * @param parts The parts of the message, split by spaces.
+     * @param message The REQUEST_CELL_STATE message: x and y.
      */
-    private void handleRequestCellStateCommand(String[] parts) {
-        if (parts.length == 3) {
-            int x = Integer.parseInt(parts[1]);
-            int y = Integer.parseInt(parts[2]);
-            server.sendCellState(this, x, y);
+    private void handleRequestCellStateCommand(Message message) {
+        if (message.getArgCount() == 2) {
+            int x = message.getArg(0);
+            int y = message.getArg(1);
+            room.sendCellState(this, x, y);
         }
     }
 
@@ -157,34 +335,85 @@ public class ClientHandler implements Runnable {
      * Sends the player number to the client.
      */
     public void sendPlayerNumber() {
-        sendMessage("PLAYER_NUMBER " + player.getPlayerNumber());
+        sendMessage(Message.of(Opcode.PLAYER_NUMBER, player.getPlayerNumber()));
     }
 
     /**
-     * Sends a message to the client.
+     * Numbers a message in the player's session and queues it for the client.
+     * Never blocks; the writer started with {@link #runWriter()} sends it. While
+     * the player is away it is only kept for their reconnect.
      *
      * @param message The message to be sent.
      */
-    public void sendMessage(String message) {
-        String encryptedMessage = EncryptionUtil.encrypt(message, this.encryptionKey);
-        if (out != null) {
-            out.println(encryptedMessage);
+    public void sendMessage(Message message) {
+        session.send(message);
+    }
+
+    /**
+     * Queues a numbered message for this connection. A client whose queue
+     * overflows under the DISCONNECT policy, or even after collapsing under the
+     * SNAPSHOT policy, is dropped.
+     *
+     * @param message The numbered message.
+     */
+    void enqueue(Message message) {
+        if (!outbound.offer(message)) {
+            GameLog.warn(Category.CONNECTION, "slow-client-dropped").with("room", room.getName())
+                    .with("player", getLogNumber()).log();
+            outbound.abort();
+            connection.abort(); // The reader notices the closed connection and removes the player
         }
     }
 
     /**
-     * Closes the connection with the client.
+     * The writer loop: sends queued messages, in order, until the queue is closed
+     * and drained, then closes the connection. Runs on its own thread, so a slow
+     * socket only ever holds up this client.
      */
-    public void closeConnection() {
+    public void runWriter() {
         try {
-            if (out != null)
-                out.close();
-            if (in != null)
-                in.close();
-            if (clientSocket != null)
-                clientSocket.close();
-        } catch (IOException e) {
-            System.err.println("Error closing client connection: " + e.getMessage());
+            Message message;
+            while ((message = outbound.take()) != null) {
+                if (message == OutboundQueue.SNAPSHOT_REQUEST) {
+                    message = room.createSnapshot(viewport);
+                }
+                connection.awaitWritable();
+                writeMessage(message);
+            }
+            connection.close();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            connection.abort();
         }
     }
+
+    private void writeMessage(Message message) {
+        if (binaryProtocol) {
+            byte[] frame = cipher.encrypt(message.toBinary());
+            connection.sendFrame(frame);
+            ServerMetrics.get().messageOut(message.getOpcode(),
+                    BinaryMessageEncoder.varintSize(frame.length) + frame.length);
+        } else {
+            String line = cipher.encryptLine(message.toLine());
+            connection.sendLine(line);
+            ServerMetrics.get().messageOut(message.getOpcode(), line.length() + 1);
+        }
+    }
+
+    /**
+     * Closes the connection with the client once every message already queued
+     * has been written.
+     */
+    public void closeConnection() {
+        outbound.close();
+    }
+
+    /**
+     * Drops the connection at once, unwritten messages and all, because the
+     * client has reconnected on a new one.
+     */
+    void abortConnection() {
+        outbound.abort();
+        connection.abort();
+    }
 }
@@ -1,114 +1,416 @@
 package MPMineSweeper;
 
-import java.util.Random;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.SplittableRandom;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
 
+/**
+ * The server's board. Every cell is packed into one byte of a flat array,
+ * indexed y * width + x: the low four bits hold the neighbouring mine count and
+ * the flags below mark mines, revealed cells and flagged cells. {@link Cell}
+ * objects are only views onto that array.
+ *
+ * The board also keeps running counts of revealed safe cells, triggered mines
+ * and flags, updated by every change to a cell, so the win and loss checks and
+ * the status sent to clients never scan the cells.
+ *
+ * Every game's mines follow from a seed, so a game can be rebuilt from its seed
+ * and its first move. Boards of {@link #PARALLEL_CELLS} cells or more are
+ * cleared and counted in row bands on the fork/join pool; mines are still
+ * placed by one thread, so the board for a seed does not depend on the path.
+ *
+ * In simultaneous mode several players' moves run at once, each holding the
+ * {@link BoardStripes} of the rows it touches; the counts are atomic for that,
+ * and changes are not collected for {@link #drainDirtyCells()}. Lock-free mode
+ * needs no locks at all: {@link #revealCellLockFree} and
+ * {@link #toggleFlagLockFree} change each cell with one atomic compare-and-set,
+ * so only the move that reveals a cell counts it and scores for it.
+ */
 public class GameBoard {
-    private Cell[][] cells;
+    static final int COUNT_MASK = 0x0F;
+    static final int MINE = 0x10;
+    static final int REVEALED = 0x20;
+    static final int FLAGGED = 0x40;
+    static final int MINES_TO_LOSE = 5; // Triggered mines that end the game
+    static final int PARALLEL_CELLS = 1 << 18; // Smallest board built on the fork/join pool
+    private static final int BAND_CELLS = 1 << 16; // Cells per fork/join task, at least one row
+    private static final VarHandle CELL = MethodHandles.arrayElementVarHandle(byte[].class);
+
+    private byte[] cells;
+    private long seed;
     private int width;
     private int height;
-    private GameServer server;
+    private GameRoom room;
     private int mineCount;
     private boolean gameStarted;
-    private boolean gameOver;
-    private int bombRevealedCount;
+    private volatile boolean gameOver;
+    private volatile boolean firstRevealPending; // No cell revealed since the mines were placed
+    private int firstReveal = -1; // Cell the mines were kept clear of, or -1 if they were never moved
+    private volatile boolean trackChanges = true;
+    private final AtomicInteger bombRevealedCount = new AtomicInteger();
+    private final AtomicInteger revealedSafeCount = new AtomicInteger(); // Revealed cells that are not mines
+    private final AtomicInteger flagCount = new AtomicInteger(); // Flags on hidden cells
+    private final ReentrantLock firstRevealLock = new ReentrantLock(); // Lock-free moves while mines may still move
+    private int[] flagsPlaced; // Flags placed so far, by player number; guarded by this
+    private BitSet dirtyCells; // Cells changed since the last drainDirtyCells()
+    private int[] dirtyList;
+    private int dirtyCount;
+    private int[] revealQueue; // Scratch space for revealCell
 
     /**
-     * Constructs a GameBoard with specified dimensions and mine count.
+     * Constructs a GameBoard with specified dimensions and mine count, and mines
+     * from a random seed.
      *
      * @param width     The width of the game board.
      * @param height    The height of the game board.
      * @param mineCount The number of mines on the board.
+     * @param room      The room this board belongs to, used to report score changes.
      */
-    public GameBoard(int width, int height, int mineCount, GameServer server) {
+    public GameBoard(int width, int height, int mineCount, GameRoom room) {
+        this(width, height, mineCount, room, ThreadLocalRandom.current().nextLong());
+    }
+
+    /**
+     * Constructs a GameBoard with specified dimensions and mine count, and mines
+     * from the given seed.
+     *
+     * @param width     The width of the game board.
+     * @param height    The height of the game board.
+     * @param mineCount The number of mines on the board, at most one per cell.
+     * @param room      The room this board belongs to, used to report score changes.
+     * @param seed      The seed the mines are placed from.
+     */
+    public GameBoard(int width, int height, int mineCount, GameRoom room, long seed) {
         this.width = width;
         this.height = height;
-        this.mineCount = mineCount;
-        this.server = server;
-        this.gameStarted = false;
-        this.gameOver = false;
-        this.bombRevealedCount = 0;
-        cells = new Cell[height][width];
-        initializeCells();
-        placeMines();
-        calculateNeighboringMines();
+        this.mineCount = Math.min(mineCount, width * height);
+        this.room = room;
+        this.flagsPlaced = new int[8];
+        this.dirtyCells = new BitSet(width * height);
+        this.dirtyList = new int[64];
+        this.revealQueue = new int[64];
+        cells = new byte[width * height];
+        reset(seed);
+    }
+
+    /**
+     * Places the mines for the current seed using Floyd's sampling: each draw
+     * picks one cell among the first j candidates and takes cell j instead if
+     * the pick already holds a mine, so no draw is ever rejected, however dense
+     * the board. The same seed and safe cell always give the same mines;
+     * SplittableRandom scrambles the seed, so neighbouring seeds such as 1 and 2
+     * still give unrelated boards.
+     *
+     * @param safeX X-coordinate of a cell whose neighbourhood must stay clear, or -1.
+     * @param safeY Y-coordinate of that cell.
+     */
+    private void placeMines(int safeX, int safeY) {
+        int[] excluded = safeCells(safeX, safeY);
+        int candidates = cells.length - excluded.length;
+        SplittableRandom random = new SplittableRandom(seed);
+        for (int j = candidates - mineCount; j < candidates; j++) {
+            int index = candidateIndex(random.nextInt(j + 1), excluded);
+            if ((cells[index] & MINE) != 0) {
+                index = candidateIndex(j, excluded);
+            }
+            cells[index] |= MINE;
+        }
+    }
+
+    /**
+     * Lists the cells to keep clear of mines around a safe cell: the cell and
+     * its neighbours, or only the cell if the rest of the board cannot hold
+     * every mine, or none at all.
+     *
+     * @param safeX X-coordinate of the safe cell, or -1 for none.
+     * @param safeY Y-coordinate of the safe cell.
+     * @return The indices to leave out, in ascending order.
+     */
+    private int[] safeCells(int safeX, int safeY) {
+        if (safeX < 0 || cells.length - 1 < mineCount) {
+            return new int[0];
+        }
+        int left = Math.max(0, safeX - 1);
+        int right = Math.min(width - 1, safeX + 1);
+        int top = Math.max(0, safeY - 1);
+        int bottom = Math.min(height - 1, safeY + 1);
+        int area = (right - left + 1) * (bottom - top + 1);
+        if (cells.length - area < mineCount) {
+            return new int[] { safeY * width + safeX };
+        }
+        int[] excluded = new int[area];
+        int position = 0;
+        for (int y = top; y <= bottom; y++) {
+            for (int x = left; x <= right; x++) {
+                excluded[position++] = y * width + x;
+            }
+        }
+        return excluded;
     }
 
     /**
-     * Initializes the cells on the board.
+     * Maps a rank among the cells that may hold a mine to a cell index.
+     *
+     * @param rank     The rank, counting only cells that are not excluded.
+     * @param excluded The excluded indices, in ascending order.
+     * @return The index of the cell with that rank.
      */
-    private void initializeCells() {
-        for (int i = 0; i < height; i++) {
-            for (int j = 0; j < width; j++) {
-                cells[i][j] = new Cell();
+    private static int candidateIndex(int rank, int[] excluded) {
+        int index = rank;
+        for (int skipped : excluded) {
+            if (skipped > index) {
+                break;
             }
+            index++;
         }
+        return index;
     }
 
     /**
-     * Places mines randomly on the board.
+     * Keeps the first reveal of a game safe: if the cell or a neighbour holds a
+     * mine, the mines are placed again from the same seed with that
+     * neighbourhood left out. Flags are kept.
+     *
+     * @param x X-coordinate of the first cell revealed.
+     * @param y Y-coordinate of the first cell revealed.
      */
-    private void placeMines() {
-        Random random = new Random();
-        int minesPlaced = 0;
-        while (minesPlaced < mineCount) {
-            int x = random.nextInt(width);
-            int y = random.nextInt(height);
-            if (!cells[y][x].isMine()) {
-                cells[y][x].setMine(true);
-                minesPlaced++;
+    private void clearFirstReveal(int x, int y) {
+        firstReveal = y * width + x;
+        boolean mined = false;
+        for (int ny = Math.max(0, y - 1); ny <= Math.min(height - 1, y + 1); ny++) {
+            for (int nx = Math.max(0, x - 1); nx <= Math.min(width - 1, x + 1); nx++) {
+                mined |= (cells[ny * width + nx] & MINE) != 0;
             }
         }
+        if (!mined) {
+            return;
+        }
+        clearCells(FLAGGED);
+        placeMines(x, y);
+        countNeighbours();
     }
 
     /**
-     * Toggles the flag on a specific cell.
+     * Toggles the flag on a specific cell. Revealed cells cannot be flagged.
      *
      * @param x         X-coordinate of the cell.
      * @param y         Y-coordinate of the cell.
      * @param isFlagged Flag indicating whether the cell is flagged.
+     * @param player    The player placing or removing the flag, or null.
+     * @return true if the cell changed.
      */
-    public void toggleFlag(int x, int y, boolean isFlagged) {
-        if (x >= 0 && x < width && y >= 0 && y < height) {
-            Cell cell = cells[y][x];
-            cell.setFlagged(isFlagged);
+    public boolean toggleFlag(int x, int y, boolean isFlagged, Player player) {
+        if (x < 0 || x >= width || y < 0 || y >= height) {
+            return false;
+        }
+        int index = Utils.convertCoordinatesToIndex(x, y, width);
+        if ((cells[index] & REVEALED) != 0 || ((cells[index] & FLAGGED) != 0) == isFlagged) {
+            return false;
         }
+        cells[index] ^= FLAGGED;
+        markDirty(index);
+        countFlag(isFlagged, player);
+        return true;
     }
 
     /**
-     * Calculates the number of neighboring mines for each cell.
+     * Toggles the flag on a cell as {@link #toggleFlag} does, with a
+     * compare-and-set instead of a lock, for a game in lock-free mode. Before the
+     * first reveal of a game it waits for that reveal, which may move the mines.
+     *
+     * @param x         X-coordinate of the cell.
+     * @param y         Y-coordinate of the cell.
+     * @param isFlagged Flag indicating whether the cell is flagged.
+     * @param player    The player placing or removing the flag, or null.
+     * @return true if this call changed the cell.
      */
-    private void calculateNeighboringMines() {
-        for (int i = 0; i < height; i++) {
-            for (int j = 0; j < width; j++) {
-                if (!cells[i][j].isMine()) {
-                    int mines = countAdjacentMines(j, i);
-                    cells[i][j].setNeighboringMines(mines);
+    public boolean toggleFlagLockFree(int x, int y, boolean isFlagged, Player player) {
+        if (x < 0 || x >= width || y < 0 || y >= height) {
+            return false;
+        }
+        if (firstRevealPending) {
+            firstRevealLock.lock();
+            try {
+                if (firstRevealPending) {
+                    return toggleFlag(x, y, isFlagged, player);
                 }
+            } finally {
+                firstRevealLock.unlock();
             }
         }
+        int index = Utils.convertCoordinatesToIndex(x, y, width);
+        byte state;
+        do {
+            state = (byte) CELL.getVolatile(cells, index);
+            if ((state & REVEALED) != 0 || ((state & FLAGGED) != 0) == isFlagged) {
+                return false;
+            }
+        } while (!CELL.compareAndSet(cells, index, state, (byte) (state ^ FLAGGED)));
+        markDirty(index);
+        countFlag(isFlagged, player);
+        return true;
+    }
+
+    private void countFlag(boolean isFlagged, Player player) {
+        if (isFlagged) {
+            flagCount.incrementAndGet();
+            if (player != null) {
+                countFlagPlaced(player.getPlayerNumber());
+            }
+        } else {
+            flagCount.decrementAndGet();
+        }
+    }
+
+    private synchronized void countFlagPlaced(int number) {
+        if (number >= flagsPlaced.length) {
+            flagsPlaced = Arrays.copyOf(flagsPlaced, Math.max(number + 1, flagsPlaced.length * 2));
+        }
+        flagsPlaced[number]++;
     }
 
     /**
-     * Counts the number of mines adjacent to a given cell.
+     * Checks whether to build this board on the fork/join pool: it must be large
+     * enough, and the pool must have more than one thread. The pool is the one
+     * the calling thread belongs to, or the common pool.
      *
-     * @param x X-coordinate of the cell.
-     * @param y Y-coordinate of the cell.
-     * @return The number of adjacent mines.
-     */
-    private int countAdjacentMines(int x, int y) {
-        int count = 0;
-        for (int i = -1; i <= 1; i++) {
-            for (int j = -1; j <= 1; j++) {
-                int nx = x + j;
-                int ny = y + i;
-                if (nx >= 0 && ny >= 0 && nx < width && ny < height) {
-                    if (cells[ny][nx].isMine()) {
-                        count++;
-                    }
+     * @return true to build in row bands.
+     */
+    private boolean buildInParallel() {
+        if (cells.length < PARALLEL_CELLS) {
+            return false;
+        }
+        ForkJoinPool pool = ForkJoinTask.inForkJoinPool() ? ForkJoinTask.getPool() : ForkJoinPool.commonPool();
+        return pool.getParallelism() > 1;
+    }
+
+    /**
+     * Clears every cell except for the given bits.
+     *
+     * @param keep The bits to keep, or 0 to clear the cells completely.
+     */
+    private void clearCells(int keep) {
+        if (buildInParallel()) {
+            new BandTask(this, 0, height, keep, false).invoke();
+        } else {
+            clearRows(0, height, keep);
+        }
+    }
+
+    private void clearRows(int top, int bottom, int keep) {
+        if (keep == 0) {
+            Arrays.fill(cells, top * width, bottom * width, (byte) 0);
+            return;
+        }
+        for (int i = top * width; i < bottom * width; i++) {
+            cells[i] = (byte) (cells[i] & keep);
+        }
+    }
+
+    /**
+     * Fills in the neighbouring mine counts of a board whose counts are all 0,
+     * in row bands on the fork/join pool for large boards and in one pass over
+     * every row otherwise.
+     */
+    private void countNeighbours() {
+        if (buildInParallel()) {
+            new BandTask(this, 0, height, 0, true).invoke();
+        } else {
+            countRows(0, height);
+        }
+    }
+
+    /**
+     * Counts the mines around every cell of a band of rows, reading only the
+     * MINE bits, which nothing changes while counting, so bands can run at the
+     * same time. Interior cells sum their eight neighbours' MINE bits without
+     * bounds checks or branches; the outer rows and columns go through
+     * {@link #countEdgeCell}.
+     *
+     * @param top    The first row.
+     * @param bottom The row after the last.
+     */
+    private void countRows(int top, int bottom) {
+        byte[] cells = this.cells;
+        int width = this.width;
+        for (int y = top; y < bottom; y++) {
+            if (y == 0 || y == height - 1 || width < 3) {
+                for (int x = 0; x < width; x++) {
+                    countEdgeCell(x, y);
+                }
+                continue;
+            }
+            int row = y * width;
+            int above = row - width;
+            int below = row + width;
+            countEdgeCell(0, y);
+            for (int x = 1; x < width - 1; x++) {
+                int mines = (cells[above + x - 1] & MINE) + (cells[above + x] & MINE) + (cells[above + x + 1] & MINE)
+                        + (cells[row + x - 1] & MINE) + (cells[row + x + 1] & MINE)
+                        + (cells[below + x - 1] & MINE) + (cells[below + x] & MINE) + (cells[below + x + 1] & MINE);
+                int cell = cells[row + x];
+                int keep = ((cell & MINE) >>> 4) - 1; // 0 for a mine, which keeps a count of 0; all ones otherwise
+                cells[row + x] = (byte) (cell | (mines >>> 4) & keep);
+            }
+            countEdgeCell(width - 1, y);
+        }
+    }
+
+    private void countEdgeCell(int x, int y) {
+        int index = y * width + x;
+        if ((cells[index] & MINE) != 0) {
+            return;
+        }
+        int mines = 0;
+        for (int ny = Math.max(0, y - 1); ny <= Math.min(height - 1, y + 1); ny++) {
+            for (int nx = Math.max(0, x - 1); nx <= Math.min(width - 1, x + 1); nx++) {
+                mines += (cells[ny * width + nx] & MINE) >>> 4;
+            }
+        }
+        cells[index] = (byte) (cells[index] | mines);
+    }
+
+    /**
+     * Clears or counts a band of rows, splitting it in half until each task has
+     * about {@link #BAND_CELLS} cells.
+     */
+    @SuppressWarnings("serial") // Forked within one process, never serialised
+    private static final class BandTask extends RecursiveAction {
+        private final GameBoard board;
+        private final int top;
+        private final int bottom;
+        private final int keep;
+        private final boolean count;
+
+        BandTask(GameBoard board, int top, int bottom, int keep, boolean count) {
+            this.board = board;
+            this.top = top;
+            this.bottom = bottom;
+            this.keep = keep;
+            this.count = count;
+        }
+
+        @Override
+        protected void compute() {
+            if (bottom - top == 1 || (long) (bottom - top) * board.width <= BAND_CELLS) {
+                if (count) {
+                    board.countRows(top, bottom);
+                } else {
+                    board.clearRows(top, bottom, keep);
                 }
+                return;
             }
+            int middle = (top + bottom) >>> 1;
+            invokeAll(new BandTask(board, top, middle, keep, count), new BandTask(board, middle, bottom, keep, count));
         }
-        return count;
     }
 
     /**
@@ -146,15 +448,106 @@ public class GameBoard {
     }
 
     /**
-     * Resets the game board to its initial state.
+     * Resets the game board to its initial state with mines from a new random
+     * seed. Reuses the existing cell array.
      */
     public void reset() {
-        initializeCells();
-        placeMines();
-        calculateNeighboringMines();
+        reset(ThreadLocalRandom.current().nextLong());
+    }
+
+    /**
+     * Resets the game board to its initial state with mines from the given
+     * seed. Reuses the existing cell array.
+     *
+     * @param seed The seed the mines are placed from.
+     */
+    public void reset(long seed) {
+        this.seed = seed;
+        clearCells(0);
+        placeMines(-1, -1);
+        countNeighbours();
         gameStarted = false;
         gameOver = false;
-        bombRevealedCount = 0;
+        firstRevealPending = true;
+        firstReveal = -1;
+        bombRevealedCount.set(0);
+        revealedSafeCount.set(0);
+        flagCount.set(0);
+        synchronized (this) {
+            Arrays.fill(flagsPlaced, 0);
+        }
+        dirtyCells.clear();
+        dirtyCount = 0;
+    }
+
+    /**
+     * Gets the seed this game's mines were placed from. With the first cell
+     * revealed it fixes every mine.
+     *
+     * @return The seed.
+     */
+    public long getSeed() {
+        return seed;
+    }
+
+    /**
+     * Gets the cell the first reveal of this game kept clear of mines.
+     *
+     * @return The cell's index, y * width + x, or -1 if the mines are still
+     *         where the seed alone put them.
+     */
+    int getFirstReveal() {
+        return firstReveal;
+    }
+
+    /**
+     * Copies the packed cells, for a {@link SnapshotStore} snapshot. The caller
+     * keeps moves out while it runs; in lock-free mode, where nothing can, a
+     * move in progress may be copied half done.
+     *
+     * @return A copy of the cell array.
+     */
+    byte[] copyCells() {
+        return cells.clone();
+    }
+
+    /**
+     * Puts a game back as a snapshot recorded it: places the mines from the seed
+     * and the first reveal again, then reveals and flags the recorded cells
+     * without scoring them or marking them changed. The running counts are
+     * taken from the cells.
+     *
+     * @param seed        The seed the mines were placed from.
+     * @param firstReveal The cell the first reveal kept clear, or -1.
+     * @param states      The REVEALED and FLAGGED bits of every cell; other bits are ignored.
+     * @param flagsPlaced Flags placed so far, by player number.
+     */
+    void restore(long seed, int firstReveal, byte[] states, int[] flagsPlaced) {
+        reset(seed);
+        if (firstReveal >= 0) {
+            clearFirstReveal(firstReveal % width, firstReveal / width);
+        }
+        int revealedSafe = 0;
+        int minesHit = 0;
+        int flags = 0;
+        for (int i = 0; i < cells.length; i++) {
+            int state = cells[i] | (states[i] & (REVEALED | FLAGGED));
+            cells[i] = (byte) state;
+            if ((state & REVEALED) == 0) {
+                flags += (state & FLAGGED) >>> 6;
+            } else if ((state & MINE) != 0) {
+                minesHit++;
+            } else {
+                revealedSafe++;
+            }
+        }
+        revealedSafeCount.set(revealedSafe);
+        bombRevealedCount.set(minesHit);
+        flagCount.set(flags);
+        firstRevealPending = revealedSafe + minesHit == 0; // Every reveal reveals at least its own cell
+        synchronized (this) {
+            this.flagsPlaced = Arrays.copyOf(flagsPlaced, Math.max(8, flagsPlaced.length));
+        }
     }
 
     /**
@@ -162,61 +555,446 @@ public class GameBoard {
      *
      * @param x X-coordinate of the cell.
      * @param y Y-coordinate of the cell.
-     * @return The cell at the specified coordinates.
+     * @return A view of the cell at the specified coordinates, or null if they
+     *         are off the board.
      */
     public Cell getCell(int x, int y) {
         if (x < 0 || x >= width || y < 0 || y >= height) {
             return null;
         }
-        return cells[y][x];
+        return new Cell(this, Utils.convertCoordinatesToIndex(x, y, width));
+    }
+
+    /**
+     * Gets the packed state of a cell.
+     *
+     * @param index The cell's index, y * width + x.
+     * @return The neighbouring mine count combined with the MINE, REVEALED and
+     *         FLAGGED bits.
+     */
+    int getState(int index) {
+        return cells[index];
+    }
+
+    /**
+     * Replaces the packed state of a cell and brings the running counts up to
+     * date. Does not mark the cell changed.
+     *
+     * @param index The cell's index, y * width + x.
+     * @param state The new packed state.
+     */
+    void setState(int index, int state) {
+        int old = cells[index];
+        cells[index] = (byte) state;
+        revealedSafeCount.addAndGet(isRevealedSafe(state) - isRevealedSafe(old));
+        flagCount.addAndGet(isHiddenFlag(state) - isHiddenFlag(old));
+        mineCount += ((state & MINE) - (old & MINE)) / MINE;
+    }
+
+    private static int isRevealedSafe(int state) {
+        return (state & (REVEALED | MINE)) == REVEALED ? 1 : 0;
+    }
+
+    private static int isHiddenFlag(int state) {
+        return (state & (REVEALED | FLAGGED)) == FLAGGED ? 1 : 0;
+    }
+
+    /**
+     * Reveals a specific cell and, if it has no neighbouring mines, the whole
+     * empty region around it, then scores the move once: 10 points per safe
+     * cell revealed and -50 for a mine.
+     *
+     * The region is walked breadth first with a queue of packed coordinates
+     * (y << 16 | x) that is kept between moves, so opening a large region needs
+     * neither deep recursion nor an allocation per cell. Cells are marked
+     * revealed as they are queued, so the board itself is the visited set.
+     * Packing limits boards to 65536 cells on a side. The first reveal of a game
+     * never finds a mine in or next to its cell if the board has room for the
+     * mines elsewhere.
+     *
+     * @param x      X-coordinate of the cell.
+     * @param y      Y-coordinate of the cell.
+     * @param player The player revealing the cell.
+     * @return The cells revealed, or {@link RevealResult#NONE} if the cell is
+     *         off the board or already revealed.
+     */
+    public RevealResult revealCell(int x, int y, Player player) {
+        if (x < 0 || x >= width || y < 0 || y >= height
+                || (cells[Utils.convertCoordinatesToIndex(x, y, width)] & REVEALED) != 0) {
+            return RevealResult.NONE;
+        }
+        if (firstRevealPending) {
+            clearFirstReveal(x, y);
+            firstRevealPending = false;
+        }
+
+        byte[] cells = this.cells;
+        int width = this.width;
+        int[] queue = revealQueue;
+        int head = 0;
+        int tail = 0;
+        queue[tail++] = y << 16 | x;
+        int flagsRevealed = (cells[Utils.convertCoordinatesToIndex(x, y, width)] & FLAGGED) >>> 6;
+        cells[Utils.convertCoordinatesToIndex(x, y, width)] |= REVEALED;
+        boolean mineHit = false;
+        while (head < tail) {
+            int packed = queue[head++];
+            int cx = packed & 0xFFFF;
+            int cy = packed >>> 16;
+            int cell = cells[cy * width + cx];
+            if ((cell & MINE) != 0) {
+                mineHit = true; // Only the chosen cell can be a mine; a mine opens nothing around it
+                continue;
+            }
+            if ((cell & COUNT_MASK) != 0) {
+                continue;
+            }
+            int left = Math.max(0, cx - 1);
+            int right = Math.min(width - 1, cx + 1);
+            for (int ny = Math.max(0, cy - 1); ny <= Math.min(height - 1, cy + 1); ny++) {
+                int row = ny * width;
+                for (int nx = left; nx <= right; nx++) {
+                    int neighbour = row + nx;
+                    int state = cells[neighbour];
+                    if ((state & REVEALED) == 0) {
+                        cells[neighbour] = (byte) (state | REVEALED);
+                        flagsRevealed += (state & FLAGGED) >>> 6; // A revealed cell no longer shows its flag
+                        if (tail == queue.length) {
+                            queue = Arrays.copyOf(queue, queue.length * 2);
+                            revealQueue = queue;
+                        }
+                        queue[tail++] = ny << 16 | nx;
+                    }
+                }
+            }
+        }
+        int[] revealed = new int[tail];
+        for (int i = 0; i < tail; i++) {
+            int index = (queue[i] >>> 16) * width + (queue[i] & 0xFFFF);
+            markDirty(index);
+            revealed[i] = index;
+        }
+        countReveal(tail, mineHit, flagsRevealed, player);
+        return new RevealResult(revealed, mineHit);
     }
 
     /**
-     * Reveals a specific cell and handles the game logic accordingly.
+     * Reveals a cell as {@link #revealCell(int, int, Player)} does, for a game in
+     * simultaneous mode where moves in other bands of rows run at the same time.
+     * The caller holds the bands of the cell's row, or every band for the first
+     * reveal of a game, which may move the mines.
+     *
+     * A cell is only opened around once the hold covers the rows on either side
+     * of it. Cells waiting for that are put aside until nothing else is left,
+     * then the hold is extended over all of them at once and the fill goes on.
+     * Extending may briefly give up the hold; cells revealed so far stay
+     * revealed, and cells another move reveals meanwhile are skipped.
      *
      * @param x      X-coordinate of the cell.
      * @param y      Y-coordinate of the cell.
      * @param player The player revealing the cell.
-     * @return true if a mine is revealed, false otherwise.
+     * @param hold   The bands held by the calling thread; extended as needed.
+     * @return The cells revealed, or {@link RevealResult#NONE} if the cell is
+     *         off the board or already revealed.
      */
-    public boolean revealCell(int x, int y, Player player) {
-        if (x < 0 || x >= width || y < 0 || y >= height || cells[y][x].isRevealed()) {
-            return false;
+    public RevealResult revealCell(int x, int y, Player player, BoardStripes.Hold hold) {
+        if (x < 0 || x >= width || y < 0 || y >= height
+                || (cells[Utils.convertCoordinatesToIndex(x, y, width)] & REVEALED) != 0) {
+            return RevealResult.NONE;
+        }
+        if (firstRevealPending) {
+            if (hold.coversAll()) {
+                clearFirstReveal(x, y);
+            }
+            firstRevealPending = false;
         }
 
-        Boolean isMine = cells[y][x].isMine();
+        byte[] cells = this.cells;
+        int width = this.width;
+        int start = Utils.convertCoordinatesToIndex(x, y, width);
+        int flagsRevealed = (cells[start] & FLAGGED) >>> 6;
+        cells[start] |= REVEALED;
+        boolean mineHit = (cells[start] & MINE) != 0;
+        int[] revealed = new int[16];
+        int revealedCount = 0;
+        revealed[revealedCount++] = start;
+        int[] queue = new int[16]; // Empty cells to open around, packed as y << 16 | x
+        int head = 0;
+        int tail = 0;
+        int[] waiting = new int[16]; // Empty cells next to rows not yet held
+        int waitingCount = 0;
+        if ((cells[start] & (MINE | COUNT_MASK)) == 0) {
+            queue[tail++] = y << 16 | x;
+        }
+        while (head < tail || waitingCount > 0) {
+            if (head == tail) {
+                int top = height - 1;
+                int bottom = 0;
+                for (int i = 0; i < waitingCount; i++) {
+                    int cy = waiting[i] >>> 16;
+                    top = Math.min(top, Math.max(0, cy - 1));
+                    bottom = Math.max(bottom, Math.min(height - 1, cy + 1));
+                }
+                hold.extendRows(top, bottom);
+                if (queue.length < waitingCount) {
+                    queue = new int[waiting.length];
+                }
+                System.arraycopy(waiting, 0, queue, 0, waitingCount);
+                head = 0;
+                tail = waitingCount;
+                waitingCount = 0;
+            }
+            int packed = queue[head++];
+            int cx = packed & 0xFFFF;
+            int cy = packed >>> 16;
+            int top = Math.max(0, cy - 1);
+            int bottom = Math.min(height - 1, cy + 1);
+            if (!hold.coversRows(top, bottom)) {
+                if (waitingCount == waiting.length) {
+                    waiting = Arrays.copyOf(waiting, waiting.length * 2);
+                }
+                waiting[waitingCount++] = packed;
+                continue;
+            }
+            int left = Math.max(0, cx - 1);
+            int right = Math.min(width - 1, cx + 1);
+            for (int ny = top; ny <= bottom; ny++) {
+                for (int nx = left; nx <= right; nx++) {
+                    int neighbour = ny * width + nx;
+                    int state = cells[neighbour];
+                    if ((state & REVEALED) != 0) {
+                        continue;
+                    }
+                    cells[neighbour] = (byte) (state | REVEALED); // Never a mine: the cell opened around has none
+                    flagsRevealed += (state & FLAGGED) >>> 6;
+                    if (revealedCount == revealed.length) {
+                        revealed = Arrays.copyOf(revealed, revealed.length * 2);
+                    }
+                    revealed[revealedCount++] = neighbour;
+                    if ((state & COUNT_MASK) == 0) {
+                        if (tail == queue.length) {
+                            queue = Arrays.copyOf(queue, queue.length * 2);
+                        }
+                        queue[tail++] = ny << 16 | nx;
+                    }
+                }
+            }
+        }
+        for (int i = 0; i < revealedCount; i++) {
+            markDirty(revealed[i]);
+        }
+        countReveal(revealedCount, mineHit, flagsRevealed, player);
+        return new RevealResult(Arrays.copyOf(revealed, revealedCount), mineHit);
+    }
 
-        cells[y][x].setRevealed(true);
-        if (isMine) {
-            bombRevealedCount++;
-            if (bombRevealedCount >= 5) {
-                gameOver = true;
+    /**
+     * Reveals a cell as {@link #revealCell(int, int, Player)} does, for a game in
+     * lock-free mode where any number of moves run at once without locks. Each
+     * cell is revealed with one atomic read-and-set; a move that finds a cell
+     * already revealed leaves it, and its neighbours, to the move that revealed
+     * it. Every cell is therefore counted and scored by exactly one move.
+     *
+     * The first reveal of a game may move the mines, so it runs alone: moves and
+     * flags that arrive meanwhile wait for it.
+     *
+     * @param x      X-coordinate of the cell.
+     * @param y      Y-coordinate of the cell.
+     * @param player The player revealing the cell.
+     * @return The cells this move revealed, or {@link RevealResult#NONE} if the
+     *         cell is off the board or already revealed.
+     */
+    public RevealResult revealCellLockFree(int x, int y, Player player) {
+        if (x < 0 || x >= width || y < 0 || y >= height) {
+            return RevealResult.NONE;
+        }
+        if (firstRevealPending) {
+            firstRevealLock.lock();
+            try {
+                if (firstRevealPending) {
+                    clearFirstReveal(x, y);
+                    RevealResult result = fillLockFree(x, y, player);
+                    firstRevealPending = false; // Only now may other moves start
+                    return result;
+                }
+            } finally {
+                firstRevealLock.unlock();
             }
-            this.updatePlayerScore(-50, player);
-        } else {
-            this.updatePlayerScore(10, player);
         }
+        return fillLockFree(x, y, player);
+    }
 
-        if (cells[y][x].getNeighboringMines() == 0) {
-            for (int i = -1; i <= 1; i++) {
-                for (int j = -1; j <= 1; j++) {
-                    int nx = x + j;
-                    int ny = y + i;
-                    if (nx >= 0 && nx < width && ny >= 0 && ny < height && (i != 0 || j != 0)) {
-                        revealCell(nx, ny, player);
+    private RevealResult fillLockFree(int x, int y, Player player) {
+        byte[] cells = this.cells;
+        int width = this.width;
+        int start = Utils.convertCoordinatesToIndex(x, y, width);
+        byte old = (byte) CELL.getAndBitwiseOr(cells, start, (byte) REVEALED);
+        if ((old & REVEALED) != 0) {
+            return RevealResult.NONE;
+        }
+        int flagsRevealed = (old & FLAGGED) >>> 6;
+        boolean mineHit = (old & MINE) != 0;
+        int[] revealed = new int[16];
+        int revealedCount = 0;
+        revealed[revealedCount++] = start;
+        int[] queue = new int[16]; // Empty cells this move opens around, packed as y << 16 | x
+        int head = 0;
+        int tail = 0;
+        if ((old & (MINE | COUNT_MASK)) == 0) {
+            queue[tail++] = y << 16 | x;
+        }
+        while (head < tail) {
+            int packed = queue[head++];
+            int cx = packed & 0xFFFF;
+            int cy = packed >>> 16;
+            int top = Math.max(0, cy - 1);
+            int bottom = Math.min(height - 1, cy + 1);
+            int left = Math.max(0, cx - 1);
+            int right = Math.min(width - 1, cx + 1);
+            for (int ny = top; ny <= bottom; ny++) {
+                for (int nx = left; nx <= right; nx++) {
+                    int neighbour = ny * width + nx;
+                    if ((cells[neighbour] & REVEALED) != 0) {
+                        continue; // A stale read only costs the atomic below
+                    }
+                    int state = (byte) CELL.getAndBitwiseOr(cells, neighbour, (byte) REVEALED);
+                    if ((state & REVEALED) != 0) {
+                        continue; // Another move got there first
+                    }
+                    flagsRevealed += (state & FLAGGED) >>> 6;
+                    if (revealedCount == revealed.length) {
+                        revealed = Arrays.copyOf(revealed, revealed.length * 2);
+                    }
+                    revealed[revealedCount++] = neighbour;
+                    if ((state & COUNT_MASK) == 0) {
+                        if (tail == queue.length) {
+                            queue = Arrays.copyOf(queue, queue.length * 2);
+                        }
+                        queue[tail++] = ny << 16 | nx;
                     }
                 }
             }
         }
+        for (int i = 0; i < revealedCount; i++) {
+            markDirty(revealed[i]);
+        }
+        countReveal(revealedCount, mineHit, flagsRevealed, player);
+        return new RevealResult(Arrays.copyOf(revealed, revealedCount), mineHit);
+    }
 
-        return isMine;
+    /**
+     * Updates the counts and the player's score for one reveal: 10 points per
+     * safe cell revealed and -50 for a mine.
+     */
+    private void countReveal(int revealedCount, boolean mineHit, int flagsRevealed, Player player) {
+        flagCount.addAndGet(-flagsRevealed);
+        if (mineHit && bombRevealedCount.incrementAndGet() >= MINES_TO_LOSE) {
+            gameOver = true;
+        }
+        int safeCells = mineHit ? revealedCount - 1 : revealedCount;
+        revealedSafeCount.addAndGet(safeCells);
+        this.updatePlayerScore(safeCells * 10 - (mineHit ? 50 : 0), player);
+    }
+
+    /**
+     * Checks whether the next reveal is the first of the game, which may still
+     * move the mines. In simultaneous mode it must be made holding every band.
+     *
+     * @return true until a cell has been revealed.
+     */
+    public boolean isFirstRevealPending() {
+        return firstRevealPending;
+    }
+
+    /**
+     * Turns collecting changed cells for {@link #drainDirtyCells()} on or off.
+     * Simultaneous mode turns it off and sends each move's own cells instead.
+     *
+     * @param trackChanges false to stop collecting changes.
+     */
+    public void setTrackChanges(boolean trackChanges) {
+        this.trackChanges = trackChanges;
+    }
+
+    /**
+     * Records that a cell changed, so it is included in the next delta update.
+     *
+     * @param index The cell's index, y * width + x.
+     */
+    private void markDirty(int index) {
+        if (!trackChanges) {
+            return;
+        }
+        if (!dirtyCells.get(index)) {
+            dirtyCells.set(index);
+            if (dirtyCount == dirtyList.length) {
+                dirtyList = Arrays.copyOf(dirtyList, dirtyList.length * 2);
+            }
+            dirtyList[dirtyCount++] = index;
+        }
+    }
+
+    /**
+     * Returns the cells that changed since the last call, in the order they
+     * changed, and starts a new change set.
+     *
+     * @return The indices (y * width + x) of the changed cells.
+     */
+    public int[] drainDirtyCells() {
+        int[] changed = Arrays.copyOf(dirtyList, dirtyCount);
+        for (int i = 0; i < dirtyCount; i++) {
+            dirtyCells.clear(dirtyList[i]);
+        }
+        dirtyCount = 0;
+        return changed;
+    }
+
+    /**
+     * Gets the state of a cell as clients see it: 0 hidden, 1 revealed, 2 revealed
+     * mine, 3 flagged.
+     *
+     * @param x X-coordinate of the cell.
+     * @param y Y-coordinate of the cell.
+     * @return The visible cell state.
+     */
+    public int getVisibleState(int x, int y) {
+        int cell = cells[y * width + x];
+        return (cell & REVEALED) != 0 ? ((cell & MINE) != 0 ? 2 : 1) : ((cell & FLAGGED) != 0 ? 3 : 0);
+    }
+
+    /**
+     * Gets the neighbouring mine count of a cell as clients may see it; hidden
+     * cells and mines report 0.
+     *
+     * @param x X-coordinate of the cell.
+     * @param y Y-coordinate of the cell.
+     * @return The visible neighbouring mine count.
+     */
+    public int getVisibleMineCount(int x, int y) {
+        int cell = cells[y * width + x];
+        return (cell & (REVEALED | MINE)) == REVEALED ? cell & COUNT_MASK : 0;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getMineCount() {
+        return mineCount;
+    }
+
+    public int getHeight() {
+        return height;
     }
 
     public void updatePlayerScore(Integer score, Player player) {
         // KKM TODO update to reflect actual score
         Integer currentScore = player.getScore();
         currentScore = currentScore + (score);
-        this.server.updatePlayerScore(currentScore, player);
+        if (room == null) {
+            player.setScore(currentScore); // A board replayed without a room
+            return;
+        }
+        this.room.updatePlayerScore(currentScore, player);
     }
 
     /**
@@ -225,8 +1003,7 @@ public class GameBoard {
      * @return The updated count of revealed bombs.
      */
     public int incrementBombCount() {
-        bombRevealedCount++;
-        return bombRevealedCount;
+        return bombRevealedCount.incrementAndGet();
     }
 
     /**
@@ -235,7 +1012,56 @@ public class GameBoard {
      * @return The count of revealed bombs.
      */
     public int getBombRevealedCount() {
-        return bombRevealedCount;
+        return bombRevealedCount.get();
+    }
+
+    /**
+     * Gets the number of revealed cells that are not mines.
+     *
+     * @return The count of revealed safe cells.
+     */
+    public int getRevealedSafeCount() {
+        return revealedSafeCount.get();
+    }
+
+    /**
+     * Gets the number of cells that are not mines.
+     *
+     * @return The count of safe cells, revealed or not.
+     */
+    public int getSafeCellCount() {
+        return cells.length - mineCount;
+    }
+
+    /**
+     * Gets the number of flags on hidden cells.
+     *
+     * @return The count of flags currently on the board.
+     */
+    public int getFlagCount() {
+        return flagCount.get();
+    }
+
+    /**
+     * Gets the number of flags a player has placed this game, including those
+     * since removed or revealed.
+     *
+     * @param player The player.
+     * @return The count of flags the player has placed.
+     */
+    public synchronized int getFlagsPlaced(Player player) {
+        int number = player.getPlayerNumber();
+        return number >= 0 && number < flagsPlaced.length ? flagsPlaced[number] : 0;
+    }
+
+    /**
+     * Gets the number of mines neither triggered nor flagged, as a minesweeper
+     * counter shows it. Wrong flags make it too low, and it can go below zero.
+     *
+     * @return The mine count less triggered mines and flags.
+     */
+    public int getMinesRemaining() {
+        return mineCount - bombRevealedCount.get() - flagCount.get();
     }
 
     /**
@@ -244,14 +1070,6 @@ public class GameBoard {
      * @return true if all non-mine cells are revealed, false otherwise.
      */
     public boolean allNonMineCellsRevealed() {
-        for (int i = 0; i < height; i++) {
-            for (int j = 0; j < width; j++) {
-                Cell cell = cells[i][j];
-                if (!cell.isMine() && !cell.isRevealed()) {
-                    return false;
-                }
-            }
-        }
-        return true;
+        return revealedSafeCount.get() == cells.length - mineCount;
     }
 }
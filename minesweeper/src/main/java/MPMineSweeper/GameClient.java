@@ -1,5 +1,7 @@
 package MPMineSweeper;
 
+import MPMineSweeper.GameLog.Category;
+
 import javax.swing.*;
 import java.io.*;
 import java.net.Socket;
@@ -8,20 +10,49 @@ import java.awt.GridLayout;
 import java.awt.event.ActionEvent;
 import java.net.SocketTimeoutException;
 import java.net.InetSocketAddress;
-
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * The player's side of the game: joins a room, sends moves and flags and shows
+ * what the server sends back in a {@link GameWindow}. If the connection drops
+ * during a game, the client reconnects with the session token it was issued and
+ * the number of the last message it received, and the server sends only what
+ * it missed. A client that only watches is sent every player's events; if it
+ * misses one, it asks for the whole board again.
+ *
+ * Cell states go into a {@link ClientBoard} on the thread reading from the
+ * server, and the window is shown the cells that changed once per task on the
+ * event dispatch thread, rather than in one task per cell.
+ */
 public class GameClient {
-    private JTextField ipTextField, portTextField, passwordTextField;
+    private static final int RECONNECT_ATTEMPTS = 5;
+    private static final long RECONNECT_DELAY_MILLIS = 1000; // Doubled after every failed attempt
+
+    private JTextField ipTextField, portTextField, passwordTextField, roomTextField;
+    private JCheckBox binaryCheckBox;
+    private JCheckBox spectateCheckBox;
+    private boolean spectating;
     private Socket socket;
-    private BufferedReader in;
-    private PrintWriter out;
+    private SocketConnection connection;
+    private volatile boolean binaryProtocol = false;
     private GameWindow gameWindow;
+    private final ClientBoard board = new ClientBoard(GameRoom.DEFAULT_WIDTH, GameRoom.DEFAULT_HEIGHT); // Until the server says otherwise
     private int currentPlayerNumber = -1; // Initialize as -1 to denote unset
     private int playerNumber = -1; // Initialize as -1 to denote unset
     private Integer playerScore = 0; // Initialize as -1 to denote unset
     private JFrame joinFrame;
     private JButton joinButton;
-    private boolean gameStarted = false;
+    private volatile boolean gameStarted = false;
     private String encryptionKey;
+    private SessionCipher cipher;
+    private String serverIP;
+    private int serverPort;
+    private String password;
+    private String room;
+    private volatile String sessionToken; // Null until the server issues one
+    private volatile int lastSequence; // Number of the last message received
+    private volatile boolean closing; // Set once the player leaves, so a dropped connection is not resumed
 
     public GameClient() {
         this.createJoinFrame();
@@ -33,7 +64,7 @@ public class GameClient {
         joinFrame.setSize(400, 200);
         joinFrame.setLayout(new BorderLayout());
 
-        JPanel inputPanel = new JPanel(new GridLayout(3, 2));
+        JPanel inputPanel = new JPanel(new GridLayout(6, 2));
         joinFrame.add(inputPanel, BorderLayout.CENTER);
 
         inputPanel.add(new JLabel("Server IP:"));
@@ -48,6 +79,18 @@ public class GameClient {
         passwordTextField = new JTextField();
         inputPanel.add(passwordTextField);
 
+        inputPanel.add(new JLabel("Room (optional):"));
+        roomTextField = new JTextField();
+        inputPanel.add(roomTextField);
+
+        inputPanel.add(new JLabel("Protocol:"));
+        binaryCheckBox = new JCheckBox("Binary (falls back to text)", true);
+        inputPanel.add(binaryCheckBox);
+
+        inputPanel.add(new JLabel("Role:"));
+        spectateCheckBox = new JCheckBox("Watch only", false);
+        inputPanel.add(spectateCheckBox);
+
         JPanel buttonPanel = new JPanel();
         JButton joinButton = new JButton("Join");
         joinButton.addActionListener(this::handleJoinAction);
@@ -73,29 +116,27 @@ public class GameClient {
     public void connectToServer() {
         try {
 
-            String serverIP = ipTextField.getText().trim();
-            int serverPort = Integer.parseInt(portTextField.getText().trim());
-            String password = passwordTextField.getText().trim();
-
-            socket = new Socket();
-            socket.connect(new InetSocketAddress(serverIP, serverPort), 5000);
-            out = new PrintWriter(socket.getOutputStream(), true);
-            in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
-            
-            this.encryptionKey = EncryptionUtil.createKey();
+            this.serverIP = ipTextField.getText().trim();
+            this.serverPort = Integer.parseInt(portTextField.getText().trim());
+            this.password = passwordTextField.getText().trim();
+            this.room = roomTextField.getText().trim().replaceAll("\\s+", "-");
 
             // Start listening to the server after the window is visible
-            out.println(password + " " + this.encryptionKey);
-            out.flush();
-            
-
-            String response = in.readLine(); 
+            Map<String, String> options = new LinkedHashMap<>();
+            options.put(Handshake.ROOM, room); // Empty means "any open room"
+            options.put(Handshake.VIEWPORT, GameWindow.VISIBLE_COLUMNS + "x" + GameWindow.VISIBLE_ROWS);
+            this.spectating = spectateCheckBox.isSelected();
+            if (spectating) {
+                options.put(Handshake.ROLE, Handshake.ROLE_SPECTATOR); // Spectators always get the whole board
+            }
+            String decryptedString = handshake(options);
 
-            if (response != null) {
-                String decryptedString = EncryptionUtil.decrypt(response, this.encryptionKey);
+            if (decryptedString != null) {
                 String[] parts = decryptedString.split(" ");
 
-                if (parts[0].equals("PASSWORD") && parts.length == 2) {
+                if (parts[0].equals("PASSWORD") && parts.length >= 2) {
+                    // The server confirms binary framing; anything else means it only speaks text
+                    binaryProtocol = parts.length > 2 && parts[2].equals("BINARY");
                     SwingUtilities.invokeLater(() -> {
                         if (parts[1].equalsIgnoreCase("CORRECT")) {
                             this.openGameWindow();
@@ -145,21 +186,105 @@ public class GameClient {
         }
     }
 
-    public void sendMessage(String message) {
-        String encryptedMessage = EncryptionUtil.encrypt(message, this.encryptionKey);
-        out.println(encryptedMessage);
+    /**
+     * Opens a connection to the server with a fresh session key and sends the
+     * handshake. On success the connection and its cipher replace the previous
+     * ones.
+     *
+     * @param options The handshake options; the protocol is added if binary was chosen.
+     * @return The server's answer, decrypted, or null if the server closed the connection.
+     * @throws IOException If the server cannot be reached.
+     */
+    private String handshake(Map<String, String> options) throws IOException {
+        Socket newSocket = new Socket();
+        newSocket.connect(new InetSocketAddress(serverIP, serverPort), 5000);
+        SocketConnection newConnection = new SocketConnection(newSocket);
+        String newKey = EncryptionUtil.createKey();
+        SessionCipher newCipher = SessionCipher.forClient(newKey);
+
+        if (binaryCheckBox.isSelected()) {
+            options.put(Handshake.PROTOCOL, Handshake.PROTOCOL_BINARY);
+        }
+        newConnection.sendLine(Handshake.format(password, newKey, options));
+        String response = newConnection.readLine();
+        synchronized (this) {
+            socket = newSocket;
+            connection = newConnection;
+            encryptionKey = newKey;
+            cipher = newCipher;
+        }
+        if (response == null) {
+            return null;
+        }
+        String decryptedString = newCipher.decryptLine(response);
+        return decryptedString != null ? decryptedString : response; // Refusals before the key exchange are sent in the clear
+    }
+
+    /**
+     * Reconnects to the seat this client's session holds, waiting longer after
+     * each failed attempt. The server sends the messages numbered after the last
+     * one received, or the whole game if it no longer has them all.
+     *
+     * @return true if the connection was resumed and a new listener started.
+     */
+    private boolean reconnect() {
+        long delay = RECONNECT_DELAY_MILLIS;
+        for (int attempt = 1; attempt <= RECONNECT_ATTEMPTS && !closing; attempt++) {
+            try {
+                Thread.sleep(delay);
+                Map<String, String> options = new LinkedHashMap<>();
+                options.put(Handshake.SESSION, sessionToken);
+                options.put(Handshake.SEQUENCE, Integer.toString(lastSequence));
+                options.put(Handshake.ROOM, room);
+                String response = handshake(options);
+                if (response == null || !response.startsWith("PASSWORD CORRECT")) {
+                    GameLog.warn(Category.CLIENT, "resume-refused").with("response", response).log();
+                    if (Opcode.SESSION_EXPIRED.name().equals(response)) {
+                        SwingUtilities.invokeLater(() -> JOptionPane.showMessageDialog(gameWindow,
+                                "The connection was lost and your seat in the game is gone.", "Disconnected",
+                                JOptionPane.INFORMATION_MESSAGE));
+                    }
+                    return false;
+                }
+                binaryProtocol = response.endsWith("BINARY");
+                GameLog.info(Category.CLIENT, "resumed").with("attempt", attempt).with("received", lastSequence).log();
+                new Thread(new ServerListener()).start();
+                return true;
+            } catch (IOException e) {
+                GameLog.warn(Category.CLIENT, "reconnect-failed").with("attempt", attempt)
+                        .with("error", e.getMessage()).log();
+                delay *= 2;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Sends a message to the server in whichever protocol was negotiated.
+     *
+     * @param message The message to send.
+     */
+    public synchronized void sendMessage(Message message) {
+        if (binaryProtocol) {
+            connection.sendFrame(cipher.encrypt(BinaryMessageEncoder.encode(message)));
+        } else {
+            connection.sendLine(cipher.encryptLine(TextMessageCodec.format(message)));
+        }
     }
 
     public void sendStartGame() {
-        sendMessage("START_GAME");
+        sendMessage(Message.of(Opcode.START_GAME));
     }
 
     public void sendPlayerMove(int x, int y) {
         if (!gameStarted || playerNumber == -1) {
-            System.out.println("The game has not started yet or player number not set.");
+            GameLog.info(Category.CLIENT, "move-before-start").with("x", x).with("y", y).log();
             return;
         }
-        sendMessage("MOVE " + x + " " + y + " " + playerNumber);
+        sendMessage(Message.of(Opcode.MOVE, x, y, playerNumber));
     }
 
     public void sendFlagChange(int x, int y, boolean isFlagged) {
@@ -168,15 +293,28 @@ public class GameClient {
                     JOptionPane.INFORMATION_MESSAGE);
             return;
         }
-        sendMessage("FLAG " + x + " " + y + " " + (isFlagged ? "1" : "0"));
+        sendMessage(Message.of(Opcode.FLAG, x, y, isFlagged ? 1 : 0));
     }
 
     public void sendReady() {
-        sendMessage("READY " + playerNumber);
+        sendMessage(Message.of(Opcode.READY, playerNumber));
+    }
+
+    /**
+     * Tells the server which part of the board is on screen, so it only sends
+     * updates for those cells.
+     *
+     * @param x      The left column.
+     * @param y      The top row.
+     * @param width  The number of visible columns.
+     * @param height The number of visible rows.
+     */
+    public void sendViewport(int x, int y, int width, int height) {
+        sendMessage(Message.of(Opcode.VIEWPORT, x, y, width, height));
     }
 
     public void requestCellState(int x, int y) {
-        sendMessage("REQUEST_CELL_STATE " + x + " " + y);
+        sendMessage(Message.of(Opcode.REQUEST_CELL_STATE, x, y));
     }
 
     public int getCurrentPlayerNumber() {
@@ -191,17 +329,31 @@ public class GameClient {
         return gameStarted;
     }
 
+    public ClientBoard getBoard() {
+        return board;
+    }
+
     private class ServerListener implements Runnable {
         public void run() {
             try {
-                String fromServer;
-                while ((fromServer = in.readLine()) != null) {
-                    processServerMessage(fromServer);
+                if (binaryProtocol) {
+                    byte[] frame;
+                    while ((frame = connection.readFrame()) != null) {
+                        byte[] payload = cipher.decrypt(frame);
+                        processServerMessage(payload == null ? null : BinaryMessageDecoder.decode(payload));
+                    }
+                } else {
+                    String fromServer;
+                    while ((fromServer = connection.readLine()) != null) {
+                        processServerMessage(TextMessageCodec.parse(cipher.decryptLine(fromServer)));
+                    }
                 }
             } catch (IOException e) {
-                System.err.println("Error reading from server: " + e.getMessage());
+                GameLog.warn(Category.CLIENT, "read-failed").with("error", e.getMessage()).log();
             } finally {
-                closeConnection();
+                if (closing || !gameStarted || sessionToken == null || !reconnect()) {
+                    closeConnection();
+                }
             }
         }
     }
@@ -216,147 +368,168 @@ public class GameClient {
         new Thread(new ServerListener()).start();
     }
 
-    private void processServerMessage(String message) {
-        String decryptedString = EncryptionUtil.decrypt(message, this.encryptionKey);
-        String[] parts = decryptedString.split(" ");
-        try {
-            SwingUtilities.invokeLater(() -> {
-                switch (parts[0]) {
-                    case "PASSWORD":
-                        if (parts.length == 2) {
-                            SwingUtilities.invokeLater(() -> {
-                                if (parts[1].equalsIgnoreCase("CORRECT")) {
-                                    this.openGameWindow();
-                                } else if (parts[1].equalsIgnoreCase("INCORRECT")) {
-                                    JOptionPane.showMessageDialog(joinFrame, "Password incorrect. Please try again.", "Login Failed", JOptionPane.ERROR_MESSAGE);
-                                }
-
-                                this.joinButton.setEnabled(true);
-                            });
-                        }
-                        break;
-                    case "SERVER_FULL":
-                        JOptionPane.showMessageDialog(null, "Sorry, the server is full.", "Notification",
-                                JOptionPane.INFORMATION_MESSAGE);
-                        closeConnection();
-                        System.exit(0);
-                        break;
-                    case "GAME_IN_PROGRESS":
-                        JOptionPane.showMessageDialog(null, "Sorry, a game is currently in progress.", "Notification",
-                                JOptionPane.INFORMATION_MESSAGE);
-                        closeConnection();
-                        System.exit(0);
-                        break;
-                    case "PLAYERS_CONNECTED":
-                        int playerCount = Integer.parseInt(parts[1]);
-                        if (gameWindow != null)
-                            gameWindow.updatePlayerCount(playerCount);
-                        break;
-                    case "PLAYER_QUIT":
-                        int quitPlayerNumber = Integer.parseInt(parts[1]);
-                        System.out.println("Player " + quitPlayerNumber + " has quit the game.");
-                        if (gameWindow != null)
-                            gameWindow.displayPlayerQuit(quitPlayerNumber);
-                        break;
-                    case "GAME_STATE":
-                        handleGameState(parts[1]);
-                        break;
-                    case "UPDATE":
-                        parseGameStateAndUpdateBoard(decryptedString.substring(7));
-                        break;
-                    case "SCORE":
-                        this.playerScore = Integer.valueOf(parts[1]);
-                        this.gameWindow.updatePlayerScore(this.playerScore);
-                        break;
-                    case "GAMEOVER":
-                        handleGameOverMessage(parts);
-                        break;
-                    case "TURN_CHANGED":
-                        currentPlayerNumber = Integer.parseInt(parts[1]);
-                        System.out
-                                .println("TURN_CHANGED received, current player number set to: " + currentPlayerNumber);
-                        if (gameWindow != null) {
-                            gameWindow.handleTurnChange(currentPlayerNumber);
-                        }
-                        break;
-                    case "PLAYER_NUMBER":
-                        playerNumber = Integer.parseInt(parts[1]);
-                        if (gameWindow != null) {
-                            gameWindow.updatePlayerNumber(playerNumber);
-                        }
-                        System.out.println("Player number set to: " + playerNumber);
-                        break;
-                    case "CELL_STATE":
-                        processCellStateResponse(parts);
-                        break;
-                    default:
-                        System.out.println("Unknown server message: " + message);
-                        break;
+    private void processServerMessage(Message message) {
+        if (message == null) {
+            GameLog.warn(Category.CLIENT, "unreadable-message-resync").log();
+            requestResync();
+            return;
+        }
+        if (message.getSequence() != 0) {
+            if (spectating && lastSequence != 0 && message.getSequence() != lastSequence + 1) {
+                GameLog.info(Category.CLIENT, "spectator-gap-resync").with("expected", lastSequence + 1)
+                        .with("received", message.getSequence()).log();
+                requestResync(); // The server dropped events this client was too slow for
+            }
+            lastSequence = message.getSequence(); // Received in order, so this is what a resume asks after
+        }
+        switch (message.getOpcode()) {
+            case SESSION:
+                sessionToken = message.getText();
+                return;
+            case UPDATE:
+            case SNAPSHOT:
+                board.apply(message.getArgs()); // The window is shown the cells that changed in one task
+                return;
+            case CELL_STATE:
+                processCellStateResponse(message);
+                return;
+            case BOARD_SIZE:
+                board.reset(message.getArg(0), message.getArg(1)); // Before the snapshot that follows is applied
+                break;
+            case GAME_STATE:
+            case GAMEOVER:
+                if (message.getOpcode() == Opcode.GAMEOVER || "OVER".equals(message.getText())) {
+                    sessionToken = null; // The server closes the connection next; there is nothing to resume
                 }
-            });
-        } catch (NumberFormatException e) {
-            System.err.println("Error parsing server message: " + e.getMessage());
+                break;
+            default:
+                break;
         }
+        SwingUtilities.invokeLater(() -> {
+            switch (message.getOpcode()) {
+                case PASSWORD:
+                    if (message.getText() != null) {
+                        if (message.getText().startsWith("CORRECT")) {
+                            this.openGameWindow();
+                        } else if (message.getText().equalsIgnoreCase("INCORRECT")) {
+                            JOptionPane.showMessageDialog(joinFrame, "Password incorrect. Please try again.", "Login Failed", JOptionPane.ERROR_MESSAGE);
+                        }
+
+                        this.joinButton.setEnabled(true);
+                    }
+                    break;
+                case SERVER_FULL:
+                    JOptionPane.showMessageDialog(null, "Sorry, the server is full.", "Notification",
+                            JOptionPane.INFORMATION_MESSAGE);
+                    closeConnection();
+                    System.exit(0);
+                    break;
+                case GAME_IN_PROGRESS:
+                    JOptionPane.showMessageDialog(null, "Sorry, a game is currently in progress.", "Notification",
+                            JOptionPane.INFORMATION_MESSAGE);
+                    closeConnection();
+                    System.exit(0);
+                    break;
+                case PLAYERS_CONNECTED:
+                    int playerCount = message.getArg(0);
+                    if (gameWindow != null)
+                        gameWindow.updatePlayerCount(playerCount);
+                    break;
+                case PLAYER_QUIT:
+                    int quitPlayerNumber = message.getArg(0);
+                    GameLog.info(Category.CLIENT, "player-quit").with("player", quitPlayerNumber).log();
+                    if (gameWindow != null)
+                        gameWindow.displayPlayerQuit(quitPlayerNumber);
+                    break;
+                case GAME_STATE:
+                    handleGameState(message.getText());
+                    break;
+                case SCORE:
+                    if (spectating) {
+                        break; // Every player's score, which the window has nowhere to show
+                    }
+                    this.playerScore = message.getArg(0);
+                    this.gameWindow.updatePlayerScore(this.playerScore);
+                    break;
+                case GAMEOVER:
+                    handleGameOverMessage(message);
+                    break;
+                case TURN_CHANGED:
+                    currentPlayerNumber = message.getArg(0);
+                    GameLog.debug(Category.CLIENT, "turn").with("player", currentPlayerNumber).log();
+                    if (gameWindow != null) {
+                        gameWindow.handleTurnChange(currentPlayerNumber);
+                    }
+                    break;
+                case PLAYER_NUMBER:
+                    playerNumber = message.getArg(0);
+                    if (gameWindow != null) {
+                        gameWindow.updatePlayerNumber(playerNumber);
+                    }
+                    GameLog.info(Category.CLIENT, "player-number").with("player", playerNumber).log();
+                    break;
+                case STATUS:
+                    if (gameWindow != null) {
+                        gameWindow.updateStatus(message.getArgs());
+                    }
+                    break;
+                case BOARD_SIZE:
+                    GameLog.info(Category.CLIENT, "board-size").with("width", message.getArg(0))
+                            .with("height", message.getArg(1)).with("mines", message.getArg(2)).log();
+                    if (gameWindow != null) {
+                        gameWindow.setBoardSize(message.getArg(0), message.getArg(1));
+                    }
+                    break;
+                default:
+                    GameLog.warn(Category.CLIENT, "unknown-message").with("opcode", message.getOpcode()).log();
+                    break;
+            }
+        });
     }
 
     private void handleGameState(String gameState) {
         switch (gameState) {
             case "STARTED":
                 gameStarted = true;
-                SwingUtilities.invokeLater(() -> gameWindow.updateGameState("STARTED"));
+                gameWindow.updateGameState("STARTED");
                 break;
             case "OVER":
                 gameStarted = false;
-                SwingUtilities.invokeLater(() -> gameWindow.updateGameState("OVER"));
+                gameWindow.updateGameState("OVER");
                 break;
             default:
-                System.out.println("Unknown game state: " + gameState);
+                GameLog.warn(Category.CLIENT, "unknown-game-state").with("state", gameState).log();
                 break;
         }
     }
 
-    private void handleGameOverMessage(String[] parts) {
-        SwingUtilities.invokeLater(gameWindow::displayGameOver);
+    private void handleGameOverMessage(Message message) {
+        gameWindow.displayGameOver();
     }
 
-    private void processCellStateResponse(String[] parts) {
-        int x = Integer.parseInt(parts[1]);
-        int y = Integer.parseInt(parts[2]);
-        int state = Integer.parseInt(parts[3]);
-        int minesCount = parts.length > 4 ? Integer.parseInt(parts[4]) : 0;
-        SwingUtilities.invokeLater(() -> gameWindow.updateCell(x, y, state, minesCount));
+    private void processCellStateResponse(Message message) {
+        int x = message.getArg(0);
+        int y = message.getArg(1);
+        int state = message.getArg(2);
+        int minesCount = message.getArgCount() > 3 ? message.getArg(3) : 0;
+        board.apply(new int[] { x, y, state, minesCount });
     }
 
-    private void parseGameStateAndUpdateBoard(String gameState) {
-        String[] updates = gameState.split(";");
-        for (String update : updates) {
-            String[] cellData = update.split(",");
-            int x = Integer.parseInt(cellData[0]);
-            int y = Integer.parseInt(cellData[1]);
-            int state = Integer.parseInt(cellData[2]);
-            int minesCount = Integer.parseInt(cellData[3]);
-            SwingUtilities.invokeLater(() -> gameWindow.updateCell(x, y, state, minesCount));
-        }
+    public void requestResync() {
+        sendMessage(Message.of(Opcode.RESYNC));
     }
 
     public void sendQuitMessage() {
         if (playerNumber != -1) { // Only send quit message if player number is set
-            sendMessage("QUIT " + playerNumber);
+            sendMessage(Message.of(Opcode.QUIT, playerNumber));
         }
     }
 
     public void closeConnection() {
+        closing = true;
         sendQuitMessage(); // Send quit message before closing the connection
-        try {
-            if (in != null)
-                in.close();
-            if (out != null)
-                out.close();
-            if (socket != null)
-                socket.close();
-        } catch (IOException e) {
-            System.err.println("Error closing the connection: " + e.getMessage());
-        }
+        if (connection != null)
+            connection.close();
     }
 
     public static void main(String[] args) {
@@ -0,0 +1,388 @@
+package MPMineSweeper;
+
+import java.io.PrintStream;
+import java.time.Instant;
+import java.time.LocalTime;
+import java.time.ZoneId;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Asynchronous structured logging for the server and the client.
+ *
+ * A record is an event name plus up to {@link #MAX_FIELDS} key/value fields,
+ * printed as one line such as
+ * {@code 14:02:11.532 INFO  game move room=r1 player=2 x=3 y=4}. Records are
+ * written into a fixed ring of preallocated entries and a single daemon thread
+ * formats and prints them, so the thread that logs never touches the console.
+ * If the ring is full the record is dropped and counted rather than blocking
+ * the caller.
+ *
+ * Callers chain the fields onto the entry and finish with {@link Entry#log()}:
+ *
+ * <pre>
+ * GameLog.debug(GameLog.Category.GAME, "move").with("player", number).with("x", x).log();
+ * </pre>
+ *
+ * A disabled level returns a shared no-op entry, so as long as the fields are
+ * plain values a disabled record costs a level check and nothing else: no
+ * string building and no allocation. Numbers are stored unboxed. Object values
+ * are only turned into text on the logging thread, so they must not change
+ * after they are logged.
+ *
+ * Levels are set per {@link Category} with {@link #configure(String)}, from the
+ * {@code minesweeper.log} system property or the server's {@code --log} option.
+ */
+public final class GameLog {
+
+    /**
+     * How important a record is. A category prints records at or above its level.
+     */
+    public enum Level {
+        TRACE, DEBUG, INFO, WARN, ERROR, OFF
+    }
+
+    /**
+     * What part of the program a record comes from. Each has its own level.
+     */
+    public enum Category {
+        /** Startup, shutdown and accepting connections. */
+        SERVER,
+        /** Socket reads, writes and disconnects. */
+        CONNECTION,
+        /** Every message sent or received. Very chatty. */
+        PROTOCOL,
+        /** Rooms opening, closing, seating and refusing players. */
+        ROOM,
+        /** Moves, flags, scores and turns. */
+        GAME,
+        /** The Swing client. */
+        CLIENT;
+
+        private final String label = name().toLowerCase();
+    }
+
+    /** Fields kept per record; further fields are ignored. */
+    public static final int MAX_FIELDS = 6;
+
+    private static final int CAPACITY = 8192; // Must be a power of two
+    private static final int MASK = CAPACITY - 1;
+    private static final Level DEFAULT_LEVEL = Level.INFO;
+    private static final Object NUMBER = new Object(); // Marks a field whose value is in numbers[]
+    private static final Entry DISABLED = new Entry();
+
+    private static final Entry[] ring = new Entry[CAPACITY];
+    private static final AtomicLong nextSequence = new AtomicLong();
+    private static final LongAdder dropped = new LongAdder();
+    private static volatile long consumedSequence;
+    private static volatile boolean writerParked;
+    private static volatile Level[] levels;
+    private static final Thread writer;
+
+    static {
+        for (int i = 0; i < CAPACITY; i++) {
+            ring[i] = new Entry();
+        }
+        Level[] initial = new Level[Category.values().length];
+        Arrays.fill(initial, DEFAULT_LEVEL);
+        levels = initial;
+        String spec = System.getProperty("minesweeper.log");
+        if (spec != null) {
+            try {
+                configure(spec);
+            } catch (IllegalArgumentException e) {
+                System.err.println("Ignoring minesweeper.log: " + e.getMessage());
+            }
+        }
+        writer = new Thread(GameLog::drain, "game-log");
+        writer.setDaemon(true);
+        writer.start();
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> flush(1000), "game-log-flush"));
+    }
+
+    private GameLog() {
+    }
+
+    /**
+     * One record being filled in. Entries belong to the ring and are reused, so
+     * an entry must not be touched after {@link #log()} has been called on it.
+     */
+    public static final class Entry {
+        private volatile long publishedSequence = -1;
+        private long sequence;
+        private long timeMillis;
+        private Level level;
+        private Category category;
+        private String event;
+        private int fieldCount;
+        private final String[] keys = new String[MAX_FIELDS];
+        private final long[] numbers = new long[MAX_FIELDS];
+        private final Object[] values = new Object[MAX_FIELDS];
+
+        private Entry() {
+        }
+
+        /**
+         * Adds a numeric field.
+         *
+         * @param key   The field name, ideally a constant.
+         * @param value The value.
+         * @return This entry.
+         */
+        public Entry with(String key, long value) {
+            if (this != DISABLED && fieldCount < MAX_FIELDS) {
+                keys[fieldCount] = key;
+                numbers[fieldCount] = value;
+                values[fieldCount++] = NUMBER;
+            }
+            return this;
+        }
+
+        /**
+         * Adds a field whose text is produced on the logging thread.
+         *
+         * @param key   The field name, ideally a constant.
+         * @param value The value. Must not change after the record is logged.
+         * @return This entry.
+         */
+        public Entry with(String key, Object value) {
+            if (this != DISABLED && fieldCount < MAX_FIELDS) {
+                keys[fieldCount] = key;
+                values[fieldCount++] = value;
+            }
+            return this;
+        }
+
+        /**
+         * Hands the record to the logging thread.
+         */
+        public void log() {
+            if (this == DISABLED) {
+                return;
+            }
+            publishedSequence = sequence;
+            if (writerParked) {
+                LockSupport.unpark(writer);
+            }
+        }
+    }
+
+    /**
+     * Checks whether records of a level would be printed for a category. Only
+     * needed when working out a field is itself expensive.
+     *
+     * @param category The category.
+     * @param level    The level.
+     * @return true if such records are printed.
+     */
+    public static boolean isEnabled(Category category, Level level) {
+        return level.compareTo(levels[category.ordinal()]) >= 0 && level != Level.OFF;
+    }
+
+    public static Entry trace(Category category, String event) {
+        return entry(Level.TRACE, category, event);
+    }
+
+    public static Entry debug(Category category, String event) {
+        return entry(Level.DEBUG, category, event);
+    }
+
+    public static Entry info(Category category, String event) {
+        return entry(Level.INFO, category, event);
+    }
+
+    public static Entry warn(Category category, String event) {
+        return entry(Level.WARN, category, event);
+    }
+
+    public static Entry error(Category category, String event) {
+        return entry(Level.ERROR, category, event);
+    }
+
+    /**
+     * Starts a record, or returns the no-op entry if the level is disabled or
+     * the ring is full.
+     *
+     * @param level    The level of the record.
+     * @param category The category of the record.
+     * @param event    The event name, ideally a constant.
+     * @return The entry to add fields to.
+     */
+    public static Entry entry(Level level, Category category, String event) {
+        if (!isEnabled(category, level)) {
+            return DISABLED;
+        }
+        long sequence;
+        do {
+            sequence = nextSequence.get();
+            if (sequence - consumedSequence >= CAPACITY) {
+                dropped.increment();
+                return DISABLED;
+            }
+        } while (!nextSequence.compareAndSet(sequence, sequence + 1));
+
+        Entry entry = ring[(int) (sequence & MASK)];
+        entry.sequence = sequence;
+        entry.timeMillis = System.currentTimeMillis();
+        entry.level = level;
+        entry.category = category;
+        entry.event = event;
+        entry.fieldCount = 0;
+        return entry;
+    }
+
+    /**
+     * Sets the level of one category.
+     *
+     * @param category The category.
+     * @param level    The lowest level to print.
+     */
+    public static synchronized void setLevel(Category category, Level level) {
+        Level[] updated = levels.clone();
+        updated[category.ordinal()] = level;
+        levels = updated;
+    }
+
+    /**
+     * Applies a level specification: a comma separated list whose items are
+     * either a level, which applies to every category, or
+     * {@code category=level}. For example {@code warn,game=debug}.
+     *
+     * @param spec The specification. Names are not case sensitive.
+     * @throws IllegalArgumentException If a category or level is unknown.
+     */
+    public static void configure(String spec) {
+        for (String item : spec.split(",")) {
+            item = item.trim();
+            if (item.isEmpty()) {
+                continue;
+            }
+            int separator = item.indexOf('=');
+            if (separator < 0) {
+                Level level = parseLevel(item);
+                for (Category category : Category.values()) {
+                    setLevel(category, level);
+                }
+            } else {
+                String name = item.substring(0, separator).trim();
+                Category category;
+                try {
+                    category = Category.valueOf(name.toUpperCase());
+                } catch (IllegalArgumentException e) {
+                    throw new IllegalArgumentException("Unknown log category: " + name);
+                }
+                setLevel(category, parseLevel(item.substring(separator + 1)));
+            }
+        }
+    }
+
+    private static Level parseLevel(String name) {
+        try {
+            return Level.valueOf(name.trim().toUpperCase());
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Unknown log level: " + name.trim());
+        }
+    }
+
+    /**
+     * Waits until every record logged before this call has been printed.
+     *
+     * @param timeoutMillis The longest to wait.
+     */
+    public static void flush(long timeoutMillis) {
+        long target = nextSequence.get();
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        while (consumedSequence < target && System.nanoTime() < deadline) {
+            LockSupport.unpark(writer);
+            LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(1));
+        }
+    }
+
+    private static void drain() {
+        StringBuilder line = new StringBuilder(256);
+        ZoneId zone = ZoneId.systemDefault();
+        long reportedDrops = 0;
+        while (true) {
+            long sequence = consumedSequence;
+            Entry entry = ring[(int) (sequence & MASK)];
+            if (entry.publishedSequence != sequence) {
+                System.out.flush();
+                long drops = dropped.sum();
+                if (drops != reportedDrops) {
+                    System.err.println("Log buffer full, dropped " + (drops - reportedDrops) + " records");
+                    reportedDrops = drops;
+                }
+                writerParked = true;
+                // Re-check after announcing the park so a record published meanwhile is not missed
+                if (entry.publishedSequence != sequence) {
+                    LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(100));
+                }
+                writerParked = false;
+                continue;
+            }
+
+            line.setLength(0);
+            appendTime(line, LocalTime.ofInstant(Instant.ofEpochMilli(entry.timeMillis), zone));
+            line.append(' ').append(entry.level);
+            if (entry.level.name().length() == 4) {
+                line.append(' ');
+            }
+            line.append(' ').append(entry.category.label).append(' ').append(entry.event);
+            for (int i = 0; i < entry.fieldCount; i++) {
+                line.append(' ').append(entry.keys[i]).append('=');
+                if (entry.values[i] == NUMBER) {
+                    line.append(entry.numbers[i]);
+                } else {
+                    appendValue(line, String.valueOf(entry.values[i]));
+                }
+                entry.values[i] = null; // Do not keep logged objects alive
+            }
+            PrintStream stream = entry.level.compareTo(Level.WARN) >= 0 ? System.err : System.out;
+            stream.println(line);
+            consumedSequence = sequence + 1;
+        }
+    }
+
+    private static void appendTime(StringBuilder line, LocalTime time) {
+        appendPadded(line, time.getHour(), 2).append(':');
+        appendPadded(line, time.getMinute(), 2).append(':');
+        appendPadded(line, time.getSecond(), 2).append('.');
+        appendPadded(line, time.getNano() / 1_000_000, 3);
+    }
+
+    private static StringBuilder appendPadded(StringBuilder line, int value, int width) {
+        for (int limit = 10, digits = 1; digits < width; limit *= 10, digits++) {
+            if (value < limit) {
+                line.append('0');
+            }
+        }
+        return line.append(value);
+    }
+
+    /**
+     * Quotes values that would otherwise be ambiguous in a key=value line.
+     */
+    private static void appendValue(StringBuilder line, String value) {
+        boolean needsQuotes = value.isEmpty();
+        for (int i = 0; i < value.length() && !needsQuotes; i++) {
+            char c = value.charAt(i);
+            needsQuotes = c == ' ' || c == '=' || c == '"' || c < 0x20;
+        }
+        if (!needsQuotes) {
+            line.append(value);
+            return;
+        }
+        line.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\') {
+                line.append('\\');
+            }
+            line.append(c < 0x20 ? ' ' : c);
+        }
+        line.append('"');
+    }
+}
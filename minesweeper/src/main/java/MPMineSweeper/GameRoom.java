@@ -0,0 +1,1297 @@
+package MPMineSweeper;
+
+import MPMineSweeper.GameLog.Category;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * One independent game hosted by a {@link GameServer}. A room owns its board,
+ * its players and their handlers, the turn order and its own lifecycle, so a
+ * single server process can run many matches side by side.
+ *
+ * In {@link Mode#SIMULTANEOUS} mode there is no turn order: moves and flags
+ * lock only the {@link BoardStripes} of the rows they touch rather than the
+ * game lock, so players working on different parts of the board do not wait
+ * for each other. Whatever needs the whole board takes the game lock first and
+ * then every band. {@link Mode#LOCK_FREE} mode has no turn order either, and
+ * changes cells with atomic compare-and-set instead of any lock; only sending
+ * the changed cells is serialised, so no player gets older states after newer
+ * ones.
+ *
+ * A room restored from a {@link SnapshotStore} snapshot starts with its game
+ * under way and every seat empty. A player rejoins with the session token they
+ * held before the restart, or by joining the room and taking the seat they ask
+ * for or the first one free, with its score. Like a dropped player's, a
+ * restored seat is kept for {@value #RESUME_SECONDS} seconds.
+ *
+ * A player whose connection drops during a game keeps their seat for
+ * {@value #RESUME_SECONDS} seconds. Their {@link Session} goes on numbering and
+ * keeping the messages sent to them, and a reconnect that presents its token is
+ * sent the ones it missed. Meanwhile their turns are skipped.
+ *
+ * Any number of spectators may watch a room, before or during its game. They
+ * are sent every broadcast through the room's {@link SpectatorFeed}, once per
+ * event rather than once per spectator, and can never hold up the players.
+ */
+public class GameRoom {
+    /**
+     * How players take their moves.
+     */
+    public enum Mode {
+        /** One player at a time, in the order they joined. */
+        TURNS,
+        /** Every player at once, each move locking the rows it touches. */
+        SIMULTANEOUS,
+        /** Every player at once, each cell changed with a compare-and-set. */
+        LOCK_FREE
+    }
+
+
+    private String name;
+    private RoomManager roomManager;
+    private List<ClientHandler> clientHandlers;
+    private final ReentrantLock gameLock = new ReentrantLock();
+    private final ReentrantLock sendLock = new ReentrantLock(); // Orders cell broadcasts in lock-free mode
+    // Lock-free moves and flags share it; a snapshot copy takes it alone, so it never sees half a move
+    private final ReentrantReadWriteLock lockFreePause = new ReentrantReadWriteLock();
+    private volatile boolean gameStarted;
+    private volatile boolean closed;
+    private GameBoard gameBoard;
+    private AtomicInteger currentPlayerIndex;
+    private List<Player> players;
+    private AtomicInteger readyPlayers;
+    private AtomicInteger playerCount;
+    private final int width;
+    private final int height;
+    private final Mode mode;
+    private final BoardStripes stripes; // Null in turn mode
+    private final AtomicBoolean gameEnding = new AtomicBoolean(); // Set by the move that ends a simultaneous game
+    private final MoveLog moveLog;
+    private final int logRoom; // This room's number in the move log
+    private final SpectatorFeed spectators = new SpectatorFeed(this);
+    // Sessions of restored seats nobody has taken yet, guarded by the game lock
+    private final Map<Player, Session> restoredSessions = new HashMap<>();
+    static final int DEFAULT_WIDTH = 16;
+    static final int DEFAULT_HEIGHT = 16;
+    static final int DEFAULT_MINES = 40;
+    static final int MAX_PLAYERS = 4;
+    static final int RESUME_SECONDS = 60; // How long a dropped player's seat is kept
+
+    /**
+     * Creates an empty room waiting for players.
+     *
+     * @param name        The name clients use to join this room.
+     * @param roomManager The manager that created the room and will tear it down.
+     */
+    public GameRoom(String name, RoomManager roomManager) {
+        this(name, roomManager, DEFAULT_WIDTH, DEFAULT_HEIGHT, DEFAULT_MINES);
+    }
+
+    /**
+     * Creates an empty room with a board of the given size.
+     *
+     * @param name        The name clients use to join this room.
+     * @param roomManager The manager that created the room and will tear it down.
+     * @param width       The board width in cells.
+     * @param height      The board height in cells.
+     * @param mines       The number of mines on the board.
+     */
+    public GameRoom(String name, RoomManager roomManager, int width, int height, int mines) {
+        this(name, roomManager, width, height, mines, Mode.TURNS);
+    }
+
+    /**
+     * Creates an empty room with a board of the given size, played in the given
+     * mode.
+     *
+     * @param name        The name clients use to join this room.
+     * @param roomManager The manager that created the room and will tear it down.
+     * @param width       The board width in cells.
+     * @param height      The board height in cells.
+     * @param mines       The number of mines on the board.
+     * @param mode        Whether players take turns or move at once.
+     */
+    public GameRoom(String name, RoomManager roomManager, int width, int height, int mines, Mode mode) {
+        this.name = name;
+        this.roomManager = roomManager;
+        this.width = width;
+        this.height = height;
+        this.mode = mode;
+        clientHandlers = new CopyOnWriteArrayList<>(); // Broadcasts iterate while players join and leave
+        gameBoard = new GameBoard(width, height, mines, this);
+        stripes = mode == Mode.SIMULTANEOUS ? new BoardStripes(height) : null;
+        if (mode != Mode.TURNS) {
+            gameBoard.setTrackChanges(false); // Each move broadcasts its own cells
+        }
+        players = new CopyOnWriteArrayList<>(); // Read by simultaneous moves outside the game lock
+        currentPlayerIndex = new AtomicInteger(0);
+        readyPlayers = new AtomicInteger(0);
+        gameStarted = false;
+        closed = false;
+        playerCount = new AtomicInteger(0);
+        moveLog = roomManager == null ? MoveLog.disabled() : roomManager.getMoveLog();
+        logRoom = moveLog.openRoom(name);
+    }
+
+    /**
+     * Gets the name of this room.
+     *
+     * @return The room name.
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Gets how players take their moves in this room.
+     *
+     * @return The room's mode.
+     */
+    public Mode getMode() {
+        return mode;
+    }
+
+    /**
+     * Gets what a client's outbound queue does when the client falls behind.
+     *
+     * @return The overflow policy configured on the server.
+     */
+    public OutboundQueue.OverflowPolicy getOverflowPolicy() {
+        return roomManager.getOverflowPolicy();
+    }
+
+    /**
+     * Checks whether a new player could join right now. The empty seats of a
+     * restored game do not count; they are kept for the players who held them.
+     *
+     * @return true if the room is still in its lobby and has a free seat.
+     */
+    public boolean isAcceptingPlayers() {
+        lockGame();
+        try {
+            return !closed && !gameStarted && players.size() < MAX_PLAYERS;
+        } finally {
+            gameLock.unlock();
+        }
+    }
+
+    /**
+     * Checks whether this room's game is being played.
+     *
+     * @return true between the start and the end of the game.
+     */
+    public boolean isGameStarted() {
+        return gameStarted;
+    }
+
+    /**
+     * Gets the number of players currently connected to this room.
+     *
+     * @return The number of client handlers whose connection has not dropped.
+     */
+    public int getClientCount() {
+        int count = 0;
+        for (ClientHandler handler : clientHandlers) {
+            if (handler.isAttached()) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Gets the number of spectators watching this room.
+     *
+     * @return The number of spectators.
+     */
+    public int getSpectatorCount() {
+        return spectators.size();
+    }
+
+    /**
+     * Takes the game lock, recording how long it took in the server metrics.
+     */
+    private void lockGame() {
+        if (gameLock.tryLock()) {
+            ServerMetrics.get().lockAcquired(0, false);
+            return;
+        }
+        long start = System.nanoTime();
+        gameLock.lock();
+        ServerMetrics.get().lockAcquired(System.nanoTime() - start, true);
+    }
+
+    /**
+     * Takes every band in simultaneous mode, for work that needs the whole
+     * board. Called with the game lock held, after it.
+     *
+     * @return The bands, for {@link #unlockStripes}, or null in the other modes.
+     */
+    private BoardStripes.Hold lockStripes() {
+        return stripes == null ? null : stripes.lockAll();
+    }
+
+    private static void unlockStripes(BoardStripes.Hold all) {
+        if (all != null) {
+            all.close();
+        }
+    }
+
+    /**
+     * Checks whether this room has been torn down.
+     *
+     * @return true once the room is closed.
+     */
+    public boolean isClosed() {
+        return closed;
+    }
+
+    /**
+     * Seats a new player in this room and answers their handshake.
+     *
+     * @param connection The connection the handshake arrived on.
+     * @param handshake  The client's handshake, already checked against the password.
+     * @param cipher     The session cipher keyed from the handshake.
+     * @return The handler for the new player, or null if the player was turned away.
+     */
+    public ClientHandler join(ClientConnection connection, Handshake handshake, SessionCipher cipher) {
+        lockGame();
+        try {
+            boolean binaryProtocol = Handshake.PROTOCOL_BINARY.equals(handshake.getOption(Handshake.PROTOCOL));
+            Message toRespond;
+            Player seat = gameStarted && !closed ? findEmptySeat(handshake.getOption(Handshake.PLAYER)) : null;
+            if ((this.gameStarted && seat == null) || closed) {
+                toRespond = Message.of(Opcode.GAME_IN_PROGRESS);
+            } else if (seat == null && this.players.size() >= MAX_PLAYERS) {
+                toRespond = Message.of(Opcode.SERVER_FULL);
+            } else {
+                // The answer to the handshake is always a text line; binary framing starts after it
+                toRespond = Message.withText(Opcode.PASSWORD, binaryProtocol ? "CORRECT BINARY" : "CORRECT");
+            }
+
+            connection.sendLine(cipher.encryptLine(TextMessageCodec.format(toRespond)));
+            if (toRespond.getOpcode() != Opcode.PASSWORD) {
+                connection.close();
+                GameLog.info(Category.ROOM, "refused").with("room", name)
+                        .with("address", connection.getRemoteAddress()).with("reason", toRespond.getOpcode()).log();
+                return null;
+            }
+
+            Player player = seat != null ? seat : new Player(playerCount.incrementAndGet());
+            Session kept = restoredSessions.remove(player);
+            if (kept != null) {
+                roomManager.removeSession(kept); // The seat was taken without its token
+            }
+            return seatPlayer(connection, handshake, cipher, player, new Session(this, player), seat != null);
+        } finally {
+            gameLock.unlock();
+        }
+    }
+
+    /**
+     * Seats a player whose handshake was answered and sends them the game.
+     * Called with the game lock held.
+     *
+     * @param rejoined true if the player takes a seat in a game under way.
+     */
+    private ClientHandler seatPlayer(ClientConnection connection, Handshake handshake, SessionCipher cipher,
+            Player player, Session session, boolean rejoined) {
+        boolean binaryProtocol = Handshake.PROTOCOL_BINARY.equals(handshake.getOption(Handshake.PROTOCOL));
+        player.setPassword(handshake.getPassword()); // Set the password
+        ClientHandler clientHandler = new ClientHandler(connection, this, player, cipher, binaryProtocol, session);
+        clientHandler.setViewport(Viewport.parseSize(handshake.getOption(Handshake.VIEWPORT), width, height));
+        session.attach(clientHandler, 0);
+        roomManager.addSession(session);
+        clientHandlers.add(clientHandler);
+        if (!rejoined) {
+            this.players.add(player);
+        }
+
+        GameLog.info(Category.ROOM, rejoined ? "rejoined" : "joined").with("room", name)
+                .with("player", player.getPlayerNumber()).with("address", connection.getRemoteAddress())
+                .with("protocol", binaryProtocol ? "binary" : "text").log();
+        clientHandler.sendMessage(Message.withText(Opcode.SESSION, session.getToken()));
+        clientHandler.sendMessage(Message.of(Opcode.PLAYER_NUMBER, player.getPlayerNumber()));
+        clientHandler.sendMessage(Message.of(Opcode.BOARD_SIZE, width, height, gameBoard.getMineCount()));
+        clientHandler.sendMessage(createSnapshot(clientHandler.getViewport()));
+        if (rejoined) {
+            resumeGame(clientHandler);
+        }
+        return clientHandler;
+    }
+
+    /**
+     * Lets a spectator watch this room and answers their handshake. The
+     * spectator gets the board size, then the room's events, then a snapshot of
+     * the whole board and, if the game is under way, its state, the turn and
+     * every player's score. Joining the feed before the snapshot is built means
+     * no event falls between them; an event that arrives first is only older.
+     *
+     * @param connection The connection the handshake arrived on.
+     * @param handshake  The client's handshake, already checked against the password.
+     * @param cipher     The session cipher keyed from the handshake.
+     * @return The spectator's handler, or null if the room has closed.
+     */
+    public ClientHandler watch(ClientConnection connection, Handshake handshake, SessionCipher cipher) {
+        lockGame();
+        try {
+            boolean binaryProtocol = Handshake.PROTOCOL_BINARY.equals(handshake.getOption(Handshake.PROTOCOL));
+            Message toRespond = closed ? Message.of(Opcode.GAME_IN_PROGRESS)
+                    : Message.withText(Opcode.PASSWORD, binaryProtocol ? "CORRECT BINARY" : "CORRECT");
+            connection.sendLine(cipher.encryptLine(TextMessageCodec.format(toRespond)));
+            if (closed) {
+                connection.close();
+                return null;
+            }
+
+            SpectatorHandler spectator = new SpectatorHandler(connection, this, cipher, binaryProtocol);
+            spectator.sendMessage(Message.of(Opcode.BOARD_SIZE, width, height, gameBoard.getMineCount()));
+            spectators.add(spectator);
+            spectator.sendMessage(createSnapshot(null));
+            spectator.sendMessage(Message.of(Opcode.PLAYERS_CONNECTED, players.size()));
+            if (gameStarted) {
+                spectator.sendMessage(Message.withText(Opcode.GAME_STATE, "STARTED"));
+                spectator.sendMessage(createStatusMessage());
+                spectator.sendMessage(Message.of(Opcode.TURN_CHANGED,
+                        mode == Mode.TURNS ? players.get(currentPlayerIndex.get()).getPlayerNumber() : 0));
+                for (Player player : players) {
+                    spectator.sendMessage(Message.of(Opcode.SCORE, player.getScore(), player.getPlayerNumber()));
+                }
+            }
+            GameLog.info(Category.ROOM, "spectating").with("room", name)
+                    .with("address", connection.getRemoteAddress()).with("spectators", spectators.size()).log();
+            return spectator;
+        } finally {
+            gameLock.unlock();
+        }
+    }
+
+    /**
+     * Stops sending events to a spectator who left.
+     *
+     * @param spectator The spectator's handler.
+     */
+    void removeSpectator(SpectatorHandler spectator) {
+        spectators.remove(spectator);
+    }
+
+    /**
+     * Asks for a spectator that missed events to be sent the whole board. See
+     * {@link SpectatorFeed#requestResync} for how often that happens.
+     *
+     * @param spectator The spectator's handler.
+     */
+    void requestSpectatorResync(SpectatorHandler spectator) {
+        spectators.requestResync(spectator);
+    }
+
+    /**
+     * Sends spectators the whole board and its status, for resync requests. One
+     * snapshot is built for all of them, and it is queued before the locks are
+     * released, so no event published after it can reach them ahead of it.
+     *
+     * @param targets The spectators to bring up to date.
+     */
+    void resyncSpectators(List<SpectatorHandler> targets) {
+        lockGame();
+        BoardStripes.Hold all = lockStripes();
+        try {
+            if (mode == Mode.LOCK_FREE) {
+                sendLock.lock();
+            }
+            try {
+                Message snapshot = Message.of(Opcode.SNAPSHOT, createGameStateMessage(0, 0, width, height));
+                Message status = createStatusMessage();
+                for (SpectatorHandler spectator : targets) {
+                    spectator.sendMessage(snapshot);
+                    spectator.sendMessage(status);
+                }
+            } finally {
+                if (mode == Mode.LOCK_FREE) {
+                    sendLock.unlock();
+                }
+            }
+        } finally {
+            unlockStripes(all);
+            gameLock.unlock();
+        }
+    }
+
+    /**
+     * Reconnects a player whose connection dropped to their seat and answers
+     * their handshake. The client is sent the messages numbered after the last
+     * one it received, or, if they are no longer all kept, the whole game as a
+     * joining player gets it. A connection the server still thinks is open is
+     * dropped in favour of the new one. A token held before the server was
+     * restarted takes back its seat in the restored game, which is sent whole.
+     *
+     * @param connection The connection the handshake arrived on.
+     * @param handshake  The client's handshake, already checked against the password.
+     * @param cipher     The session cipher keyed from the handshake.
+     * @param session    The session named by the handshake's token.
+     * @return The handler for the new connection, or null if the seat is gone;
+     *         nothing has been sent then.
+     */
+    public ClientHandler resume(ClientConnection connection, Handshake handshake, SessionCipher cipher,
+            Session session) {
+        lockGame();
+        try {
+            ClientHandler previous = findHandler(session.getPlayer());
+            if (!closed && previous == null && restoredSessions.remove(session.getPlayer(), session)) {
+                boolean binaryProtocol = Handshake.PROTOCOL_BINARY.equals(handshake.getOption(Handshake.PROTOCOL));
+                Message answer = Message.withText(Opcode.PASSWORD, binaryProtocol ? "CORRECT BINARY" : "CORRECT");
+                connection.sendLine(cipher.encryptLine(TextMessageCodec.format(answer)));
+                return seatPlayer(connection, handshake, cipher, session.getPlayer(), session, true);
+            }
+            if (closed || previous == null || previous.getSession() != session) {
+                return null; // The player quit, their seat expired or the game ended
+            }
+            boolean binaryProtocol = Handshake.PROTOCOL_BINARY.equals(handshake.getOption(Handshake.PROTOCOL));
+            Message answer = Message.withText(Opcode.PASSWORD, binaryProtocol ? "CORRECT BINARY" : "CORRECT");
+            connection.sendLine(cipher.encryptLine(TextMessageCodec.format(answer)));
+
+            Player player = session.getPlayer();
+            ClientHandler clientHandler = new ClientHandler(connection, this, player, cipher, binaryProtocol, session);
+            clientHandler.setViewport(previous.getViewport());
+            clientHandlers.set(clientHandlers.indexOf(previous), clientHandler);
+            previous.abortConnection(); // Its reader then finds it replaced and leaves the seat alone
+
+            int received = parseSequence(handshake.getOption(Handshake.SEQUENCE));
+            boolean replayed = session.attach(clientHandler, received);
+            GameLog.info(Category.ROOM, "resumed").with("room", name).with("player", player.getPlayerNumber())
+                    .with("address", connection.getRemoteAddress()).with("received", received)
+                    .with("replayed", replayed).log();
+            if (!replayed) {
+                clientHandler.sendMessage(Message.withText(Opcode.SESSION, session.getToken()));
+                clientHandler.sendMessage(Message.of(Opcode.PLAYER_NUMBER, player.getPlayerNumber()));
+                clientHandler.sendMessage(Message.of(Opcode.BOARD_SIZE, width, height, gameBoard.getMineCount()));
+                clientHandler.sendMessage(createSnapshot(clientHandler.getViewport()));
+                clientHandler.sendMessage(Message.of(Opcode.PLAYERS_CONNECTED, players.size()));
+                if (gameStarted) {
+                    resumeGame(clientHandler);
+                }
+            } else if (gameStarted && mode == Mode.TURNS && !isConnected(players.get(currentPlayerIndex.get()))) {
+                switchTurns(); // Everyone was away, so the turn was left with a missing player
+            }
+            return clientHandler;
+        } finally {
+            gameLock.unlock();
+        }
+    }
+
+    private static int parseSequence(String value) {
+        try {
+            return value == null ? 0 : Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            return -1; // Answered with the whole game
+        }
+    }
+
+    /**
+     * Keeps the seat of a player whose connection dropped during a game, or
+     * removes the player if the game has not started. A handler that a
+     * reconnect already replaced, or whose player quit, is ignored.
+     *
+     * @param handler The handler whose connection dropped.
+     */
+    public void handleDisconnect(ClientHandler handler) {
+        lockGame();
+        try {
+            if (!clientHandlers.contains(handler) || !handler.isAttached()) {
+                return;
+            }
+            Player player = handler.getPlayer();
+            if (!gameStarted || closed) {
+                handlePlayerQuit(player);
+                return;
+            }
+            handler.getSession().detach(handler);
+            GameLog.info(Category.ROOM, "dropped").with("room", name).with("player", player.getPlayerNumber())
+                    .with("seconds", RESUME_SECONDS).log();
+            if (mode == Mode.TURNS && players.get(currentPlayerIndex.get()) == player && getClientCount() > 0) {
+                switchTurns();
+            }
+            CompletableFuture.delayedExecutor(RESUME_SECONDS, TimeUnit.SECONDS).execute(() -> expireSeat(handler));
+        } finally {
+            gameLock.unlock();
+        }
+    }
+
+    /**
+     * Removes a dropped player whose seat was not reconnected in time.
+     *
+     * @param handler The handler whose connection dropped.
+     */
+    private void expireSeat(ClientHandler handler) {
+        lockGame();
+        try {
+            if (clientHandlers.contains(handler) && !handler.isAttached()) {
+                GameLog.info(Category.ROOM, "seat-expired").with("room", name)
+                        .with("player", handler.getPlayer().getPlayerNumber()).log();
+                handlePlayerQuit(handler.getPlayer());
+            }
+        } finally {
+            gameLock.unlock();
+        }
+    }
+
+    /**
+     * Removes a restored seat whose player has not come back in time.
+     *
+     * @param player The seat's player.
+     */
+    private void expireRestoredSeat(Player player) {
+        lockGame();
+        try {
+            Session session = restoredSessions.remove(player);
+            if (session != null) {
+                roomManager.removeSession(session);
+                GameLog.info(Category.ROOM, "seat-expired").with("room", name)
+                        .with("player", player.getPlayerNumber()).log();
+                handlePlayerQuit(player);
+            }
+        } finally {
+            gameLock.unlock();
+        }
+    }
+
+    /**
+     * Finds a seat in a game under way that no player holds, as a restored game
+     * has until its players rejoin. Seats kept for a dropped player are not
+     * free; only their session may take them back.
+     *
+     * @param requested The player number asked for in the handshake, or null for any.
+     * @return The seat's player, or null if there is none to take.
+     */
+    private Player findEmptySeat(String requested) {
+        for (Player player : players) {
+            if (findHandler(player) == null
+                    && (requested == null || requested.equals(Integer.toString(player.getPlayerNumber())))) {
+                return player;
+            }
+        }
+        return null;
+    }
+
+    private ClientHandler findHandler(Player player) {
+        for (ClientHandler handler : clientHandlers) {
+            if (handler.getPlayer() == player) {
+                return handler;
+            }
+        }
+        return null;
+    }
+
+    private boolean isConnected(Player player) {
+        ClientHandler handler = findHandler(player);
+        return handler != null && handler.isAttached();
+    }
+
+    /**
+     * Brings a player who rejoined a game under way into it: the game state,
+     * the board status, their score and whose turn it is. If the turn belongs
+     * to a seat nobody holds, it passes on.
+     *
+     * @param clientHandler The rejoined player's handler.
+     */
+    private void resumeGame(ClientHandler clientHandler) {
+        clientHandler.sendMessage(Message.withText(Opcode.GAME_STATE, "STARTED"));
+        clientHandler.sendMessage(createStatusMessage());
+        clientHandler.updatePlayerScore(clientHandler.getPlayer().getScore());
+        if (mode != Mode.TURNS) {
+            clientHandler.sendMessage(Message.of(Opcode.TURN_CHANGED, 0));
+        } else if (!isConnected(players.get(currentPlayerIndex.get()))) {
+            switchTurns();
+        } else {
+            clientHandler.sendMessage(
+                    Message.of(Opcode.TURN_CHANGED, players.get(currentPlayerIndex.get()).getPlayerNumber()));
+        }
+    }
+
+    /**
+     * Copies this room's game for a snapshot, holding the game lock and, in
+     * simultaneous mode, every band, so no move is half done. Lock-free moves
+     * only share a read lock with each other, and the copy takes it exclusively,
+     * so they pause while it is made.
+     *
+     * @return The game, or null if it is not being played.
+     */
+    SnapshotStore.RoomState captureState() {
+        lockGame();
+        BoardStripes.Hold all = lockStripes();
+        try {
+            if (mode == Mode.LOCK_FREE) {
+                lockFreePause.writeLock().lock();
+            }
+            try {
+                if (!gameStarted || closed) {
+                    return null;
+                }
+                int current = mode == Mode.TURNS ? players.get(currentPlayerIndex.get()).getPlayerNumber() : 0;
+                String[] tokens = new String[players.size()];
+                for (int i = 0; i < tokens.length; i++) {
+                    ClientHandler handler = findHandler(players.get(i));
+                    Session session = handler != null ? handler.getSession() : restoredSessions.get(players.get(i));
+                    tokens[i] = session != null ? session.getToken() : null;
+                }
+                return new SnapshotStore.RoomState(name, mode, gameBoard, players, current, playerCount.get(), tokens);
+            } finally {
+                if (mode == Mode.LOCK_FREE) {
+                    lockFreePause.writeLock().unlock();
+                }
+            }
+        } finally {
+            unlockStripes(all);
+            gameLock.unlock();
+        }
+    }
+
+    /**
+     * Puts a game read from a snapshot on this new room's board and seats its
+     * players, none of them connected yet. Each seat is kept for its player's
+     * session token for {@value #RESUME_SECONDS} seconds.
+     *
+     * @param state The game as the snapshot recorded it.
+     */
+    void restore(SnapshotStore.RoomState state) {
+        lockGame();
+        try {
+            int[] flagsPlaced = new int[0];
+            int current = 0;
+            for (int i = 0; i < state.playerNumbers.length; i++) {
+                Player player = new Player(state.playerNumbers[i]);
+                player.setScore(state.scores[i]);
+                player.setReady(state.ready[i]);
+                players.add(player);
+                if (player.getPlayerNumber() == state.currentPlayer) {
+                    current = i;
+                }
+                int number = Math.max(0, player.getPlayerNumber());
+                if (number >= flagsPlaced.length) {
+                    flagsPlaced = Arrays.copyOf(flagsPlaced, number + 1);
+                }
+                flagsPlaced[number] = state.flagsPlaced[i];
+                Session session = state.tokens[i] != null ? new Session(this, player, state.tokens[i])
+                        : new Session(this, player);
+                restoredSessions.put(player, session);
+                roomManager.addSession(session);
+                CompletableFuture.delayedExecutor(RESUME_SECONDS, TimeUnit.SECONDS)
+                        .execute(() -> expireRestoredSeat(player));
+            }
+            gameBoard.restore(state.seed, state.firstReveal, state.cells, flagsPlaced);
+            moveLog.restored(logRoom, state);
+            currentPlayerIndex.set(current);
+            readyPlayers.set(players.size());
+            playerCount.set(state.lastPlayerNumber);
+            gameEnding.set(false);
+            gameStarted = !players.isEmpty();
+        } finally {
+            gameLock.unlock();
+        }
+    }
+
+    public void updatePlayerScore(Integer score, Player player) {
+        for (Player p : this.players) {
+            if (p.getPlayerNumber() == player.getPlayerNumber()) {
+                p.setScore(score);
+                GameLog.debug(Category.GAME, "score").with("room", name).with("player", p.getPlayerNumber())
+                        .with("score", score).log();
+            }
+        }
+        for (ClientHandler ch : this.clientHandlers) {
+            if (ch.getPlayer().getPlayerNumber() == player.getPlayerNumber()) {
+                ch.updatePlayerScore(score);
+            }
+        }
+        spectators.publish(Message.of(Opcode.SCORE, score, player.getPlayerNumber())); // Spectators see every score
+    }
+
+    public void broadcastMessage(Message message) {
+        long start = System.nanoTime();
+        for (ClientHandler clientHandler : clientHandlers) {
+            clientHandler.sendMessage(message);
+        }
+        spectators.publish(message);
+        ServerMetrics.get().broadcast(System.nanoTime() - start);
+    }
+
+    public void broadcastPlayerCount() {
+        broadcastMessage(Message.of(Opcode.PLAYERS_CONNECTED, players.size()));
+    }
+
+    public void playerReady(Player player) {
+        lockGame();
+        try {
+            if (!gameStarted) {
+                player.setReady(true);
+                readyPlayers.incrementAndGet();
+                moveLog.ready(logRoom, player.getPlayerNumber());
+                if (readyPlayers.get() == players.size()) {
+                    startGame();
+                }
+            }
+        } finally {
+            gameLock.unlock();
+        }
+    }
+
+    private void sendGameStartedToAllClients() {
+        Message started = Message.withText(Opcode.GAME_STATE, "STARTED");
+        for (ClientHandler handler : clientHandlers) {
+            handler.sendMessage(started);
+        }
+        spectators.publish(started);
+    }
+
+    public void startGame() {
+        lockGame();
+        try {
+            if (!gameStarted && !closed && readyPlayers.get() == players.size()) {
+                currentPlayerIndex.set(0); // Always start with the first player who joined
+                Long seed = roomManager == null ? null : roomManager.getSeed();
+                if (seed != null) {
+                    gameBoard.reset(seed);
+                } else {
+                    gameBoard.reset(); // Ensure the game board is fresh at start
+                }
+                gameEnding.set(false);
+                gameStarted = true; // After the reset, so simultaneous moves never see the old board
+                moveLog.gameStarted(logRoom, gameBoard.getSeed(), width, height, gameBoard.getMineCount(), mode, players);
+                GameLog.info(Category.ROOM, "game-started").with("room", name).with("players", players.size())
+                        .with("seed", gameBoard.getSeed()).with("mode", mode).log();
+                sendGameStartedToAllClients();
+                broadcastSnapshot();
+                if (mode != Mode.TURNS) {
+                    moveLog.turn(logRoom, 0);
+                    broadcastMessage(Message.of(Opcode.TURN_CHANGED, 0)); // Everyone may move
+                } else {
+                    switchTurns(); // Inform players whose turn it is
+                }
+            }
+        } finally {
+            gameLock.unlock();
+        }
+    }
+
+    public void processPlayerMove(Player player, int x, int y) {
+        if (mode != Mode.TURNS) {
+            processSimultaneousMove(player, x, y);
+            return;
+        }
+        long start = System.nanoTime();
+        lockGame();
+        try {
+            if (!gameStarted) {
+                GameLog.debug(Category.GAME, "move-before-start").with("room", name)
+                        .with("player", player.getPlayerNumber()).log();
+                return;
+            }
+
+            if (players.get(currentPlayerIndex.get()).equals(player)) {
+                boolean mineHit = gameBoard.revealCell(x, y, player).isMineHit();
+                moveLog.move(logRoom, player.getPlayerNumber(), x, y);
+                GameLog.debug(Category.GAME, "move").with("room", name).with("player", player.getPlayerNumber())
+                        .with("x", x).with("y", y).with("mine", mineHit ? 1 : 0).log();
+                if (mineHit) {
+                    int bombCount = gameBoard.getBombRevealedCount();
+                    if (bombCount >= GameBoard.MINES_TO_LOSE) {
+                        broadcastMessage(Message.of(Opcode.GAMEOVER));
+                        endGame(false);
+                    } else {
+                        updateAndBroadcastGameState();
+                        switchTurns();
+                    }
+                } else {
+                    updateAndBroadcastGameState();
+                    if (gameBoard.allNonMineCellsRevealed()) {
+                        broadcastMessage(Message.withText(Opcode.GAMEOVER, "AllCellsCleared"));
+                        endGame(true);
+                    } else {
+                        switchTurns();
+                    }
+                }
+            } else {
+                GameLog.debug(Category.GAME, "move-out-of-turn").with("room", name)
+                        .with("player", player.getPlayerNumber())
+                        .with("current", players.get(currentPlayerIndex.get()).getPlayerNumber()).log();
+            }
+        } finally {
+            gameLock.unlock();
+            ServerMetrics.get().moveProcessed(System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Reveals a cell for any player. In simultaneous mode the move holds only
+     * the bands of rows the reveal touches, except for the first reveal of a
+     * game, which may move mines anywhere and holds every band. In lock-free mode
+     * it holds nothing. Exactly one move, the one that triggers the last mine
+     * allowed or clears the last safe cell, goes on to end the game.
+     *
+     * @param player The player making the move.
+     * @param x      X-coordinate of the cell.
+     * @param y      Y-coordinate of the cell.
+     */
+    private void processSimultaneousMove(Player player, int x, int y) {
+        if (x < 0 || x >= width || y < 0 || y >= height) {
+            return;
+        }
+        long start = System.nanoTime();
+        Boolean won;
+        try {
+            if (stripes == null) {
+                won = revealAndCheck(player, x, y, null);
+            } else {
+                try (BoardStripes.Hold hold = stripes.lockRows(y, y)) {
+                    won = revealAndCheck(player, x, y, hold);
+                }
+            }
+        } finally {
+            ServerMetrics.get().moveProcessed(System.nanoTime() - start);
+        }
+        if (won != null) {
+            finishGame(won);
+        }
+    }
+
+    /**
+     * Makes one simultaneous move and broadcasts the cells it revealed.
+     *
+     * @param player The player making the move.
+     * @param x      X-coordinate of the cell.
+     * @param y      Y-coordinate of the cell.
+     * @param hold The bands held by the calling thread, or null in lock-free mode.
+     * @return Whether this move won the game, or null if it did not end it.
+     */
+    private Boolean revealAndCheck(Player player, int x, int y, BoardStripes.Hold hold) {
+        if (!gameStarted || gameEnding.get()) {
+            GameLog.debug(Category.GAME, "move-before-start").with("room", name)
+                    .with("player", player.getPlayerNumber()).log();
+            return null;
+        }
+        RevealResult result;
+        if (hold == null) {
+            lockFreePause.readLock().lock();
+            try {
+                result = gameBoard.revealCellLockFree(x, y, player);
+            } finally {
+                lockFreePause.readLock().unlock();
+            }
+        } else {
+            if (gameBoard.isFirstRevealPending()) {
+                hold.extendRows(0, height - 1);
+            }
+            result = gameBoard.revealCell(x, y, player, hold);
+        }
+        moveLog.move(logRoom, player.getPlayerNumber(), x, y);
+        if (result.getRevealedCount() == 0) {
+            return null;
+        }
+        GameLog.debug(Category.GAME, "move").with("room", name).with("player", player.getPlayerNumber())
+                .with("x", x).with("y", y).with("mine", result.isMineHit() ? 1 : 0).log();
+        broadcastCells(result.getRevealedCells());
+        boolean lost = gameBoard.getBombRevealedCount() >= GameBoard.MINES_TO_LOSE;
+        boolean won = !lost && gameBoard.allNonMineCellsRevealed();
+        if (!(lost || won) || !gameEnding.compareAndSet(false, true)) {
+            return null;
+        }
+        return won;
+    }
+
+    /**
+     * Ends a simultaneous game once the move that decided it has let go of its
+     * bands, holding every band so no other move is half done.
+     *
+     * @param won true if every safe cell was cleared, false if too many mines went off.
+     */
+    private void finishGame(boolean won) {
+        lockGame();
+        BoardStripes.Hold all = lockStripes();
+        try {
+            if (!gameStarted) {
+                return;
+            }
+            broadcastMessage(won ? Message.withText(Opcode.GAMEOVER, "AllCellsCleared") : Message.of(Opcode.GAMEOVER));
+            endGame(won);
+        } finally {
+            unlockStripes(all);
+            gameLock.unlock();
+        }
+    }
+
+    /**
+     * Finishes the match: sends the final board, disconnects every player and
+     * tears the room down. The server keeps running for the other rooms.
+     *
+     * @param won true if every safe cell was cleared, false if too many mines went off.
+     */
+    private void endGame(boolean won) {
+        gameStarted = false;
+        moveLog.gameOver(logRoom, won);
+        updateAndBroadcastGameState();
+        broadcastMessage(Message.withText(Opcode.GAME_STATE, "OVER"));
+
+        // Close all client connections
+        for (ClientHandler clientHandler : clientHandlers) {
+            clientHandler.closeConnection();
+        }
+
+        close();
+    }
+
+    /**
+     * Marks the room closed and removes it from the room manager. Safe to call
+     * more than once.
+     */
+    public void close() {
+        lockGame();
+        try {
+            if (closed) {
+                return;
+            }
+            closed = true;
+        } finally {
+            gameLock.unlock();
+        }
+        spectators.closeAll();
+        roomManager.removeRoom(this);
+        GameLog.info(Category.ROOM, "closed").with("room", name).log();
+    }
+
+    public void sendCellState(ClientHandler clientHandler, int x, int y) {
+        Cell cell = gameBoard.getCell(x, y);
+        if (cell != null) {
+            int cellState = cell.isRevealed() ? (cell.isMine() ? 2 : 1) : 0;
+            clientHandler.sendMessage(Message.of(Opcode.CELL_STATE, x, y, cellState));
+        }
+    }
+
+    /**
+     * Broadcasts the cells that changed since the last update.
+     */
+    private void updateAndBroadcastGameState() {
+        broadcastCells(gameBoard.drainDirtyCells());
+    }
+
+    /**
+     * Broadcasts changed cells, followed by the board status. Each player only
+     * gets the changed cells inside their viewport, and no update at all if none
+     * of them are, but always gets the status. Nothing is sent if no cell
+     * changed.
+     *
+     * @param changedCells The indices (y * width + x) of the changed cells.
+     */
+    private void broadcastCells(int[] changedCells) {
+        if (changedCells.length == 0) {
+            return;
+        }
+        if (mode != Mode.LOCK_FREE) {
+            sendCells(changedCells);
+            return;
+        }
+        sendLock.lock();
+        try {
+            sendCells(changedCells); // Reads the cells under the lock, so the last message sent is the newest
+        } finally {
+            sendLock.unlock();
+        }
+    }
+
+    private void sendCells(int[] changedCells) {
+        long start = System.nanoTime();
+        int[] cells = createDeltaMessage(changedCells);
+        Message update = Message.of(Opcode.UPDATE, cells);
+        Message status = createStatusMessage();
+        for (ClientHandler clientHandler : clientHandlers) {
+            Viewport viewport = clientHandler.getViewport();
+            int[] visible = viewport == null ? cells : viewport.filter(cells);
+            if (visible == cells) {
+                clientHandler.sendMessage(update);
+            } else if (visible.length > 0) {
+                clientHandler.sendMessage(Message.of(Opcode.UPDATE, visible));
+            }
+            clientHandler.sendMessage(status);
+        }
+        spectators.publish(update); // Spectators see the whole board
+        spectators.publish(status);
+        ServerMetrics.get().broadcast(System.nanoTime() - start);
+    }
+
+    /**
+     * Builds the board status from the board's running counts: revealed safe
+     * cells, safe cells in total, triggered mines, flags on the board and mines
+     * remaining, then a player number and flags placed pair for each player.
+     *
+     * @return The STATUS message.
+     */
+    private Message createStatusMessage() {
+        int[] status = new int[5 + players.size() * 2];
+        status[0] = gameBoard.getRevealedSafeCount();
+        status[1] = gameBoard.getSafeCellCount();
+        status[2] = gameBoard.getBombRevealedCount();
+        status[3] = gameBoard.getFlagCount();
+        status[4] = gameBoard.getMinesRemaining();
+        int position = 5;
+        for (Player player : players) {
+            status[position++] = player.getPlayerNumber();
+            status[position++] = gameBoard.getFlagsPlaced(player);
+        }
+        return Message.of(Opcode.STATUS, status);
+    }
+
+    /**
+     * Sends every player the board inside their viewport, building the whole
+     * board snapshot at most once, and the board status.
+     */
+    private void broadcastSnapshot() {
+        long start = System.nanoTime();
+        Message status = createStatusMessage();
+        Message wholeBoard = null;
+        for (ClientHandler clientHandler : clientHandlers) {
+            Viewport viewport = clientHandler.getViewport();
+            if (viewport == null || viewport.covers(width, height)) {
+                if (wholeBoard == null) {
+                    wholeBoard = createSnapshot(null);
+                }
+                clientHandler.sendMessage(wholeBoard);
+            } else {
+                clientHandler.sendMessage(createSnapshot(viewport));
+            }
+            clientHandler.sendMessage(status);
+        }
+        if (spectators.size() > 0) {
+            spectators.publish(wholeBoard != null ? wholeBoard : createSnapshot(null));
+            spectators.publish(status);
+        }
+        ServerMetrics.get().broadcast(System.nanoTime() - start);
+    }
+
+    /**
+     * Sends the board inside a client's viewport to that client, for resync
+     * requests.
+     *
+     * @param clientHandler The client to bring up to date.
+     */
+    public void sendSnapshot(ClientHandler clientHandler) {
+        clientHandler.sendMessage(createSnapshot(clientHandler.getViewport()));
+    }
+
+    /**
+     * Moves a client's viewport and sends them the cells now in view. Later
+     * updates are filtered against the new viewport.
+     *
+     * @param clientHandler The client that scrolled.
+     * @param x             The requested leftmost column.
+     * @param y             The requested top row.
+     * @param viewWidth     The requested number of columns.
+     * @param viewHeight    The requested number of rows.
+     */
+    public void setViewport(ClientHandler clientHandler, int x, int y, int viewWidth, int viewHeight) {
+        lockGame();
+        try {
+            Viewport viewport = Viewport.clamped(x, y, viewWidth, viewHeight, width, height);
+            clientHandler.setViewport(viewport);
+            clientHandler.sendMessage(createSnapshot(viewport));
+            GameLog.debug(Category.GAME, "viewport").with("room", name)
+                    .with("player", clientHandler.getPlayer().getPlayerNumber()).with("viewport", viewport).log();
+        } finally {
+            gameLock.unlock();
+        }
+    }
+
+    /**
+     * Builds a SNAPSHOT of the whole board as it is right now.
+     *
+     * @return The snapshot message.
+     */
+    public Message createSnapshot() {
+        return createSnapshot(null);
+    }
+
+    /**
+     * Builds a SNAPSHOT of part of the board as it is right now.
+     *
+     * @param viewport The cells to include, or null for the whole board.
+     * @return The snapshot message.
+     */
+    public Message createSnapshot(Viewport viewport) {
+        lockGame();
+        BoardStripes.Hold all = lockStripes();
+        try {
+            if (mode == Mode.LOCK_FREE) {
+                sendLock.lock(); // No later update can then carry older cells than the snapshot
+            }
+            try {
+                return Message.of(Opcode.SNAPSHOT, viewport == null
+                        ? createGameStateMessage(0, 0, width, height)
+                        : createGameStateMessage(viewport.getX(), viewport.getY(), viewport.getWidth(),
+                                viewport.getHeight()));
+            } finally {
+                if (mode == Mode.LOCK_FREE) {
+                    sendLock.unlock();
+                }
+            }
+        } finally {
+            unlockStripes(all);
+            gameLock.unlock();
+        }
+    }
+
+    public void toggleFlag(int x, int y, boolean isFlagged, Player player) {
+        if (mode == Mode.LOCK_FREE) {
+            boolean toggled;
+            lockFreePause.readLock().lock();
+            try {
+                toggled = gameStarted && !gameEnding.get() && gameBoard.toggleFlagLockFree(x, y, isFlagged, player);
+            } finally {
+                lockFreePause.readLock().unlock();
+            }
+            if (toggled) {
+                moveLog.flag(logRoom, player.getPlayerNumber(), x, y, isFlagged);
+                broadcastCells(new int[] { y * width + x });
+            }
+            return;
+        }
+        if (mode == Mode.SIMULTANEOUS) {
+            if (x < 0 || x >= width || y < 0 || y >= height) {
+                return;
+            }
+            BoardStripes.Hold hold = stripes.lockRows(y, y);
+            try {
+                if (gameStarted && !gameEnding.get() && gameBoard.toggleFlag(x, y, isFlagged, player)) {
+                    moveLog.flag(logRoom, player.getPlayerNumber(), x, y, isFlagged);
+                    broadcastCells(new int[] { y * width + x });
+                }
+            } finally {
+                hold.close();
+            }
+            return;
+        }
+        lockGame();
+        try {
+            if (!gameStarted) {
+                GameLog.debug(Category.GAME, "flag-before-start").with("room", name)
+                        .with("player", player.getPlayerNumber()).log();
+                return;
+            }
+            if (gameBoard.toggleFlag(x, y, isFlagged, player)) {
+                moveLog.flag(logRoom, player.getPlayerNumber(), x, y, isFlagged);
+                updateAndBroadcastGameState();
+            }
+        } finally {
+            gameLock.unlock();
+        }
+    }
+
+    /**
+     * Collects a rectangle of the board as x, y, state, count quadruples.
+     *
+     * @param left       The leftmost column.
+     * @param top        The top row.
+     * @param viewWidth  The number of columns.
+     * @param viewHeight The number of rows.
+     * @return The cells of the rectangle, row by row.
+     */
+    private int[] createGameStateMessage(int left, int top, int viewWidth, int viewHeight) {
+        int[] cells = new int[viewWidth * viewHeight * 4];
+        int position = 0;
+        for (int y = top; y < top + viewHeight; y++) {
+            for (int x = left; x < left + viewWidth; x++) {
+                position = appendCellState(cells, position, x, y);
+            }
+        }
+        return cells;
+    }
+
+    private int[] createDeltaMessage(int[] changedCells) {
+        int[] cells = new int[changedCells.length * 4];
+        int position = 0;
+        for (int index : changedCells) {
+            position = appendCellState(cells, position, index % width, index / width);
+        }
+        return cells;
+    }
+
+    private int appendCellState(int[] cells, int position, int x, int y) {
+        cells[position++] = x;
+        cells[position++] = y;
+        cells[position++] = gameBoard.getVisibleState(x, y);
+        cells[position++] = gameBoard.getVisibleMineCount(x, y);
+        return position;
+    }
+
+    private void switchTurns() {
+        if (players.size() > 1) {
+            currentPlayerIndex.set((currentPlayerIndex.get() + 1) % players.size());
+            for (int skipped = 1; skipped < players.size() && !isConnected(players.get(currentPlayerIndex.get()));
+                    skipped++) {
+                currentPlayerIndex.set((currentPlayerIndex.get() + 1) % players.size()); // Skip missing players
+            }
+        }
+        int currentPlayerNumber = players.get(currentPlayerIndex.get()).getPlayerNumber();
+        GameLog.debug(Category.GAME, "turn").with("room", name).with("player", currentPlayerNumber).log();
+        moveLog.turn(logRoom, currentPlayerNumber);
+        broadcastMessage(Message.of(Opcode.TURN_CHANGED, currentPlayerNumber));
+    }
+
+    public void handlePlayerQuit(Player player) {
+        lockGame();
+        try {
+            int index = players.indexOf(player);
+            if (index < 0) {
+                return; // Already removed, e.g. an explicit quit followed by the disconnect
+            }
+            boolean wasCurrentPlayer = index == currentPlayerIndex.get();
+
+            players.remove(player);
+            moveLog.quit(logRoom, player.getPlayerNumber());
+            ClientHandler handler = findHandler(player);
+            if (handler != null) {
+                roomManager.removeSession(handler.getSession());
+                handler.getSession().close();
+            }
+            clientHandlers.removeIf(h -> h.getPlayer().equals(player));
+            broadcastMessage(Message.of(Opcode.PLAYER_QUIT, player.getPlayerNumber()));
+            broadcastPlayerCount();
+
+            if (clientHandlers.isEmpty()) {
+                close(); // Including seats restored from a snapshot whose players never came back
+            } else if (gameStarted) {
+                if (index < currentPlayerIndex.get()) {
+                    currentPlayerIndex.decrementAndGet(); // Keep pointing at the same player
+                } else if (wasCurrentPlayer && mode == Mode.TURNS) {
+                    currentPlayerIndex.set((currentPlayerIndex.get() - 1 + players.size()) % players.size());
+                    switchTurns(); // Move to the next player immediately
+                }
+            } else {
+                if (player.isReady()) {
+                    readyPlayers.decrementAndGet();
+                }
+                if (readyPlayers.get() == players.size()) {
+                    startGame(); // Everyone still in the lobby is ready
+                }
+            }
+        } finally {
+            gameLock.unlock();
+        }
+    }
+
+    public void removeClientHandler(ClientHandler handler) {
+        lockGame();
+        try {
+            clientHandlers.remove(handler);
+        } finally {
+            gameLock.unlock();
+        }
+    }
+}
@@ -1,69 +1,60 @@
 package MPMineSweeper;
 
+import MPMineSweeper.GameLog.Category;
+
 import java.io.IOException;
-import java.io.PrintWriter;
 import java.net.ServerSocket;
-import java.io.InputStreamReader;
 import java.net.Socket;
-import java.util.ArrayList;
-import java.io.BufferedReader;
-import java.util.List;
-import java.util.concurrent.atomic.AtomicInteger;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 public class GameServer {
+    static final int MAX_BOARD_CELLS = 1 << 24;
+
     private int port;
     private String password;
-    private List<ClientHandler> clientHandlers;
+    private RoomManager roomManager;
     private ServerSocket serverSocket;
+    private NioServer nioServer;
+    private ExecutorService connectionExecutor; // null means one platform thread per connection
+    private ExecutorService writerExecutor; // null means one platform writer thread per client
     private boolean isRunning;
-    private boolean gameStarted;
-    private GameBoard gameBoard;
-    private AtomicInteger currentPlayerIndex;
-    private List<Player> players;
-    private AtomicInteger readyPlayers;
-    private AtomicInteger playerCount;
-    private static final int WIDTH = 16;
-    private static final int HEIGHT = 16;
-    private static final int MINES = 40;
-    private static final int MAX_PLAYERS = 4;
 
     public GameServer(int port, String password) {
         this.port = port;
         this.password = password;
-        clientHandlers = new ArrayList<>();
-        gameBoard = new GameBoard(WIDTH, HEIGHT, MINES, this);
-        players = new ArrayList<>();
-        currentPlayerIndex = new AtomicInteger(0);
-        readyPlayers = new AtomicInteger(0);
-        gameStarted = false;
-        playerCount = new AtomicInteger(0);
+        roomManager = new RoomManager();
         isRunning = true;
     }
 
-    public void updatePlayerScore(Integer score, Player player) {
-        for (Player p : this.players) {
-            if (p.getPlayerNumber() == player.getPlayerNumber()) {
-                p.setScore(score);
-                System.out.println("KKM: score: " + p.getScore());
-            }
-        }
-        for (ClientHandler ch : this.clientHandlers) {
-            if (ch.getPlayer().getPlayerNumber() == player.getPlayerNumber()) {
-                ch.updatePlayerScore(score);
-            }
-        }
+    /**
+     * Gets the manager for the rooms hosted by this server.
+     *
+     * @return The room manager.
+     */
+    public RoomManager getRoomManager() {
+        return roomManager;
     }
 
     public void startServer() {
         try {
             serverSocket = new ServerSocket(port);
-            System.out.println("Server running on port " + port);
+            GameLog.info(Category.SERVER, "started").with("port", port)
+                    .with("mode", connectionExecutor == null ? "threads" : "virtual-threads").log();
 
             new Thread(() -> {
                 while (isRunning) {
                     try {
                         Socket clientSocket = serverSocket.accept();
-                        this.handleNewConnection(clientSocket);
+                        clientSocket.setTcpNoDelay(true); // Small updates must not wait for the previous one's ACK
+                        if (connectionExecutor != null) {
+                            connectionExecutor.execute(() -> handleNewConnectionSafely(clientSocket));
+                        } else {
+                            this.handleNewConnection(clientSocket);
+                        }
 
                         // String clientAddress = clientSocket.getInetAddress().getHostAddress();
                         // System.out.println("Client connected: " + clientAddress);
@@ -85,247 +76,154 @@ public class GameServer {
                         // }
 
                     } catch (IOException e) {
-                        System.err.println("Error accepting client connection: " + e.getMessage());
+                        GameLog.error(Category.SERVER, "accept-failed").with("error", e.getMessage()).log();
                     }
                 }
             }).start();
 
         } catch (IOException e) {
-            System.err.println("Error creating server socket: " + e.getMessage());
+            GameLog.error(Category.SERVER, "listen-failed").with("port", port).with("error", e.getMessage()).log();
         }
     }
 
-    private void closeServerSocket() {
-        try {
-            if (serverSocket != null && !serverSocket.isClosed()) {
-                serverSocket.close();
-            }
-        } catch (IOException e) {
-            System.err.println("Error closing server socket: " + e.getMessage());
-        }
-    }
-
-    private void handleNewConnection(Socket clientSocket) throws IOException {
-        BufferedReader in = new BufferedReader(new InputStreamReader(clientSocket.getInputStream()));
-        PrintWriter out = new PrintWriter(clientSocket.getOutputStream(), true);
-        ClientHandler clientHandler;
-        String message = in.readLine();
-        String[] parts = message.split(" ");
-        String clientPassword = parts[0]; // Receive password from client
-        String encryptionKey = parts[1];
-
-        if (this.password.equals(clientPassword)) {
-            Player player = new Player(playerCount.incrementAndGet()); // Create a new Player object
-            player.setPassword(clientPassword); // Set the password
-
-            clientHandler = new ClientHandler(clientSocket, this, player, encryptionKey);
-            new Thread(clientHandler).start();
-            clientHandlers.add(clientHandler);
-            this.players.add(player);
-
-            String toRespond = "";
-
-            if (this.gameStarted) {
-                toRespond = "GAME_IN_PROGRESS";
-            } else if (this.players.size() <= MAX_PLAYERS) {
-                toRespond = "PASSWORD CORRECT";
-            } else if (this.players.size() > MAX_PLAYERS) {
-                toRespond = "SERVER_FULL";
-            }
-
-
-            String encryptedString = EncryptionUtil.encrypt(toRespond, encryptionKey);
-            out.println(encryptedString);
-            System.out.println("Client connected: " + clientSocket.getInetAddress().getHostAddress());
-            clientHandler.sendMessage("PLAYER_NUMBER " + player.getPlayerNumber());
-
-        } else {
-            out.println("PASSWORD INCORRECT"); // Send response to client
-            clientSocket.close();
-            System.out.println("Incorrect password attempt or max players reached. Connection denied.");
-        }
-    }
-
-    public void stopServer() {
-        isRunning = false;
-        closeServerSocket();
-        System.out.println("Server stopped.");
-        System.exit(0); // Exit the application
+    /**
+     * Runs every connection handshake and every {@link ClientHandler} loop on a
+     * virtual thread instead of a dedicated platform thread. Must be called before
+     * {@link #startServer()}.
+     */
+    public void useVirtualThreads() {
+        connectionExecutor = Executors.newVirtualThreadPerTaskExecutor();
+        writerExecutor = connectionExecutor;
     }
 
-    public void broadcastMessage(String message) {
-        for (ClientHandler clientHandler : clientHandlers) {
-            clientHandler.sendMessage(message);
+    /**
+     * Starts the server on a selector-based NIO core instead of one thread per
+     * connection. A handful of event loops multiplex every client socket.
+     *
+     * @param eventLoops The number of event-loop threads to run.
+     */
+    public void startNioServer(int eventLoops) {
+        if (writerExecutor == null) {
+            // Writers wait for the event loop to drain the socket; parking a virtual thread costs next to nothing
+            writerExecutor = Executors.newVirtualThreadPerTaskExecutor();
         }
-    }
-
-    public void broadcastPlayerCount() {
-        broadcastMessage("PLAYERS_CONNECTED " + players.size());
-    }
-
-    public synchronized void playerReady(Player player) {
-        if (!gameStarted) {
-            player.setReady(true);
-            readyPlayers.incrementAndGet();
-            if (readyPlayers.get() == players.size()) {
-                startGame();
-            }
+        try {
+            nioServer = new NioServer(this, port, eventLoops);
+            nioServer.start();
+            GameLog.info(Category.SERVER, "started").with("port", port).with("mode", "nio")
+                    .with("eventLoops", eventLoops).log();
+        } catch (IOException e) {
+            GameLog.error(Category.SERVER, "listen-failed").with("port", port).with("error", e.getMessage()).log();
         }
     }
 
-    private void sendGameStartedToAllClients() {
-        for (ClientHandler handler : clientHandlers) {
-            handler.sendMessage("GAME_STATE STARTED");
+    private void closeServerSocket() {
+        if (nioServer != null) {
+            nioServer.stop();
         }
-    }
-
-    public synchronized void startGame() {
-        if (!gameStarted && readyPlayers.get() == players.size()) {
-            gameStarted = true;
-            currentPlayerIndex.set(0); // Always start with the first player who joined
-            gameBoard.reset(); // Ensure the game board is fresh at start
-            sendGameStartedToAllClients();
-            switchTurns(); // Inform players whose turn it is
+        try {
+            if (serverSocket != null && !serverSocket.isClosed()) {
+                serverSocket.close();
+            }
+        } catch (IOException e) {
+            GameLog.warn(Category.SERVER, "close-failed").with("error", e.getMessage()).log();
         }
     }
 
-    public synchronized void processPlayerMove(Player player, int x, int y) {
-        System.out.println("Processing move for player " + player.getPlayerNumber() + " at position " + x + ", " + y);
-        if (!gameStarted) {
-            System.out.println("Game has not started yet.");
-            return;
-        }
-
-        if (players.get(currentPlayerIndex.get()).equals(player)) {
-            boolean mineHit = gameBoard.revealCell(x, y, player);
-            System.out.println("Mine hit: " + mineHit);
-            if (mineHit) {
-                int bombCount = gameBoard.getBombRevealedCount();
-                if (bombCount >= 5) {
-                    broadcastMessage("GAMEOVER");
-                    endGame();
-                } else {
-                    updateAndBroadcastGameState();
-                    switchTurns();
-                }
+    private void handleNewConnection(Socket clientSocket) throws IOException {
+        SocketConnection connection = new SocketConnection(clientSocket);
+        ClientHandler clientHandler = acceptClient(connection.readLine(), connection);
+        if (clientHandler != null) {
+            if (connectionExecutor != null) {
+                connectionExecutor.execute(clientHandler);
             } else {
-                updateAndBroadcastGameState();
-                if (gameBoard.allNonMineCellsRevealed()) {
-                    broadcastMessage("GAMEOVER AllCellsCleared");
-                    endGame();
-                } else {
-                    switchTurns();
-                }
+                new Thread(clientHandler).start();
             }
-        } else {
-            System.out.println("It's not " + player.getPlayerNumber() + "'s turn, it's "
-                    + players.get(currentPlayerIndex.get()).getPlayerNumber() + "'s turn.");
         }
     }
 
-    private void endGame() {
-        gameStarted = false;
-        updateAndBroadcastGameState();
-        broadcastMessage("GAME_STATE OVER");
-
-        // Close all client connections
-        for (ClientHandler clientHandler : clientHandlers) {
-            clientHandler.closeConnection();
-        }
-
-        // Optionally, you can add a delay here if you want to give some time for
-        // clients to process the game over message
+    private void handleNewConnectionSafely(Socket clientSocket) {
         try {
-            Thread.sleep(5000); // Wait for 5 seconds before stopping the server
-        } catch (InterruptedException e) {
-            System.err.println("Interrupted while waiting to stop server: " + e.getMessage());
-        }
-
-        stopServer(); // Stop the server
-    }
-
-    public void sendCellState(ClientHandler clientHandler, int x, int y) {
-        Cell cell = gameBoard.getCell(x, y);
-        if (cell != null) {
-            int cellState = cell.isRevealed() ? (cell.isMine() ? 2 : 1) : 0;
-            clientHandler.sendMessage("CELL_STATE " + x + " " + y + " " + cellState);
+            handleNewConnection(clientSocket);
+        } catch (IOException e) {
+            GameLog.warn(Category.SERVER, "handshake-failed").with("error", e.getMessage()).log();
         }
     }
 
     /**
-     * Updates and broadcasts the current game state to all clients.
+     * Performs the password check for a freshly connected client and, if it
+     * passes, routes them to a room. Shared by the blocking and the NIO server
+     * modes.
+     *
+     * @param message    The handshake line, "password key [room=name] [proto=binary]".
+     * @param connection The connection the handshake arrived on.
+     * @return The handler for the new player, or null if the connection was refused.
      */
-    private void updateAndBroadcastGameState() {
-        String gameStateMessage = createGameStateMessage();
-        broadcastMessage("UPDATE " + gameStateMessage);
-    }
-
-    public synchronized void toggleFlag(int x, int y, boolean isFlagged, Player player) {
-        if (!gameStarted) {
-            System.out.println("The game has not started yet. You cannot flag cells.");
-            return;
-        }
-        gameBoard.toggleFlag(x, y, isFlagged);
-        updateAndBroadcastGameState();
-    }
-
-    private String createGameStateMessage() {
-        StringBuilder sb = new StringBuilder();
-        for (int y = 0; y < HEIGHT; y++) {
-            for (int x = 0; x < WIDTH; x++) {
-                Cell cell = gameBoard.getCell(x, y);
-                int cellState = cell.isRevealed() ? (cell.isMine() ? 2 : 1) : (cell.isFlagged() ? 3 : 0);
-                int minesCount = cell.isRevealed() && !cell.isMine() ? cell.getNeighboringMines() : 0;
-                sb.append(x).append(",").append(y).append(",").append(cellState).append(",").append(minesCount)
-                        .append(";");
-            }
-        }
-        return sb.toString();
-    }
-
-    private void switchTurns() {
-        if (players.size() > 1) {
-            currentPlayerIndex.set((currentPlayerIndex.get() + 1) % players.size());
-            while (!clientHandlers.stream()
-                    .anyMatch(handler -> handler.getPlayer().equals(players.get(currentPlayerIndex.get())))) {
-                currentPlayerIndex.set((currentPlayerIndex.get() + 1) % players.size()); // Skip missing players
+    ClientHandler acceptClient(String message, ClientConnection connection) {
+        Handshake handshake = Handshake.parse(message);
+        SessionCipher cipher = handshake == null ? null : SessionCipher.forServer(handshake.getEncryptionKey());
+
+        if (cipher != null && this.password.equals(handshake.getPassword())) {
+            ClientHandler clientHandler = roomManager.joinRoom(connection, handshake, cipher);
+            if (clientHandler != null) {
+                startWriter(clientHandler);
             }
+            return clientHandler;
+        } else {
+            connection.sendLine("PASSWORD INCORRECT"); // Send response to client
+            connection.close();
+            GameLog.info(Category.SERVER, "password-rejected").with("address", connection.getRemoteAddress()).log();
+            return null;
         }
-        int currentPlayerNumber = players.get(currentPlayerIndex.get()).getPlayerNumber();
-        System.out.println("Current player number: " + currentPlayerNumber);
-        broadcastMessage("TURN_CHANGED " + currentPlayerNumber);
     }
 
-    public synchronized void handlePlayerQuit(Player player) {
-        int index = players.indexOf(player);
-        boolean wasCurrentPlayer = index == currentPlayerIndex.get();
-    
-        players.remove(player);
-        clientHandlers.removeIf(handler -> handler.getPlayer().equals(player));
-        broadcastMessage("PLAYER_QUIT " + player.getPlayerNumber());
-        broadcastPlayerCount();
-    
-        if (players.isEmpty()) {
-            stopServer();
+    private void startWriter(ClientHandler clientHandler) {
+        if (writerExecutor != null) {
+            writerExecutor.execute(clientHandler::runWriter);
         } else {
-            if (wasCurrentPlayer) {
-                if (players.size() > 0) {
-                    currentPlayerIndex.set((currentPlayerIndex.get() - 1 + players.size()) % players.size());
-                    switchTurns(); // Move to the next player immediately
-                    broadcastMessage("TURN_CHANGED " + players.get(currentPlayerIndex.get()).getPlayerNumber());
-                }
-            }
+            new Thread(clientHandler::runWriter).start();
         }
     }
 
-    public synchronized void removeClientHandler(ClientHandler handler) {
-        clientHandlers.remove(handler);
+    public void stopServer() {
+        isRunning = false;
+        closeServerSocket();
+        GameLog.info(Category.SERVER, "stopped").log();
+        System.exit(0); // Exit the application
     }
 
     public boolean isGameRunning() {
         return isRunning;
     }
 
+    /**
+     * Parses a board size given as "WxH" or "WxH:mines". Without a mine count the
+     * board gets the mine density of the standard 16x16 board with 40 mines.
+     *
+     * @param spec The board size.
+     * @return Width, height and mine count, or null if the size is malformed or
+     *         out of range.
+     */
+    static int[] parseBoardSize(String spec) {
+        try {
+            int colon = spec.indexOf(':');
+            String size = colon < 0 ? spec : spec.substring(0, colon);
+            int separator = size.indexOf('x');
+            int width = Integer.parseInt(size.substring(0, separator));
+            int height = Integer.parseInt(size.substring(separator + 1));
+            if (width < 1 || height < 1 || width > 65535 || height > 65535 || (long) width * height > MAX_BOARD_CELLS) {
+                return null;
+            }
+            int cells = width * height;
+            int mines = colon < 0 ? (int) ((long) cells * GameRoom.DEFAULT_MINES
+                    / (GameRoom.DEFAULT_WIDTH * GameRoom.DEFAULT_HEIGHT))
+                    : Integer.parseInt(spec.substring(colon + 1));
+            return mines < 0 || mines >= cells ? null : new int[] { width, height, mines };
+        } catch (NumberFormatException | StringIndexOutOfBoundsException e) {
+            return null;
+        }
+    }
+
     public static void main(String[] args) {
         if (args.length < 1) {
             System.err.println("You must provide a port number.");
@@ -334,16 +232,148 @@ public class GameServer {
 
         int port;
         String password;
+        int eventLoops = 0;
+        boolean useVirtualThreads = false;
+        OutboundQueue.OverflowPolicy overflowPolicy = null;
+        int[] boardSize = null;
+        Long seed = null;
+        GameRoom.Mode gameMode = null;
+        MoveLog moveLog = null;
+        Path snapshotFile = null;
+        int snapshotInterval = 10;
+        boolean restore = false;
         try {
             port = Integer.parseInt(args[0]);
             password = args[1];
+            for (int i = 2; i < args.length; i++) {
+                if (args[i].equals("--virtual-threads")) {
+                    useVirtualThreads = true;
+                } else if (args[i].equals("--overflow") && i + 1 < args.length) {
+                    overflowPolicy = OutboundQueue.OverflowPolicy.valueOf(args[++i].toUpperCase());
+                } else if (args[i].equals("--log") && i + 1 < args.length) {
+                    String spec = args[++i];
+                    try {
+                        GameLog.configure(spec);
+                    } catch (IllegalArgumentException e) {
+                        System.err.println("Invalid log levels: " + e.getMessage());
+                        System.exit(1);
+                        return;
+                    }
+                } else if (args[i].equals("--board") && i + 1 < args.length) {
+                    String spec = args[++i];
+                    boardSize = parseBoardSize(spec);
+                    if (boardSize == null) {
+                        System.err.println("Invalid board: " + spec + ", expected WxH or WxH:mines, at most "
+                                + MAX_BOARD_CELLS + " cells.");
+                        System.exit(1);
+                        return;
+                    }
+                } else if (args[i].equals("--seed") && i + 1 < args.length) {
+                    String value = args[++i];
+                    try {
+                        seed = Long.parseLong(value);
+                    } catch (NumberFormatException e) {
+                        System.err.println("Invalid seed: " + value + ", expected a whole number.");
+                        System.exit(1);
+                        return;
+                    }
+                } else if (args[i].equals("--mode") && i + 1 < args.length) {
+                    String value = args[++i];
+                    try {
+                        gameMode = GameRoom.Mode.valueOf(value.toUpperCase().replace('-', '_'));
+                    } catch (IllegalArgumentException e) {
+                        System.err.println("Invalid mode: " + value + ", expected turns, simultaneous or lock-free.");
+                        System.exit(1);
+                        return;
+                    }
+                } else if (args[i].equals("--move-log") && i + 1 < args.length) {
+                    String directory = args[++i];
+                    try {
+                        moveLog = MoveLog.open(Paths.get(directory));
+                    } catch (IOException | InvalidPathException e) {
+                        System.err.println("Cannot open move log in " + directory + ": " + e.getMessage());
+                        System.exit(1);
+                        return;
+                    }
+                } else if (args[i].equals("--snapshot") && i + 1 < args.length) {
+                    String file = args[++i];
+                    try {
+                        snapshotFile = Paths.get(file);
+                    } catch (InvalidPathException e) {
+                        System.err.println("Invalid snapshot file: " + file + ": " + e.getMessage());
+                        System.exit(1);
+                        return;
+                    }
+                } else if (args[i].equals("--snapshot-interval") && i + 1 < args.length) {
+                    String value = args[++i];
+                    if (!value.matches("\\d{1,6}") || Integer.parseInt(value) == 0) {
+                        System.err.println("Invalid snapshot interval: " + value + ", expected seconds.");
+                        System.exit(1);
+                        return;
+                    }
+                    snapshotInterval = Integer.parseInt(value);
+                } else if (args[i].equals("--restore")) {
+                    restore = true;
+                } else if (args[i].equals("--nio")) {
+                    eventLoops = Runtime.getRuntime().availableProcessors();
+                    if (i + 1 < args.length && args[i + 1].matches("\\d+")) {
+                        eventLoops = Integer.parseInt(args[++i]);
+                    }
+                } else {
+                    System.err.println("Unknown option: " + args[i]);
+                }
+            }
         } catch (NumberFormatException e) {
             System.err.println("Invalid port number.");
             System.exit(1);
             return;
+        } catch (IllegalArgumentException e) {
+            System.err.println("Invalid overflow policy, expected disconnect or snapshot.");
+            System.exit(1);
+            return;
         }
 
         GameServer server = new GameServer(port, password);
-        server.startServer();
+        ServerMetrics.register(server.getRoomManager());
+        if (overflowPolicy != null) {
+            server.getRoomManager().setOverflowPolicy(overflowPolicy);
+        }
+        if (boardSize != null) {
+            server.getRoomManager().setBoardSize(boardSize[0], boardSize[1], boardSize[2]);
+        }
+        server.getRoomManager().setSeed(seed);
+        if (gameMode != null) {
+            server.getRoomManager().setGameMode(gameMode);
+        }
+        if (moveLog != null) {
+            server.getRoomManager().setMoveLog(moveLog);
+        }
+        if (snapshotFile != null) {
+            SnapshotStore snapshots = new SnapshotStore(snapshotFile, server.getRoomManager());
+            if (restore) {
+                try {
+                    int games = snapshots.restore();
+                    GameLog.info(Category.SERVER, "snapshot-restored").with("file", snapshotFile)
+                            .with("games", games).log();
+                } catch (IOException e) {
+                    System.err.println("Cannot restore snapshot " + snapshotFile + ": " + e.getMessage());
+                    System.exit(1);
+                    return;
+                }
+            }
+            snapshots.start(snapshotInterval);
+        } else if (restore) {
+            System.err.println("--restore needs --snapshot <file>.");
+            System.exit(1);
+            return;
+        }
+        if (useVirtualThreads) {
+            server.useVirtualThreads();
+        }
+        if (eventLoops > 0) {
+            server.startNioServer(eventLoops);
+        } else {
+            server.startServer();
+        }
     }
 }
@@ -1,23 +1,45 @@
 package MPMineSweeper;
 
+import MPMineSweeper.GameLog.Category;
+
 import javax.swing.*;
-import javax.swing.border.LineBorder;
 import java.awt.*;
-import java.awt.event.ActionEvent;
-import java.awt.event.ActionListener;
-import java.net.URL;
+import java.awt.event.AdjustmentEvent;
+import java.awt.event.WindowAdapter;
+import java.awt.event.WindowEvent;
+import java.util.Arrays;
 
+/**
+ * The game board and controls. The board is one {@link BoardView} that paints
+ * the visible cells from the client's {@link ClientBoard}. Boards larger than
+ * {@link #VISIBLE_COLUMNS} by {@link #VISIBLE_ROWS} get scroll bars, and the
+ * view shows other cells as they scroll. The server only sends the cells in
+ * view, so once scrolling stops the window asks it for the new region. Changed
+ * cells arrive from the board together, once per task, and only the part of the
+ * view around them is repainted.
+ */
 public class GameWindow extends JFrame {
-    private CellButton[][] cellButtons;
-    private final int WIDTH = 16;
-    private final int HEIGHT = 16;
+    public static final int VISIBLE_COLUMNS = 30;
+    public static final int VISIBLE_ROWS = 20;
+
+    private BoardView boardView;
+    private int boardWidth;
+    private int boardHeight;
+    private int columns; // Visible columns
+    private int rows; // Visible rows
+    private int originX; // Board coordinates of the top left visible cell
+    private int originY;
+    private int sentX; // The viewport the server knows about
+    private int sentY;
+    private final ClientBoard board;
+    private JScrollBar horizontalScrollBar;
+    private JScrollBar verticalScrollBar;
     private GameClient gameClient;
     private JButton readyButton;
     private JLabel scoreLabel;
+    private JLabel statusLabel;
     private JLabel playerCountLabel;
     private int playerNumber;
-    private static ImageIcon mineIcon;
-    private static ImageIcon flagIcon;
 
     /**
      * Constructor for GameWindow.
@@ -26,45 +48,38 @@ public class GameWindow extends JFrame {
      */
     public GameWindow(GameClient client) {
         this.gameClient = client;
-        loadIcons();
-        cellButtons = new CellButton[HEIGHT][WIDTH];
+        this.board = client.getBoard();
         initializeUI();
     }
 
-    /**
-     * Loads the icons used in the game.
-     */
-    private void loadIcons() {
-        URL flagIconUrl = getClass().getResource("/flagicon.png");
-        URL mineIconUrl = getClass().getResource("/mineicon.png");
-        if (flagIconUrl != null && mineIconUrl != null) {
-            flagIcon = new ImageIcon(flagIconUrl);
-            mineIcon = new ImageIcon(mineIconUrl);
-        } else {
-            System.err.println("Icon files not found");
-            // Handle error or set default icons
-        }
-    }
-
     /**
      * Initializes the user interface of the game window.
      */
     private void initializeUI() {
         setTitle("Multiplayer Minesweeper by Joel Santos");
         setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
+        addWindowListener(new WindowAdapter() {
+            @Override
+            public void windowClosing(WindowEvent e) {
+                gameClient.closeConnection(); // Leave for good rather than hold the seat for a reconnect
+            }
+        });
         setLayout(new BorderLayout());
 
-        JPanel gamePanel = new JPanel(new GridLayout(HEIGHT, WIDTH));
-        for (int y = 0; y < HEIGHT; y++) {
-            for (int x = 0; x < WIDTH; x++) {
-                CellButton button = new CellButton(x, y, this.gameClient);
-                button.setBorder(new LineBorder(Color.BLACK));
-                button.addActionListener(new CellActionListener(x, y));
-                cellButtons[y][x] = button;
-                gamePanel.add(button);
-            }
-        }
-        add(gamePanel, BorderLayout.CENTER);
+        JPanel boardPanel = new JPanel(new BorderLayout());
+        boardView = new BoardView(board, new CellActions());
+        JPanel centeringPanel = new JPanel(new GridBagLayout()); // Keeps the view at its own size, centred
+        centeringPanel.add(boardView);
+        boardPanel.add(centeringPanel, BorderLayout.CENTER);
+        horizontalScrollBar = new JScrollBar(JScrollBar.HORIZONTAL);
+        horizontalScrollBar.addAdjustmentListener(this::handleScroll);
+        boardPanel.add(horizontalScrollBar, BorderLayout.SOUTH);
+        verticalScrollBar = new JScrollBar(JScrollBar.VERTICAL);
+        verticalScrollBar.addAdjustmentListener(this::handleScroll);
+        boardPanel.add(verticalScrollBar, BorderLayout.EAST);
+        add(boardPanel, BorderLayout.CENTER);
+        setBoardSize(board.getWidth(), board.getHeight());
+        board.setListener(this::showCells);
 
         JPanel controlPanel = new JPanel();
         playerCountLabel = new JLabel("Players Connected: 0");
@@ -73,6 +88,9 @@ public class GameWindow extends JFrame {
         scoreLabel = new JLabel("Score: 0");
         controlPanel.add(scoreLabel);
 
+        statusLabel = new JLabel();
+        controlPanel.add(statusLabel);
+
         readyButton = new JButton("Ready");
         readyButton.addActionListener(e -> {
             gameClient.sendReady();
@@ -85,6 +103,48 @@ public class GameWindow extends JFrame {
         setVisible(true);
     }
 
+    /**
+     * Sizes the window for a board and shows its top left corner, as the
+     * client's board holds it.
+     *
+     * @param width  The board width in cells.
+     * @param height The board height in cells.
+     */
+    public void setBoardSize(int width, int height) {
+        boardWidth = width;
+        boardHeight = height;
+        columns = Math.min(width, VISIBLE_COLUMNS);
+        rows = Math.min(height, VISIBLE_ROWS);
+        originX = 0;
+        originY = 0;
+        sentX = 0; // The server starts every viewport in the top left corner
+        sentY = 0;
+
+        boardView.setRegion(0, 0, columns, rows);
+        horizontalScrollBar.setValues(0, columns, 0, width);
+        horizontalScrollBar.setVisible(width > columns);
+        verticalScrollBar.setValues(0, rows, 0, height);
+        verticalScrollBar.setVisible(height > rows);
+    }
+
+    private void handleScroll(AdjustmentEvent e) {
+        if (boardView == null) {
+            return;
+        }
+        int x = horizontalScrollBar.getValue();
+        int y = verticalScrollBar.getValue();
+        if (x != originX || y != originY) {
+            originX = x;
+            originY = y;
+            boardView.setRegion(originX, originY, columns, rows);
+        }
+        if (!e.getValueIsAdjusting() && (originX != sentX || originY != sentY)) {
+            sentX = originX;
+            sentY = originY;
+            gameClient.sendViewport(originX, originY, columns, rows); // Catch up on cells that changed out of view
+        }
+    }
+
     /**
      * Requests the cell state from the server based on player action.
      *
@@ -113,6 +173,25 @@ public class GameWindow extends JFrame {
         scoreLabel.setText("Score: " + score);
     }
 
+    /**
+     * Shows the board status from a STATUS message.
+     *
+     * @param status Revealed safe cells, safe cells, triggered mines, flags and
+     *               mines remaining, then player number and flags placed pairs.
+     */
+    public void updateStatus(int[] status) {
+        if (status.length < 5) {
+            return;
+        }
+        StringBuilder text = new StringBuilder();
+        text.append("Mines left: ").append(status[4]).append("  Cleared: ").append(status[0]).append('/')
+                .append(status[1]);
+        for (int i = 5; i + 1 < status.length; i += 2) {
+            text.append("  P").append(status[i]).append(" flags: ").append(status[i + 1]);
+        }
+        statusLabel.setText(text.toString());
+    }
+
     /**
      * Handles a click on a cell in the game.
      *
@@ -126,7 +205,8 @@ public class GameWindow extends JFrame {
             return;
         }
     
-        if (gameClient.getCurrentPlayerNumber() != this.playerNumber) {
+        int currentPlayerNumber = gameClient.getCurrentPlayerNumber();
+        if (currentPlayerNumber != 0 && currentPlayerNumber != this.playerNumber) { // 0 when everyone may move
             // Notify the user that it's not their turn
             JOptionPane.showMessageDialog(this, "It's not your turn!", "Turn Info", JOptionPane.WARNING_MESSAGE);
             return;
@@ -154,14 +234,19 @@ public class GameWindow extends JFrame {
      * @param neighboringMines Array indicating the number of neighboring mines.
      */
     public void updateBoardDisplay(boolean[][] mines, boolean[][] revealed, int[][] neighboringMines) {
-        for (int y = 0; y < HEIGHT; y++) {
-            for (int x = 0; x < WIDTH; x++) {
-                CellButton button = cellButtons[y][x];
+        int[] cells = new int[boardWidth * boardHeight * 4];
+        int length = 0;
+        for (int y = 0; y < Math.min(boardHeight, revealed.length); y++) {
+            for (int x = 0; x < Math.min(boardWidth, revealed[y].length); x++) {
                 if (revealed[y][x]) {
-                    button.revealCell(mines[y][x], neighboringMines[y][x]);
+                    cells[length++] = x;
+                    cells[length++] = y;
+                    cells[length++] = mines[y][x] ? 2 : 1;
+                    cells[length++] = neighboringMines[y][x];
                 }
             }
         }
+        board.apply(Arrays.copyOf(cells, length));
     }
 
     /**
@@ -182,17 +267,17 @@ public class GameWindow extends JFrame {
         switch (state) {
             case "STARTED":
                 JOptionPane.showMessageDialog(this, "Game has started!", "Game Start", JOptionPane.INFORMATION_MESSAGE);
-                enableCellButtons(true);
+                boardView.setCellsEnabled(true);
                 break;
             case "STOPPED":
             case "OVER":
-                enableCellButtons(false);
+                boardView.setCellsEnabled(false);
                 if (state.equals("OVER")) {
                     JOptionPane.showMessageDialog(this, "Game Over!", "Game Status", JOptionPane.INFORMATION_MESSAGE);
                 }
                 break;
             default:
-                System.out.println("Unknown game state: " + state);
+                GameLog.warn(Category.CLIENT, "unknown-game-state").with("state", state).log();
                 break;
         }
     }
@@ -208,42 +293,16 @@ public class GameWindow extends JFrame {
     }
 
     /**
-     * Updates the state of a specific cell in the UI.
+     * Shows cells that changed on the client's board. Called by the board on
+     * the event dispatch thread, with every cell changed since its last call.
      *
-     * @param x          The x-coordinate of the cell.
-     * @param y          The y-coordinate of the cell.
-     * @param cellState  The new state of the cell.
-     * @param minesCount The number of mines around the cell, only relevant if no
-     *                   mine at this cell.
+     * @param indices The changed cells, y * board width + x.
      */
-    public void updateCell(int x, int y, int cellState, int minesCount) {
-        CellButton button = cellButtons[y][x];
-        switch (cellState) {
-            case 1: // Revealed cell with no mine
-                button.setBackground(Color.WHITE); // Set background to white
-                button.setEnabled(false); // Disable the button as it's revealed
-                if (minesCount > 0) {
-                    button.setIcon(CellButton.numberIcons[minesCount - 1]); // Set number icon
-                } else {
-                    button.setIcon(null); // No mines around, clear any icon
-                }
-                break;
-            case 2: // Revealed cell with a mine
-                button.setIcon(mineIcon); // Set mine icon
-                button.setBackground(Color.RED); // Set background to red
-                button.setEnabled(false); // Disable the button as it's revealed
-                break;
-            case 3: // Marked as a potential mine (flagged)
-                button.setIcon(flagIcon); // Set flag icon
-                button.setBackground(Color.YELLOW); // Set background to yellow to indicate flagging
-                break;
-            default: // Default state (hidden)
-                button.setIcon(null); // Clear any icon
-                button.setText(""); // Clear any text
-                button.setBackground(Color.LIGHT_GRAY); // Set background to light gray
-                button.setEnabled(true); // Enable the button
-                break;
+    private void showCells(int[] indices) {
+        if (board.getWidth() != boardWidth || board.getHeight() != boardHeight) {
+            return; // The new board size is on its way, and every cell is shown with it
         }
+        boardView.showCells(indices);
     }
 
     /**
@@ -259,23 +318,12 @@ public class GameWindow extends JFrame {
     /**
      * Handles the change of turn in the game.
      *
-     * @param currentPlayerNumber The number of the player whose turn it is now.
+     * @param currentPlayerNumber The number of the player whose turn it is now, or
+     *                            0 if every player may move at once.
      */
     public void handleTurnChange(int currentPlayerNumber) {
-        playerCountLabel.setText("It's Player " + currentPlayerNumber + "'s turn");
-    }
-
-    /**
-     * Enables or disables cell buttons on the game board.
-     *
-     * @param enabled true to enable the buttons, false to disable them.
-     */
-    private void enableCellButtons(boolean enabled) {
-        for (int y = 0; y < HEIGHT; y++) {
-            for (int x = 0; x < WIDTH; x++) {
-                cellButtons[y][x].setEnabled(enabled);
-            }
-        }
+        playerCountLabel.setText(currentPlayerNumber == 0 ? "Everyone's turn"
+                : "It's Player " + currentPlayerNumber + "'s turn");
     }
 
     public void displayPlayerQuit(int playerNumber) {
@@ -284,20 +332,17 @@ public class GameWindow extends JFrame {
     }
 
     /**
-     * Inner class for handling actions on cell buttons.
+     * Inner class for handling clicks on cells of the board view.
      */
-    private class CellActionListener implements ActionListener {
-        private final int x;
-        private final int y;
-    
-        public CellActionListener(int x, int y) {
-            this.x = x;
-            this.y = y;
-        }
-    
+    private class CellActions implements BoardView.CellActions {
         @Override
-        public void actionPerformed(ActionEvent e) {
+        public void reveal(int x, int y) {
             handleCellClick(x, y);
         }
+
+        @Override
+        public void flag(int x, int y, boolean flagged) {
+            gameClient.sendFlagChange(x, y, flagged); // Shown once the server's update arrives
+        }
     }
-}
\ No newline at end of file
+}
\ No newline at end of file
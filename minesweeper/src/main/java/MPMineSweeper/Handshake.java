@@ -0,0 +1,92 @@
+package MPMineSweeper;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The first line a client sends: "password key [name=value ...]". The password
+ * and key are positional; anything after them is an optional setting such as
+ * {@code room=lobby1}.
+ */
+public class Handshake {
+    public static final String ROOM = "room";
+    public static final String PROTOCOL = "proto";
+    public static final String PROTOCOL_BINARY = "binary";
+    public static final String VIEWPORT = "view";
+    public static final String PLAYER = "player";
+    public static final String SESSION = "session";
+    public static final String SEQUENCE = "seq";
+    public static final String ROLE = "role";
+    public static final String ROLE_SPECTATOR = "spectator";
+
+    private String password;
+    private String encryptionKey;
+    private Map<String, String> options;
+
+    private Handshake(String password, String encryptionKey, Map<String, String> options) {
+        this.password = password;
+        this.encryptionKey = encryptionKey;
+        this.options = options;
+    }
+
+    /**
+     * Parses a handshake line.
+     *
+     * @param line The raw line received from the client.
+     * @return The parsed handshake, or null if the line is missing its password or key.
+     */
+    public static Handshake parse(String line) {
+        if (line == null) {
+            return null;
+        }
+        String[] parts = line.trim().split(" ");
+        if (parts.length < 2) {
+            return null;
+        }
+        Map<String, String> options = new HashMap<>();
+        for (int i = 2; i < parts.length; i++) {
+            int separator = parts[i].indexOf('=');
+            if (separator > 0) {
+                options.put(parts[i].substring(0, separator), parts[i].substring(separator + 1));
+            }
+        }
+        return new Handshake(parts[0], parts[1], options);
+    }
+
+    /**
+     * Builds the handshake line a client sends.
+     *
+     * @param password      The room password.
+     * @param encryptionKey The client's session key.
+     * @param options       Optional name/value pairs; empty values are skipped.
+     * @return The handshake line.
+     */
+    public static String format(String password, String encryptionKey, Map<String, String> options) {
+        StringBuilder sb = new StringBuilder();
+        sb.append(password).append(" ").append(encryptionKey);
+        for (Map.Entry<String, String> option : options.entrySet()) {
+            if (option.getValue() != null && !option.getValue().isEmpty()) {
+                sb.append(" ").append(option.getKey()).append("=").append(option.getValue());
+            }
+        }
+        return sb.toString();
+    }
+
+    public String getPassword() {
+        return password;
+    }
+
+    public String getEncryptionKey() {
+        return encryptionKey;
+    }
+
+    /**
+     * Gets an optional setting from the handshake.
+     *
+     * @param name The setting name.
+     * @return The value, or null if the client did not send it.
+     */
+    public String getOption(String name) {
+        return options.get(name);
+    }
+}
@@ -0,0 +1,635 @@
+package MPMineSweeper;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A headless load generator that plays complete games against a running
+ * server with many simulated players at once:
+ *
+ * <pre>
+ * java -cp target/classes MPMineSweeper.LoadGenerator localhost 5000 secret --clients 1000
+ * </pre>
+ *
+ * Every bot is a real client on its own virtual thread: it performs the
+ * password handshake with a fresh key, speaks the encrypted text or binary
+ * protocol, joins a room shared with the other bots of its table, sends READY
+ * once the table is seated and then moves whenever it is given the turn. When
+ * a game ends the table moves on to a fresh room and plays again, until the
+ * run's duration is up.
+ *
+ * The latency of a move or flag is measured from sending it to receiving the
+ * UPDATE that contains the cell, so it covers the network, decryption, the
+ * room's lock and the broadcast. A line of statistics is printed periodically
+ * and a summary at the end.
+ */
+public class LoadGenerator {
+    private static final int CONNECT_TIMEOUT_MILLIS = 5000;
+    private static final int READ_TIMEOUT_MILLIS = 30000;
+    private static final long LOBBY_TIMEOUT_MILLIS = 5000;
+    private static final long NEXT_GAME_TIMEOUT_MILLIS = 30000;
+    private static final int FLAG_PERCENT = 20;
+
+    /**
+     * How a bot picks the cell for its next move.
+     */
+    public enum Strategy {
+        /** Reveal a random hidden cell. */
+        RANDOM,
+        /** Reveal the first hidden cell in reading order. */
+        SWEEP,
+        /** Reveal a random hidden cell, sometimes flagging one first. */
+        MIXED
+    }
+
+    private final String host;
+    private final int port;
+    private final String password;
+    private final int clients;
+    private final int roomSize;
+    private final int thinkMinMillis;
+    private final int thinkMaxMillis;
+    private final Strategy strategy;
+    private final boolean binaryProtocol;
+
+    private volatile boolean running = true;
+    private final List<Bot> bots = new ArrayList<>();
+    private final AtomicInteger seated = new AtomicInteger();
+    private final LongAdder connects = new LongAdder();
+    private final LongAdder connectFailures = new LongAdder();
+    private final LongAdder refused = new LongAdder();
+    private final LongAdder gamesFinished = new LongAdder();
+    private final LongAdder movesSent = new LongAdder();
+    private final LongAdder flagsSent = new LongAdder();
+    private final LongAdder messagesReceived = new LongAdder();
+    private final LongAdder timeouts = new LongAdder();
+    private final LongAdder ioErrors = new LongAdder();
+    private final LongAdder protocolErrors = new LongAdder();
+    private final LatencyHistogram moveLatency = new LatencyHistogram();
+    private final LatencyHistogram flagLatency = new LatencyHistogram();
+    private final LatencyHistogram intervalMoveLatency = new LatencyHistogram();
+
+    /**
+     * Creates a load generator. Nothing connects until {@link #run} is called.
+     *
+     * @param host           The server's host name.
+     * @param port           The server's port.
+     * @param password       The server password.
+     * @param clients        The number of simulated players.
+     * @param roomSize       The number of players sharing each room.
+     * @param thinkMinMillis The shortest pause before a move.
+     * @param thinkMaxMillis The longest pause before a move.
+     * @param strategy       How bots choose their moves.
+     * @param binaryProtocol True to ask for the binary protocol.
+     */
+    public LoadGenerator(String host, int port, String password, int clients, int roomSize, int thinkMinMillis,
+            int thinkMaxMillis, Strategy strategy, boolean binaryProtocol) {
+        this.host = host;
+        this.port = port;
+        this.password = password;
+        this.clients = clients;
+        this.roomSize = roomSize;
+        this.thinkMinMillis = thinkMinMillis;
+        this.thinkMaxMillis = thinkMaxMillis;
+        this.strategy = strategy;
+        this.binaryProtocol = binaryProtocol;
+    }
+
+    /**
+     * Starts every bot, reports while they play and stops them when the time is
+     * up.
+     *
+     * @param durationSeconds How long to generate load.
+     * @param rampUpSeconds   The time over which bots are started, so the server
+     *                        is not hit by every handshake at once.
+     * @param reportSeconds   The interval between progress lines.
+     * @throws InterruptedException If the calling thread is interrupted.
+     */
+    public void run(int durationSeconds, int rampUpSeconds, int reportSeconds) throws InterruptedException {
+        long start = System.nanoTime();
+        long end = start + durationSeconds * 1_000_000_000L;
+        List<Thread> threads = new ArrayList<>();
+        Table table = null;
+        for (int i = 0; i < clients; i++) {
+            if (i % roomSize == 0) {
+                table = new Table(i / roomSize);
+            }
+            Bot bot = new Bot(table);
+            synchronized (bots) {
+                bots.add(bot);
+            }
+            threads.add(Thread.ofVirtual().name("bot-" + i).start(bot));
+            if (rampUpSeconds > 0) {
+                Thread.sleep(rampUpSeconds * 1000L / clients);
+            }
+        }
+
+        long nextReport = start + reportSeconds * 1_000_000_000L;
+        long lastMoves = 0;
+        long lastReport = start;
+        while (System.nanoTime() < end) {
+            Thread.sleep(Math.max(1, Math.min(end, nextReport) - System.nanoTime()) / 1_000_000 + 1);
+            long now = System.nanoTime();
+            if (now >= nextReport) {
+                long moves = movesSent.sum();
+                printProgress(now - start, (moves - lastMoves) * 1e9 / (now - lastReport));
+                lastMoves = moves;
+                lastReport = now;
+                nextReport += reportSeconds * 1_000_000_000L;
+            }
+        }
+
+        running = false;
+        synchronized (bots) {
+            for (Bot bot : bots) {
+                bot.abort();
+            }
+        }
+        for (Thread thread : threads) {
+            thread.interrupt(); // Wakes bots waiting for their table or thinking
+        }
+        for (Thread thread : threads) {
+            thread.join(1000);
+        }
+        printSummary(System.nanoTime() - start);
+    }
+
+    private void printProgress(long elapsedNanos, double movesPerSecond) {
+        System.out.printf("%5ds  seated %d/%d  games %d  moves/s %.1f  move p50 %s p99 %s  errors %d%n",
+                elapsedNanos / 1_000_000_000L, seated.get(), clients, gamesFinished.sum(), movesPerSecond,
+                millis(intervalMoveLatency.getPercentileNanos(50)), millis(intervalMoveLatency.getPercentileNanos(99)),
+                errorCount());
+        intervalMoveLatency.reset();
+    }
+
+    private void printSummary(long elapsedNanos) {
+        double seconds = elapsedNanos / 1e9;
+        long moves = movesSent.sum();
+        long flags = flagsSent.sum();
+        long actions = moves + flags;
+        System.out.println();
+        System.out.printf("Duration:        %.1f s, %d clients in rooms of %d, %s strategy, %s protocol%n", seconds,
+                clients, roomSize, strategy.name().toLowerCase(), binaryProtocol ? "binary" : "text");
+        System.out.printf("Connections:     %d made, %d failed, %d refused%n", connects.sum(), connectFailures.sum(),
+                refused.sum());
+        System.out.printf("Games finished:  %d%n", gamesFinished.sum());
+        System.out.printf("Moves:           %d (%.1f/s)%n", moves, moves / seconds);
+        System.out.printf("Flags:           %d (%.1f/s)%n", flags, flags / seconds);
+        System.out.printf("Messages in:     %d (%.1f/s)%n", messagesReceived.sum(), messagesReceived.sum() / seconds);
+        printLatency("Move latency:    ", moveLatency);
+        printLatency("Flag latency:    ", flagLatency);
+        System.out.printf("Errors:          %d timeouts, %d I/O, %d protocol (%.2f%% of moves and flags)%n",
+                timeouts.sum(), ioErrors.sum(), protocolErrors.sum(),
+                actions == 0 ? 0.0 : errorCount() * 100.0 / actions);
+    }
+
+    private static void printLatency(String label, LatencyHistogram histogram) {
+        System.out.println(label + "p50 " + millis(histogram.getPercentileNanos(50)) + "  p90 "
+                + millis(histogram.getPercentileNanos(90)) + "  p99 " + millis(histogram.getPercentileNanos(99))
+                + "  p99.9 " + millis(histogram.getPercentileNanos(99.9)) + "  max "
+                + millis(histogram.getMaxNanos()) + "  (" + histogram.getCount() + " samples)");
+    }
+
+    private long errorCount() {
+        return timeouts.sum() + ioErrors.sum() + protocolErrors.sum();
+    }
+
+    private static String millis(long nanos) {
+        return String.format("%.2f ms", nanos / 1e6);
+    }
+
+    /**
+     * The bots that share a room. Keeps them in step: they join the same room,
+     * wait for each other before sending READY and move on to a fresh room
+     * together once a game is over.
+     */
+    private static final class Table {
+        final int id;
+        private int game;
+        private int joined;
+
+        Table(int id) {
+            this.id = id;
+        }
+
+        synchronized int currentGame() {
+            return game;
+        }
+
+        synchronized void joined(int forGame) {
+            if (forGame == game) {
+                joined++;
+                notifyAll();
+            }
+        }
+
+        /**
+         * Waits until the table is seated, the game moved on or the lobby timed
+         * out, in which case whoever is present plays.
+         */
+        synchronized void awaitSeated(int forGame, int size) throws InterruptedException {
+            long deadline = System.currentTimeMillis() + LOBBY_TIMEOUT_MILLIS;
+            long remaining;
+            while (forGame == game && joined < size && (remaining = deadline - System.currentTimeMillis()) > 0) {
+                wait(remaining);
+            }
+        }
+
+        /**
+         * Moves the table on to its next game, unless another bot already did.
+         *
+         * @return True if this call ended the game.
+         */
+        synchronized boolean gameOver(int forGame) {
+            if (forGame != game) {
+                return false;
+            }
+            game++;
+            joined = 0;
+            notifyAll();
+            return true;
+        }
+
+        /**
+         * Waits for the rest of the table to finish the current game. Gives up
+         * on a game that seems stuck so the table can carry on.
+         */
+        synchronized void awaitNextGame(int forGame) throws InterruptedException {
+            long deadline = System.currentTimeMillis() + NEXT_GAME_TIMEOUT_MILLIS;
+            long remaining;
+            while (forGame == game && (remaining = deadline - System.currentTimeMillis()) > 0) {
+                wait(remaining);
+            }
+            gameOver(forGame);
+        }
+    }
+
+    /**
+     * One simulated player.
+     */
+    private final class Bot implements Runnable {
+        private final Table table;
+        private volatile SocketConnection connection;
+        private SessionCipher cipher;
+        private boolean binary;
+        private int playerNumber;
+        private int width;
+        private int height;
+        private int[] cells = new int[0];
+        private boolean myTurn;
+        private boolean simultaneous; // Everyone moves at once; each answered action is followed by the next
+        private boolean flaggedThisTurn;
+        private Opcode pending;
+        private int pendingIndex;
+        private long pendingSince;
+
+        Bot(Table table) {
+            this.table = table;
+        }
+
+        @Override
+        public void run() {
+            while (running) {
+                int game = table.currentGame();
+                try {
+                    if (play(game)) {
+                        if (table.gameOver(game)) {
+                            gamesFinished.increment();
+                        }
+                    } else if (running) {
+                        table.awaitNextGame(game);
+                    }
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+        }
+
+        /**
+         * Plays one game in the table's current room.
+         *
+         * @return True if the game was played to its end.
+         */
+        private boolean play(int game) throws InterruptedException {
+            Socket socket = new Socket();
+            try {
+                socket.connect(new InetSocketAddress(host, port), CONNECT_TIMEOUT_MILLIS);
+                socket.setSoTimeout(READ_TIMEOUT_MILLIS);
+                socket.setTcpNoDelay(true);
+                connection = new SocketConnection(socket);
+            } catch (IOException e) {
+                connectFailures.increment();
+                closeQuietly(socket);
+                Thread.sleep(1000);
+                return false;
+            }
+            connects.increment();
+            try {
+                if (!handshake("load-" + table.id + "-" + game)) {
+                    refused.increment();
+                    return false;
+                }
+                seated.incrementAndGet();
+                try {
+                    table.joined(game);
+                    table.awaitSeated(game, roomSize);
+                    send(Message.of(Opcode.READY));
+                    return playUntilOver();
+                } finally {
+                    seated.decrementAndGet();
+                }
+            } catch (SocketTimeoutException e) {
+                timeouts.increment();
+                return false;
+            } catch (IOException e) {
+                if (running) {
+                    ioErrors.increment();
+                }
+                return false;
+            } finally {
+                connection.close();
+            }
+        }
+
+        private boolean handshake(String room) throws IOException {
+            String key = EncryptionUtil.createKey();
+            cipher = SessionCipher.forClient(key);
+            Map<String, String> options = new LinkedHashMap<>();
+            options.put(Handshake.ROOM, room);
+            if (binaryProtocol) {
+                options.put(Handshake.PROTOCOL, Handshake.PROTOCOL_BINARY);
+            }
+            connection.sendLine(Handshake.format(password, key, options));
+            String response = connection.readLine();
+            if (response == null) {
+                return false;
+            }
+            String decrypted = cipher.decryptLine(response);
+            String[] parts = (decrypted == null ? response : decrypted).split(" ");
+            if (!parts[0].equals("PASSWORD") || parts.length < 2 || !parts[1].equals("CORRECT")) {
+                return false;
+            }
+            binary = parts.length > 2 && parts[2].equals("BINARY");
+            width = 0;
+            height = 0;
+            cells = new int[0];
+            myTurn = false;
+            simultaneous = false;
+            pending = null;
+            return true;
+        }
+
+        /**
+         * Reacts to the server until the game ends or the connection drops.
+         *
+         * @return True if the game ended normally.
+         */
+        private boolean playUntilOver() throws IOException, InterruptedException {
+            while (running) {
+                Message message;
+                if (binary) {
+                    byte[] frame = connection.readFrame();
+                    if (frame == null) {
+                        return false;
+                    }
+                    byte[] payload = cipher.decrypt(frame);
+                    message = payload == null ? null : BinaryMessageDecoder.decode(payload);
+                } else {
+                    String line = connection.readLine();
+                    if (line == null) {
+                        return false;
+                    }
+                    message = TextMessageCodec.parse(cipher.decryptLine(line));
+                }
+                if (message == null) {
+                    protocolErrors.increment();
+                    continue;
+                }
+                messagesReceived.increment();
+                switch (message.getOpcode()) {
+                    case PLAYER_NUMBER:
+                        playerNumber = message.getArg(0);
+                        break;
+                    case SNAPSHOT:
+                    case UPDATE:
+                        Opcode awaited = pending;
+                        applyCells(message.getArgs());
+                        if (awaited != null && pending == null && myTurn && (simultaneous || awaited == Opcode.FLAG)) {
+                            act(); // The flag landed; now make the turn's move, or the next one if moving at once
+                        }
+                        break;
+                    case TURN_CHANGED:
+                        simultaneous = message.getArg(0) == 0;
+                        myTurn = simultaneous || message.getArg(0) == playerNumber;
+                        flaggedThisTurn = false;
+                        if (myTurn) {
+                            pending = null; // Anything still outstanding is not coming back
+                            act();
+                        }
+                        break;
+                    case GAME_STATE:
+                        if ("OVER".equals(message.getText())) {
+                            return true;
+                        }
+                        break;
+                    default:
+                        break;
+                }
+            }
+            return false;
+        }
+
+        /**
+         * Copies x, y, state, count quadruples into the bot's view of the board,
+         * growing it to fit, and completes the pending move or flag if its cell
+         * is among them.
+         */
+        private void applyCells(int[] quadruples) {
+            int newWidth = width;
+            int newHeight = height;
+            for (int i = 0; i + 3 < quadruples.length; i += 4) {
+                newWidth = Math.max(newWidth, quadruples[i] + 1);
+                newHeight = Math.max(newHeight, quadruples[i + 1] + 1);
+            }
+            if (newWidth != width || newHeight != height) {
+                int[] resized = new int[newWidth * newHeight];
+                for (int y = 0; y < height; y++) {
+                    System.arraycopy(cells, y * width, resized, y * newWidth, width);
+                }
+                cells = resized;
+                width = newWidth;
+                height = newHeight;
+            }
+            boolean completed = false;
+            for (int i = 0; i + 3 < quadruples.length; i += 4) {
+                int index = quadruples[i + 1] * width + quadruples[i];
+                cells[index] = quadruples[i + 2];
+                completed |= pending != null && index == pendingIndex;
+            }
+            if (completed) {
+                long latency = System.nanoTime() - pendingSince;
+                if (pending == Opcode.MOVE) {
+                    moveLatency.record(latency);
+                    intervalMoveLatency.record(latency);
+                } else {
+                    flagLatency.record(latency);
+                }
+                pending = null;
+            }
+        }
+
+        /**
+         * Takes the bot's turn after its think time: usually a move, sometimes
+         * a flag first when the strategy calls for it.
+         */
+        private void act() throws InterruptedException {
+            int index = pickHiddenCell();
+            if (index < 0) {
+                return;
+            }
+            if (strategy == Strategy.MIXED && !flaggedThisTurn
+                    && ThreadLocalRandom.current().nextInt(100) < FLAG_PERCENT) {
+                flaggedThisTurn = true;
+                think();
+                sendAction(Opcode.FLAG, index, 1);
+                flagsSent.increment();
+                return;
+            }
+            think();
+            if (simultaneous) {
+                flaggedThisTurn = false;
+            } else {
+                myTurn = false;
+            }
+            sendAction(Opcode.MOVE, index, playerNumber);
+            movesSent.increment();
+        }
+
+        private void think() throws InterruptedException {
+            if (thinkMaxMillis > 0) {
+                Thread.sleep(thinkMinMillis == thinkMaxMillis ? thinkMinMillis
+                        : ThreadLocalRandom.current().nextInt(thinkMinMillis, thinkMaxMillis + 1));
+            }
+        }
+
+        private void sendAction(Opcode opcode, int index, int lastArg) {
+            pending = opcode;
+            pendingIndex = index;
+            pendingSince = System.nanoTime();
+            send(Message.of(opcode, index % width, index / width, lastArg));
+        }
+
+        /**
+         * Picks a cell that is neither revealed nor flagged, so the server
+         * always answers with an UPDATE for it.
+         *
+         * @return The cell's index, or -1 if there is none.
+         */
+        private int pickHiddenCell() {
+            if (cells.length == 0) {
+                return -1;
+            }
+            int start = strategy == Strategy.SWEEP ? 0 : ThreadLocalRandom.current().nextInt(cells.length);
+            for (int i = 0; i < cells.length; i++) {
+                int index = (start + i) % cells.length;
+                if (cells[index] == 0) {
+                    return index;
+                }
+            }
+            return -1;
+        }
+
+        private void send(Message message) {
+            if (binary) {
+                connection.sendFrame(cipher.encrypt(BinaryMessageEncoder.encode(message)));
+            } else {
+                connection.sendLine(cipher.encryptLine(TextMessageCodec.format(message)));
+            }
+        }
+
+        void abort() {
+            SocketConnection current = connection;
+            if (current != null) {
+                current.abort();
+            }
+        }
+    }
+
+    private static void closeQuietly(Socket socket) {
+        try {
+            socket.close();
+        } catch (IOException e) {
+            // Never connected, nothing to release
+        }
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        if (args.length < 3) {
+            System.err.println("Usage: LoadGenerator <host> <port> <password> [--clients n] [--room-size n]"
+                    + " [--think ms|min-max] [--strategy random|sweep|mixed] [--duration s] [--ramp-up s]"
+                    + " [--report s] [--binary]");
+            System.exit(1);
+        }
+
+        int port;
+        int clients = 100;
+        int roomSize = GameRoom.MAX_PLAYERS;
+        int thinkMin = 50;
+        int thinkMax = 250;
+        Strategy strategy = Strategy.RANDOM;
+        int duration = 60;
+        int rampUp = 5;
+        int report = 5;
+        boolean binary = false;
+        try {
+            port = Integer.parseInt(args[1]);
+            for (int i = 3; i < args.length; i++) {
+                if (args[i].equals("--binary")) {
+                    binary = true;
+                } else if (args[i].equals("--clients") && i + 1 < args.length) {
+                    clients = Integer.parseInt(args[++i]);
+                } else if (args[i].equals("--room-size") && i + 1 < args.length) {
+                    roomSize = Math.max(1, Math.min(GameRoom.MAX_PLAYERS, Integer.parseInt(args[++i])));
+                } else if (args[i].equals("--think") && i + 1 < args.length) {
+                    String[] range = args[++i].split("-");
+                    thinkMin = Integer.parseInt(range[0]);
+                    thinkMax = range.length > 1 ? Integer.parseInt(range[1]) : thinkMin;
+                } else if (args[i].equals("--strategy") && i + 1 < args.length) {
+                    strategy = Strategy.valueOf(args[++i].toUpperCase());
+                } else if (args[i].equals("--duration") && i + 1 < args.length) {
+                    duration = Integer.parseInt(args[++i]);
+                } else if (args[i].equals("--ramp-up") && i + 1 < args.length) {
+                    rampUp = Integer.parseInt(args[++i]);
+                } else if (args[i].equals("--report") && i + 1 < args.length) {
+                    report = Math.max(1, Integer.parseInt(args[++i]));
+                } else {
+                    System.err.println("Unknown option: " + args[i]);
+                }
+            }
+        } catch (NumberFormatException e) {
+            System.err.println("Invalid number: " + e.getMessage());
+            System.exit(1);
+            return;
+        } catch (IllegalArgumentException e) {
+            System.err.println("Invalid strategy, expected random, sweep or mixed.");
+            System.exit(1);
+            return;
+        }
+        if (thinkMin < 0 || thinkMax < thinkMin) {
+            System.err.println("Invalid think time, expected ms or min-max.");
+            System.exit(1);
+        }
+
+        new LoadGenerator(args[0], port, args[2], clients, roomSize, thinkMin, thinkMax, strategy, binary)
+                .run(duration, rampUp, report);
+    }
+}
@@ -0,0 +1,134 @@
+package MPMineSweeper;
+
+/**
+ * A single protocol message independent of how it is put on the wire: an
+ * opcode, its integer arguments and an optional word such as "STARTED" in
+ * "GAME_STATE STARTED". Board updates keep their cells in the arguments as
+ * x, y, state, count quadruples.
+ *
+ * A message on its way to a client also carries its sequence number in that
+ * client's {@link Session}. The same message broadcast to several clients is
+ * numbered separately for each, so the number is added by
+ * {@link #withSequence(int)} on a copy that shares the arguments.
+ *
+ * A message remembers its encodings once made, so one that goes to many
+ * connections, such as a spectator event, is encoded once however many
+ * connections it is written to. Only the encryption is per connection.
+ */
+public final class Message {
+    private static final int[] NO_ARGS = new int[0];
+
+    private final Opcode opcode;
+    private final int[] args;
+    private final String text;
+    private final int sequence; // 0 when the message is not numbered
+    private volatile byte[] binary; // Encoded on first use
+    private volatile String line; // Formatted on first use
+
+    private Message(Opcode opcode, int[] args, String text, int sequence) {
+        this.opcode = opcode;
+        this.args = args;
+        this.text = text;
+        this.sequence = sequence;
+    }
+
+    /**
+     * Creates a message with integer arguments only.
+     *
+     * @param opcode The command.
+     * @param args   The arguments, in protocol order.
+     * @return The message.
+     */
+    public static Message of(Opcode opcode, int... args) {
+        return new Message(opcode, args.length == 0 ? NO_ARGS : args, null, 0);
+    }
+
+    /**
+     * Creates a message that carries a word after its integer arguments.
+     *
+     * @param opcode The command.
+     * @param text   The trailing word, or null for none.
+     * @param args   The arguments, in protocol order.
+     * @return The message.
+     */
+    public static Message withText(Opcode opcode, String text, int... args) {
+        return new Message(opcode, args.length == 0 ? NO_ARGS : args, text, 0);
+    }
+
+    /**
+     * Numbers this message for one client. The copy shares the arguments.
+     *
+     * @param sequence The message's number in the client's session, from 1.
+     * @return The numbered message.
+     */
+    public Message withSequence(int sequence) {
+        return new Message(opcode, args, text, sequence);
+    }
+
+    public Opcode getOpcode() {
+        return opcode;
+    }
+
+    public int getArgCount() {
+        return args.length;
+    }
+
+    public int getArg(int index) {
+        return args[index];
+    }
+
+    /**
+     * Gets the raw argument array. Callers must not modify it.
+     *
+     * @return The arguments.
+     */
+    public int[] getArgs() {
+        return args;
+    }
+
+    public String getText() {
+        return text;
+    }
+
+    /**
+     * Encodes this message for the binary protocol, or returns the payload
+     * encoded earlier. Two threads may both encode it; either result is kept.
+     *
+     * @return The payload bytes, without the frame length prefix. Callers must not modify them.
+     */
+    byte[] toBinary() {
+        byte[] payload = binary;
+        if (payload == null) {
+            binary = payload = BinaryMessageEncoder.encode(this);
+        }
+        return payload;
+    }
+
+    /**
+     * Formats this message as a text protocol line, or returns the line
+     * formatted earlier.
+     *
+     * @return The line, without a terminator.
+     */
+    String toLine() {
+        String text = line;
+        if (text == null) {
+            line = text = TextMessageCodec.format(this);
+        }
+        return text;
+    }
+
+    /**
+     * Gets this message's number in the session of the client it was sent to.
+     *
+     * @return The sequence number, or 0 if the message is not numbered.
+     */
+    public int getSequence() {
+        return sequence;
+    }
+
+    @Override
+    public String toString() {
+        return TextMessageCodec.format(this);
+    }
+}
@@ -0,0 +1,365 @@
+package MPMineSweeper;
+
+import MPMineSweeper.GameLog.Category;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.Stream;
+
+/**
+ * An append-only binary record of every game the server runs: rooms opening,
+ * each game's seed and board, and every accepted READY, MOVE, FLAG, quit, turn
+ * change and game end. {@link MoveLogReplayer} rebuilds the boards and scores
+ * from it.
+ *
+ * Records go into memory-mapped segment files of {@link #SEGMENT_BYTES} bytes,
+ * {@code moves-000001.log} and up; a record that does not fit in the current
+ * segment starts the next one. Appending is a few stores into the mapping under
+ * a short lock and never flushes: the mapping belongs to the operating system,
+ * so records survive the server process dying, and {@link #close()} forces them
+ * to disk at shutdown.
+ *
+ * Every record starts with its length in bytes, its type, the room's number in
+ * this log and the time in epoch milliseconds, followed by the fields of its
+ * type. A length of zero ends a segment. The length is written last, so a
+ * record cut short by a crash reads as the end of the segment.
+ */
+public final class MoveLog {
+    /** Size of each segment file in bytes. */
+    public static final int SEGMENT_BYTES = 64 << 20;
+
+    static final int HEADER_BYTES = 14; // Length, type, room, time
+    static final byte ROOM = 1; // Name
+    static final byte GAME_STARTED = 2; // Seed, width, height, mines, mode, player count, player numbers
+    static final byte READY = 3; // Player
+    static final byte MOVE = 4; // Player, x, y
+    static final byte FLAG = 5; // Player, x, y, 1 to flag or 0 to unflag
+    static final byte QUIT = 6; // Player
+    static final byte TURN = 7; // Player, or 0 when everyone may move
+    static final byte GAME_OVER = 8; // 1 if won, 0 if lost
+    static final byte RESTORED = 9; // Seed, width, height, mines, mode, first reveal, turn, player count, each player's number, score, flags
+    static final byte CELLS = 10; // First cell, then four cells a byte, two bits each: revealed, flagged
+    private static final int CELL_BYTES = 200; // Packed cells in one CELLS record
+    private static final int MAX_NAME_BYTES = 200;
+    private static final MoveLog DISABLED = new MoveLog(null, 0);
+
+    private final Path directory; // Null when disabled
+    private final int segmentBytes;
+    private final AtomicInteger nextRoom = new AtomicInteger();
+    private final ReentrantLock lock = new ReentrantLock();
+    private MappedByteBuffer segment; // Guarded by lock; null once closed or failed
+    private int segmentNumber;
+    private int recordStart;
+
+    private MoveLog(Path directory, int segmentBytes) {
+        this.directory = directory;
+        this.segmentBytes = segmentBytes;
+    }
+
+    /**
+     * Opens a log in a directory, creating it if needed. Records are appended
+     * to a new segment after any already there.
+     *
+     * @param directory The directory holding the segment files.
+     * @return The open log, forced to disk when the JVM shuts down.
+     * @throws IOException If the directory or the first segment cannot be created.
+     */
+    public static MoveLog open(Path directory) throws IOException {
+        Files.createDirectories(directory);
+        MoveLog log = new MoveLog(directory, SEGMENT_BYTES);
+        int[] existing = segmentNumbers(directory);
+        log.segmentNumber = existing.length == 0 ? 0 : existing[existing.length - 1];
+        log.lock.lock();
+        try {
+            log.segment = log.mapNextSegment();
+        } finally {
+            log.lock.unlock();
+        }
+        Runtime.getRuntime().addShutdownHook(new Thread(log::close, "move-log-close"));
+        return log;
+    }
+
+    /**
+     * Gets a log that records nothing.
+     *
+     * @return The shared disabled log.
+     */
+    public static MoveLog disabled() {
+        return DISABLED;
+    }
+
+    /**
+     * Finds the segment files in a directory.
+     *
+     * @param directory The log directory.
+     * @return The segment numbers, in ascending order.
+     * @throws IOException If the directory cannot be listed.
+     */
+    static int[] segmentNumbers(Path directory) throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.map(path -> path.getFileName().toString())
+                    .filter(name -> name.matches("moves-\\d{6,}\\.log"))
+                    .mapToInt(name -> Integer.parseInt(name.substring(6, name.length() - 4)))
+                    .sorted().toArray();
+        }
+    }
+
+    /**
+     * Gets the path of a segment file.
+     *
+     * @param directory The log directory.
+     * @param number    The segment number.
+     * @return The segment's path.
+     */
+    static Path segmentPath(Path directory, int number) {
+        return directory.resolve(String.format("moves-%06d.log", number));
+    }
+
+    private MappedByteBuffer mapNextSegment() throws IOException {
+        segmentNumber++;
+        try (FileChannel channel = FileChannel.open(segmentPath(directory, segmentNumber),
+                StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            return channel.map(FileChannel.MapMode.READ_WRITE, 0, segmentBytes); // Stays mapped after closing
+        }
+    }
+
+    /**
+     * Starts a record, leaving the lock held for the caller to write the fields
+     * and call {@link #end()}.
+     *
+     * @return false, without the lock, if the log is closed or has failed.
+     */
+    private boolean begin(byte type, int room, int fieldBytes) {
+        lock.lock();
+        if (segment != null && segment.remaining() < HEADER_BYTES + fieldBytes) {
+            try {
+                segment = mapNextSegment();
+            } catch (IOException e) {
+                GameLog.error(Category.SERVER, "move-log-failed").with("segment", segmentNumber)
+                        .with("error", e.getMessage()).log();
+                segment = null;
+            }
+        }
+        if (segment == null) {
+            lock.unlock();
+            return false;
+        }
+        recordStart = segment.position();
+        segment.position(recordStart + 1);
+        segment.put(type).putInt(room).putLong(System.currentTimeMillis());
+        return true;
+    }
+
+    private void end() {
+        segment.put(recordStart, (byte) (segment.position() - recordStart));
+        lock.unlock();
+    }
+
+    /**
+     * Records a new room and numbers it for the room's later records.
+     *
+     * @param name The room name.
+     * @return The room's number in this log, or 0 if the log is disabled.
+     */
+    public int openRoom(String name) {
+        if (directory == null) {
+            return 0;
+        }
+        int room = nextRoom.incrementAndGet();
+        byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+        int length = Math.min(bytes.length, MAX_NAME_BYTES);
+        if (begin(ROOM, room, length)) {
+            segment.put(bytes, 0, length);
+            end();
+        }
+        return room;
+    }
+
+    /**
+     * Records the start of a game: everything needed to build its board again.
+     *
+     * @param room    The room's number in this log.
+     * @param seed    The seed the mines are placed from.
+     * @param width   The board width.
+     * @param height  The board height.
+     * @param mines   The number of mines.
+     * @param mode    How players take their moves.
+     * @param players The players, in turn order.
+     */
+    public void gameStarted(int room, long seed, int width, int height, int mines, GameRoom.Mode mode,
+            List<Player> players) {
+        if (directory == null) {
+            return;
+        }
+        Player[] seated = players.toArray(new Player[0]);
+        if (begin(GAME_STARTED, room, 18 + seated.length * 4)) {
+            segment.putLong(seed).putShort((short) width).putShort((short) height).putInt(mines)
+                    .put((byte) mode.ordinal()).put((byte) seated.length);
+            for (Player player : seated) {
+                segment.putInt(player.getPlayerNumber());
+            }
+            end();
+        }
+    }
+
+    /**
+     * Records a game put back from a snapshot: a RESTORED record with what is
+     * needed to place its mines again and its players' scores, then the revealed
+     * and flagged cells in CELLS records, leaving out runs with neither.
+     *
+     * @param room  The room's number in this log.
+     * @param state The game as the snapshot recorded it.
+     */
+    public void restored(int room, SnapshotStore.RoomState state) {
+        if (directory == null) {
+            return;
+        }
+        int count = state.playerNumbers.length;
+        if (begin(RESTORED, room, 26 + count * 12)) {
+            segment.putLong(state.seed).putShort((short) state.width).putShort((short) state.height)
+                    .putInt(state.mines).put((byte) state.mode.ordinal()).putInt(state.firstReveal)
+                    .putInt(state.currentPlayer).put((byte) count);
+            for (int i = 0; i < count; i++) {
+                segment.putInt(state.playerNumbers[i]).putInt(state.scores[i]).putInt(state.flagsPlaced[i]);
+            }
+            end();
+        }
+        byte[] cells = state.cells;
+        byte[] packed = new byte[CELL_BYTES];
+        for (int first = 0; first < cells.length; first += CELL_BYTES * 4) {
+            int length = Math.min(CELL_BYTES, (cells.length - first + 3) / 4);
+            boolean any = false;
+            for (int i = 0; i < length; i++) {
+                int bits = 0;
+                for (int j = 0; j < 4 && first + i * 4 + j < cells.length; j++) {
+                    int cell = cells[first + i * 4 + j];
+                    bits |= (((cell & GameBoard.REVEALED) != 0 ? 1 : 0) | ((cell & GameBoard.FLAGGED) != 0 ? 2 : 0))
+                            << (j * 2);
+                }
+                packed[i] = (byte) bits;
+                any |= bits != 0;
+            }
+            if (any && begin(CELLS, room, 4 + length)) {
+                segment.putInt(first).put(packed, 0, length);
+                end();
+            }
+        }
+    }
+
+    /**
+     * Records a player declaring themselves ready.
+     *
+     * @param room   The room's number in this log.
+     * @param player The player's number.
+     */
+    public void ready(int room, int player) {
+        playerRecord(READY, room, player);
+    }
+
+    /**
+     * Records an accepted move, whatever it revealed.
+     *
+     * @param room   The room's number in this log.
+     * @param player The player's number.
+     * @param x      X-coordinate of the cell.
+     * @param y      Y-coordinate of the cell.
+     */
+    public void move(int room, int player, int x, int y) {
+        if (directory != null && begin(MOVE, room, 8)) {
+            segment.putInt(player).putShort((short) x).putShort((short) y);
+            end();
+        }
+    }
+
+    /**
+     * Records a flag placed or removed.
+     *
+     * @param room    The room's number in this log.
+     * @param player  The player's number.
+     * @param x       X-coordinate of the cell.
+     * @param y       Y-coordinate of the cell.
+     * @param flagged true if the flag was placed, false if removed.
+     */
+    public void flag(int room, int player, int x, int y, boolean flagged) {
+        if (directory != null && begin(FLAG, room, 9)) {
+            segment.putInt(player).putShort((short) x).putShort((short) y).put((byte) (flagged ? 1 : 0));
+            end();
+        }
+    }
+
+    /**
+     * Records a player leaving the room.
+     *
+     * @param room   The room's number in this log.
+     * @param player The player's number.
+     */
+    public void quit(int room, int player) {
+        playerRecord(QUIT, room, player);
+    }
+
+    /**
+     * Records whose turn it is.
+     *
+     * @param room   The room's number in this log.
+     * @param player The player's number, or 0 if everyone may move.
+     */
+    public void turn(int room, int player) {
+        playerRecord(TURN, room, player);
+    }
+
+    /**
+     * Records the end of a game.
+     *
+     * @param room The room's number in this log.
+     * @param won  true if every safe cell was cleared, false if too many mines went off.
+     */
+    public void gameOver(int room, boolean won) {
+        if (directory != null && begin(GAME_OVER, room, 1)) {
+            segment.put((byte) (won ? 1 : 0));
+            end();
+        }
+    }
+
+    private void playerRecord(byte type, int room, int player) {
+        if (directory != null && begin(type, room, 4)) {
+            segment.putInt(player);
+            end();
+        }
+    }
+
+    /**
+     * Forces the current segment to disk, trims it to the records written and
+     * stops recording. Safe to call more than once.
+     */
+    public void close() {
+        if (directory == null) {
+            return;
+        }
+        lock.lock();
+        try {
+            if (segment == null) {
+                return;
+            }
+            segment.force();
+            int length = segment.position();
+            segment = null;
+            try (FileChannel channel = FileChannel.open(segmentPath(directory, segmentNumber),
+                    StandardOpenOption.WRITE)) {
+                channel.truncate(length);
+            } catch (IOException e) {
+                GameLog.warn(Category.SERVER, "move-log-trim-failed").with("segment", segmentNumber)
+                        .with("error", e.getMessage()).log();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+}
@@ -0,0 +1,323 @@
+package MPMineSweeper;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Plays a {@link MoveLog} back at full speed: builds each game's board from its
+ * seed, applies every logged move and flag in order, and prints each game's
+ * outcome and scores, checking the outcome against the one the server logged.
+ *
+ * Usage: {@code MoveLogReplayer <log directory> [--room <name>]}. Exits with 1
+ * if any replayed game ended differently from the log.
+ *
+ * A game restored from a snapshot is taken up from the cells and scores logged
+ * when it was restored.
+ *
+ * Games played in turns replay exactly. In the simultaneous modes moves are
+ * logged in the order they finished; the boards and outcomes replay the same,
+ * but when two flood fills raced for the same cells the points for those cells
+ * may go to the other player.
+ */
+public final class MoveLogReplayer {
+    private final String roomFilter; // Null for every room
+    private final Map<Integer, Game> games = new HashMap<>();
+    private long records;
+    private long late; // Moves and flags logged outside their game
+    private int replayed;
+    private int mismatches;
+
+    /**
+     * One game being rebuilt.
+     */
+    private static final class Game {
+        private final String room;
+        private GameBoard board;
+        private String boardSize;
+        private GameRoom.Mode mode;
+        private long seed;
+        private long startMillis;
+        private int turn;
+        private int moves;
+        private int flags;
+        private int outOfTurn;
+        private int firstReveal;
+        private byte[] restoredCells; // Cells logged on restore, not yet put on the board
+        private int[] restoredFlags; // Flags placed on restore, by player number
+        private final Map<Integer, Player> players = new LinkedHashMap<>();
+        private final Set<Integer> quit = new HashSet<>();
+
+        Game(String room) {
+            this.room = room;
+        }
+
+        Player player(int number) {
+            return players.computeIfAbsent(number, Player::new);
+        }
+
+        /**
+         * Puts the cells logged on restore on the board, once the last of
+         * them has been read.
+         */
+        void settle() {
+            if (restoredCells != null) {
+                board.restore(seed, firstReveal, restoredCells, restoredFlags);
+                restoredCells = null;
+            }
+        }
+    }
+
+    /**
+     * Creates a replayer.
+     *
+     * @param roomFilter The only room to replay, or null for every room.
+     */
+    public MoveLogReplayer(String roomFilter) {
+        this.roomFilter = roomFilter;
+    }
+
+    /**
+     * Replays every segment of a log, in order.
+     *
+     * @param directory The log directory.
+     * @throws IOException If a segment cannot be read.
+     */
+    public void replay(Path directory) throws IOException {
+        for (int number : MoveLog.segmentNumbers(directory)) {
+            try (FileChannel channel = FileChannel.open(MoveLog.segmentPath(directory, number),
+                    StandardOpenOption.READ)) {
+                MappedByteBuffer segment = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+                replaySegment(segment);
+            }
+        }
+        for (Game game : games.values()) {
+            if (game.board != null) {
+                report(game, null); // Still being played when the log ends
+            }
+        }
+        games.clear();
+    }
+
+    private void replaySegment(ByteBuffer segment) {
+        int position = 0;
+        while (segment.limit() - position >= MoveLog.HEADER_BYTES) {
+            int length = segment.get(position) & 0xFF;
+            if (length == 0) {
+                return; // End of the records written to this segment
+            }
+            segment.position(position + 1);
+            byte type = segment.get();
+            int room = segment.getInt();
+            long millis = segment.getLong();
+            records++;
+            apply(segment, type, room, millis, length - MoveLog.HEADER_BYTES);
+            position += length;
+        }
+    }
+
+    private void apply(ByteBuffer record, byte type, int room, long millis, int fieldBytes) {
+        if (type == MoveLog.ROOM) {
+            byte[] name = new byte[fieldBytes];
+            record.get(name);
+            String roomName = new String(name, StandardCharsets.UTF_8);
+            Game previous = games.remove(room); // Room numbers start again with each server run
+            if (previous != null && previous.board != null) {
+                report(previous, null);
+            }
+            if (roomFilter == null || roomFilter.equals(roomName)) {
+                games.put(room, new Game(roomName));
+            }
+            return;
+        }
+        Game game = games.get(room);
+        if (game == null) {
+            return; // A room left out by the filter
+        }
+        if ((type == MoveLog.MOVE || type == MoveLog.FLAG || type == MoveLog.GAME_OVER) && game.board == null) {
+            late++; // In lock-free mode a move can finish after another has ended the game
+            return;
+        }
+        if (type != MoveLog.CELLS) {
+            game.settle();
+        }
+        switch (type) {
+            case MoveLog.GAME_STARTED: {
+                game = new Game(game.room);
+                games.put(room, game);
+                game.seed = record.getLong();
+                int width = record.getShort() & 0xFFFF;
+                int height = record.getShort() & 0xFFFF;
+                int mines = record.getInt();
+                game.mode = GameRoom.Mode.values()[record.get()];
+                int count = record.get();
+                for (int i = 0; i < count; i++) {
+                    game.player(record.getInt());
+                }
+                game.board = new GameBoard(width, height, mines, null, game.seed);
+                game.board.setTrackChanges(false);
+                game.boardSize = width + "x" + height + ":" + mines;
+                game.startMillis = millis;
+                break;
+            }
+            case MoveLog.RESTORED: {
+                game = new Game(game.room);
+                games.put(room, game);
+                game.seed = record.getLong();
+                int width = record.getShort() & 0xFFFF;
+                int height = record.getShort() & 0xFFFF;
+                int mines = record.getInt();
+                game.mode = GameRoom.Mode.values()[record.get()];
+                game.firstReveal = record.getInt();
+                game.turn = record.getInt();
+                int count = record.get();
+                game.restoredFlags = new int[0];
+                for (int i = 0; i < count; i++) {
+                    Player player = game.player(record.getInt());
+                    player.setScore(record.getInt());
+                    int number = Math.max(0, player.getPlayerNumber());
+                    if (number >= game.restoredFlags.length) {
+                        game.restoredFlags = Arrays.copyOf(game.restoredFlags, number + 1);
+                    }
+                    game.restoredFlags[number] = record.getInt();
+                }
+                game.board = new GameBoard(width, height, mines, null, game.seed);
+                game.board.setTrackChanges(false);
+                game.restoredCells = new byte[width * height];
+                game.boardSize = width + "x" + height + ":" + mines;
+                game.startMillis = millis;
+                break;
+            }
+            case MoveLog.CELLS: {
+                byte[] cells = game.restoredCells;
+                if (cells == null) {
+                    break;
+                }
+                int index = record.getInt();
+                for (int i = 4; i < fieldBytes; i++) {
+                    int bits = record.get();
+                    for (int j = 0; j < 4 && index < cells.length; j++, index++) {
+                        int cell = bits >>> (j * 2);
+                        cells[index] = (byte) ((cell & 1) * GameBoard.REVEALED | (cell >>> 1 & 1) * GameBoard.FLAGGED);
+                    }
+                }
+                break;
+            }
+            case MoveLog.MOVE: {
+                Player player = game.player(record.getInt());
+                int x = record.getShort() & 0xFFFF;
+                int y = record.getShort() & 0xFFFF;
+                if (game.mode == GameRoom.Mode.TURNS && player.getPlayerNumber() != game.turn) {
+                    game.outOfTurn++;
+                }
+                game.board.revealCell(x, y, player);
+                game.moves++;
+                break;
+            }
+            case MoveLog.FLAG: {
+                Player player = game.player(record.getInt());
+                int x = record.getShort() & 0xFFFF;
+                int y = record.getShort() & 0xFFFF;
+                game.board.toggleFlag(x, y, record.get() == 1, player);
+                game.flags++;
+                break;
+            }
+            case MoveLog.TURN:
+                game.turn = record.getInt();
+                break;
+            case MoveLog.QUIT:
+                game.quit.add(record.getInt());
+                break;
+            case MoveLog.GAME_OVER:
+                report(game, record.get() == 1);
+                game.board = null; // Its players' quits follow
+                break;
+            default:
+                break; // READY, and record types from newer servers
+        }
+    }
+
+    /**
+     * Prints one game's replayed outcome and scores.
+     *
+     * @param game      The game.
+     * @param loggedWon The outcome the server logged, or null if the log has none.
+     */
+    private void report(Game game, Boolean loggedWon) {
+        game.settle();
+        GameBoard board = game.board;
+        boolean lost = board.getBombRevealedCount() >= GameBoard.MINES_TO_LOSE;
+        boolean won = !lost && board.allNonMineCellsRevealed();
+        String outcome = won ? "won" : lost ? "lost" : "unfinished";
+        String check;
+        if (loggedWon == null) {
+            check = "not ended in log";
+        } else if (loggedWon == won && (won || lost)) {
+            check = "matches log";
+        } else {
+            check = "MISMATCH, log says " + (loggedWon ? "won" : "lost");
+            mismatches++;
+        }
+        StringBuilder line = new StringBuilder();
+        line.append(Instant.ofEpochMilli(game.startMillis)).append(" room=").append(game.room)
+                .append(" seed=").append(game.seed).append(" board=").append(game.boardSize)
+                .append(" mode=").append(game.mode.name().toLowerCase()).append(" moves=").append(game.moves)
+                .append(" flags=").append(game.flags).append(" cleared=").append(board.getRevealedSafeCount())
+                .append('/').append(board.getSafeCellCount()).append(" mines=").append(board.getBombRevealedCount())
+                .append(" result=").append(outcome).append(" (").append(check).append(')');
+        if (game.outOfTurn > 0) {
+            line.append(" out-of-turn=").append(game.outOfTurn);
+        }
+        for (Player player : game.players.values()) {
+            line.append(" P").append(player.getPlayerNumber()).append('=').append(player.getScore());
+            if (game.quit.contains(player.getPlayerNumber())) {
+                line.append("(quit)");
+            }
+        }
+        System.out.println(line);
+        replayed++;
+    }
+
+    public static void main(String[] args) {
+        if (args.length < 1) {
+            System.err.println("Usage: MoveLogReplayer <log directory> [--room <name>]");
+            System.exit(1);
+        }
+        String room = null;
+        for (int i = 1; i < args.length; i++) {
+            if (args[i].equals("--room") && i + 1 < args.length) {
+                room = args[++i];
+            } else {
+                System.err.println("Unknown option: " + args[i]);
+            }
+        }
+        MoveLogReplayer replayer = new MoveLogReplayer(room);
+        long start = System.nanoTime();
+        try {
+            replayer.replay(Paths.get(args[0]));
+        } catch (IOException e) {
+            System.err.println("Cannot read move log: " + e.getMessage());
+            System.exit(1);
+            return;
+        }
+        long millis = Math.max(1, (System.nanoTime() - start) / 1_000_000);
+        System.out.printf("Replayed %d games from %d records (%d late moves skipped) in %d ms, %d records/s%n",
+                replayer.replayed, replayer.records, replayer.late, millis, replayer.records * 1000 / millis);
+        if (replayer.mismatches > 0) {
+            System.out.println(replayer.mismatches + " games ended differently from the log");
+            System.exit(1);
+        }
+    }
+}
@@ -0,0 +1,354 @@
+package MPMineSweeper;
+
+import MPMineSweeper.GameLog.Category;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A non-blocking {@link ClientConnection} driven by an {@link NioEventLoop}.
+ * Incoming bytes are split into lines, or into length-prefixed frames once the
+ * binary protocol has been negotiated, so a message that arrives over several
+ * reads is reassembled before it reaches the {@link ClientHandler}. Outgoing
+ * data is copied into pooled buffers and written when the socket is ready.
+ */
+public class NioConnection implements ClientConnection {
+    private static final int MAX_MESSAGE_LENGTH = 64 * 1024;
+    private static final byte[] NEWLINE = { '\n' };
+    /** Unwritten bytes above which {@link #awaitWritable()} makes the writer wait. */
+    private static final int HIGH_WATER_MARK = 64 * 1024;
+
+    private SocketChannel channel;
+    private NioEventLoop eventLoop;
+    private GameServer server;
+    private BufferPool bufferPool;
+    private SelectionKey key;
+    private ClientHandler clientHandler;
+    private String remoteAddress;
+    private byte[] lineBuffer;
+    private int lineLength;
+    private boolean binaryFraming;
+    private int frameHeaderValue;
+    private int frameHeaderShift;
+    private byte[] frame;
+    private int frameFill;
+    private final ReentrantLock enqueueLock = new ReentrantLock();
+    private final Condition drained = enqueueLock.newCondition();
+    private final AtomicInteger pendingBytes = new AtomicInteger();
+    private volatile boolean writerWaiting;
+    private ConcurrentLinkedQueue<ByteBuffer> outbound;
+    private AtomicBoolean flushScheduled;
+    private volatile boolean closeRequested;
+    private boolean closed;
+    private boolean detached; // The handler is done with this connection; later input is ignored
+
+    /**
+     * Creates a connection for a channel owned by the given event loop.
+     *
+     * @param channel    The non-blocking client channel.
+     * @param eventLoop  The loop that performs all I/O for this channel.
+     * @param server     The game server that performs the handshake.
+     * @param bufferPool The pool outgoing data is staged in.
+     */
+    public NioConnection(SocketChannel channel, NioEventLoop eventLoop, GameServer server, BufferPool bufferPool) {
+        this.channel = channel;
+        this.eventLoop = eventLoop;
+        this.server = server;
+        this.bufferPool = bufferPool;
+        this.lineBuffer = new byte[256];
+        this.outbound = new ConcurrentLinkedQueue<>();
+        this.flushScheduled = new AtomicBoolean(false);
+        this.remoteAddress = channel.socket().getInetAddress().getHostAddress();
+    }
+
+    void setKey(SelectionKey key) {
+        this.key = key;
+    }
+
+    /**
+     * Reads whatever is available and dispatches every complete line or frame.
+     * Called on the event loop thread only.
+     *
+     * @param readBuffer The loop's scratch buffer.
+     */
+    void onReadable(ByteBuffer readBuffer) {
+        readBuffer.clear();
+        int read;
+        try {
+            read = channel.read(readBuffer);
+        } catch (IOException e) {
+            GameLog.warn(Category.CONNECTION, "disconnected").with("address", remoteAddress)
+                    .with("error", e.getMessage()).log();
+            read = -1;
+        }
+        if (read < 0) {
+            closeNow();
+            return;
+        }
+        readBuffer.flip();
+        while (readBuffer.hasRemaining() && !closeRequested && !detached) {
+            if (binaryFraming) {
+                readFrameBytes(readBuffer);
+                continue;
+            }
+            byte b = readBuffer.get();
+            if (b == '\n') {
+                int length = lineLength > 0 && lineBuffer[lineLength - 1] == '\r' ? lineLength - 1 : lineLength;
+                String line = new String(lineBuffer, 0, length, StandardCharsets.UTF_8);
+                lineLength = 0;
+                dispatchLine(line);
+            } else {
+                appendToLine(b);
+            }
+        }
+    }
+
+    private void appendToLine(byte b) {
+        if (lineLength == lineBuffer.length) {
+            if (lineBuffer.length >= MAX_MESSAGE_LENGTH) {
+                GameLog.warn(Category.PROTOCOL, "line-too-long").with("address", remoteAddress).log();
+                closeNow();
+                return;
+            }
+            byte[] grown = new byte[Math.min(lineBuffer.length * 2, MAX_MESSAGE_LENGTH)];
+            System.arraycopy(lineBuffer, 0, grown, 0, lineLength);
+            lineBuffer = grown;
+        }
+        lineBuffer[lineLength++] = b;
+    }
+
+    private void readFrameBytes(ByteBuffer readBuffer) {
+        if (frame == null) {
+            byte b = readBuffer.get();
+            frameHeaderValue |= (b & 0x7F) << frameHeaderShift;
+            frameHeaderShift += 7;
+            if ((b & 0x80) != 0) {
+                if (frameHeaderShift >= 35) {
+                    GameLog.warn(Category.PROTOCOL, "malformed-frame-header").with("address", remoteAddress).log();
+                    closeNow();
+                }
+                return;
+            }
+            if (frameHeaderValue < 0 || frameHeaderValue > MAX_MESSAGE_LENGTH) {
+                GameLog.warn(Category.PROTOCOL, "frame-too-long").with("address", remoteAddress)
+                        .with("length", frameHeaderValue).log();
+                closeNow();
+                return;
+            }
+            frame = new byte[frameHeaderValue];
+            frameFill = 0;
+            frameHeaderValue = 0;
+            frameHeaderShift = 0;
+        }
+        int chunk = Math.min(readBuffer.remaining(), frame.length - frameFill);
+        readBuffer.get(frame, frameFill, chunk);
+        frameFill += chunk;
+        if (frameFill == frame.length) {
+            byte[] payload = frame;
+            frame = null;
+            if (!clientHandler.handleFrame(payload)) {
+                disconnectHandler();
+            }
+        }
+    }
+
+    private void dispatchLine(String line) {
+        if (detached) {
+            return; // Only the first line of a connection is a handshake
+        }
+        if (clientHandler == null) {
+            clientHandler = server.acceptClient(line, this);
+            binaryFraming = clientHandler != null && clientHandler.usesBinaryProtocol();
+            detached = clientHandler == null; // Refused; the answer is written and the connection closed
+        } else if (!clientHandler.handleLine(line)) {
+            disconnectHandler();
+        }
+    }
+
+    /**
+     * Tells the handler its client is gone. The connection stops reading at
+     * once, since the close the handler asks for only happens once its writer
+     * has finished.
+     */
+    private void disconnectHandler() {
+        ClientHandler handler = clientHandler;
+        clientHandler = null;
+        detached = true;
+        handler.handleDisconnect();
+    }
+
+    @Override
+    public void sendLine(String line) {
+        enqueue(null, 0, line.getBytes(StandardCharsets.UTF_8), true);
+    }
+
+    @Override
+    public void sendFrame(byte[] payload) {
+        byte[] header = new byte[5];
+        int headerLength = BinaryMessageEncoder.writeVarint(header, 0, payload.length);
+        enqueue(header, headerLength, payload, false);
+    }
+
+    /**
+     * Copies one outgoing message into pooled buffers. The lock keeps messages
+     * that span several buffers from interleaving when two threads send at once.
+     */
+    private void enqueue(byte[] header, int headerLength, byte[] body, boolean newline) {
+        if (closeRequested) {
+            return;
+        }
+        enqueueLock.lock();
+        try {
+            ByteBuffer buffer = bufferPool.acquire();
+            buffer = put(buffer, header, headerLength);
+            buffer = put(buffer, body, body.length);
+            if (newline) {
+                buffer = put(buffer, NEWLINE, 1);
+            }
+            buffer.flip();
+            outbound.add(buffer);
+            pendingBytes.addAndGet(headerLength + body.length + (newline ? 1 : 0));
+        } finally {
+            enqueueLock.unlock();
+        }
+        scheduleFlush();
+    }
+
+    private ByteBuffer put(ByteBuffer buffer, byte[] source, int length) {
+        int offset = 0;
+        while (offset < length) {
+            if (!buffer.hasRemaining()) {
+                buffer.flip();
+                outbound.add(buffer);
+                buffer = bufferPool.acquire();
+            }
+            int chunk = Math.min(buffer.remaining(), length - offset);
+            buffer.put(source, offset, chunk);
+            offset += chunk;
+        }
+        return buffer;
+    }
+
+    private void scheduleFlush() {
+        if (flushScheduled.compareAndSet(false, true)) {
+            eventLoop.execute(this::flush);
+        }
+    }
+
+    /**
+     * Writes as much queued data as the socket accepts, and asks the selector for
+     * write readiness if anything is left over. Called on the event loop thread.
+     */
+    void flush() {
+        flushScheduled.set(false);
+        if (closed) {
+            return;
+        }
+        try {
+            ByteBuffer buffer;
+            while ((buffer = outbound.peek()) != null) {
+                pendingBytes.addAndGet(-channel.write(buffer));
+                if (buffer.hasRemaining()) {
+                    key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+                    return;
+                }
+                outbound.poll();
+                bufferPool.release(buffer);
+                if (writerWaiting && pendingBytes.get() <= HIGH_WATER_MARK) {
+                    signalWriter();
+                }
+            }
+            key.interestOps(SelectionKey.OP_READ);
+            if (closeRequested) {
+                closeNow();
+            }
+        } catch (IOException e) {
+            GameLog.warn(Category.CONNECTION, "write-failed").with("address", remoteAddress)
+                    .with("error", e.getMessage()).log();
+            closeNow();
+        }
+    }
+
+    @Override
+    public void awaitWritable() throws InterruptedException {
+        if (pendingBytes.get() <= HIGH_WATER_MARK) {
+            return;
+        }
+        enqueueLock.lock();
+        try {
+            writerWaiting = true;
+            while (pendingBytes.get() > HIGH_WATER_MARK && !closed) {
+                drained.await();
+            }
+        } finally {
+            writerWaiting = false;
+            enqueueLock.unlock();
+        }
+    }
+
+    private void signalWriter() {
+        enqueueLock.lock();
+        try {
+            drained.signalAll();
+        } finally {
+            enqueueLock.unlock();
+        }
+    }
+
+    /**
+     * Closes the connection once everything already queued has been written.
+     */
+    @Override
+    public void close() {
+        closeRequested = true;
+        scheduleFlush();
+    }
+
+    /**
+     * Closes the channel immediately, dropping unsent data, and tells the handler
+     * its client is gone. Called on the event loop thread.
+     */
+    void closeNow() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        closeRequested = true;
+        if (key != null) {
+            key.cancel();
+        }
+        try {
+            channel.close();
+        } catch (IOException e) {
+            GameLog.warn(Category.CONNECTION, "close-failed").with("address", remoteAddress)
+                    .with("error", e.getMessage()).log();
+        }
+        ByteBuffer buffer;
+        while ((buffer = outbound.poll()) != null) {
+            bufferPool.release(buffer);
+        }
+        signalWriter();
+        if (clientHandler != null) {
+            disconnectHandler();
+        }
+    }
+
+    @Override
+    public void abort() {
+        closeRequested = true;
+        eventLoop.execute(this::closeNow);
+    }
+
+    @Override
+    public String getRemoteAddress() {
+        return remoteAddress;
+    }
+}
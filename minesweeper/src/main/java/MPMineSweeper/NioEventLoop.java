@@ -0,0 +1,142 @@
+package MPMineSweeper;
+
+import MPMineSweeper.GameLog.Category;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * A single-threaded event loop that owns a selector and all the connections
+ * registered with it. Other threads never touch the selector directly; they hand
+ * work to the loop through {@link #execute(Runnable)}.
+ */
+public class NioEventLoop implements Runnable {
+    private GameServer server;
+    private BufferPool bufferPool;
+    private Selector selector;
+    private ConcurrentLinkedQueue<Runnable> tasks;
+    private volatile boolean isRunning;
+    private volatile Thread loopThread;
+
+    /**
+     * Creates an event loop with its own selector.
+     *
+     * @param server     The game server that handles handshakes and game commands.
+     * @param bufferPool The pool shared by every loop for read and write buffers.
+     * @throws IOException If the selector cannot be opened.
+     */
+    public NioEventLoop(GameServer server, BufferPool bufferPool) throws IOException {
+        this.server = server;
+        this.bufferPool = bufferPool;
+        this.selector = Selector.open();
+        this.tasks = new ConcurrentLinkedQueue<>();
+        this.isRunning = true;
+    }
+
+    /**
+     * Registers an accepted, non-blocking channel with this loop.
+     *
+     * @param channel The client channel.
+     */
+    public void register(SocketChannel channel) {
+        execute(() -> {
+            try {
+                NioConnection connection = new NioConnection(channel, this, server, bufferPool);
+                connection.setKey(channel.register(selector, SelectionKey.OP_READ, connection));
+            } catch (ClosedChannelException e) {
+                GameLog.info(Category.CONNECTION, "closed-before-registration").log();
+            }
+        });
+    }
+
+    /**
+     * Runs a task on the loop thread. Safe to call from any thread.
+     *
+     * @param task The task to run.
+     */
+    public void execute(Runnable task) {
+        tasks.add(task);
+        if (Thread.currentThread() != loopThread) {
+            selector.wakeup();
+        }
+    }
+
+    /**
+     * Checks whether the caller is running on this loop's thread.
+     *
+     * @return true if called from the loop thread.
+     */
+    public boolean inEventLoop() {
+        return Thread.currentThread() == loopThread;
+    }
+
+    /**
+     * Stops the loop and closes every connection it owns.
+     */
+    public void stop() {
+        isRunning = false;
+        selector.wakeup();
+    }
+
+    @Override
+    public void run() {
+        loopThread = Thread.currentThread();
+        ByteBuffer readBuffer = bufferPool.acquire();
+        try {
+            while (isRunning) {
+                if (tasks.isEmpty()) {
+                    selector.select();
+                } else {
+                    selector.selectNow();
+                }
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    NioConnection connection = (NioConnection) key.attachment();
+                    try {
+                        if (key.isValid() && key.isReadable()) {
+                            connection.onReadable(readBuffer);
+                        }
+                        if (key.isValid() && key.isWritable()) {
+                            connection.flush();
+                        }
+                    } catch (RuntimeException e) {
+                        GameLog.error(Category.SERVER, "connection-failed").with("error", e).log();
+                        connection.closeNow(); // Only this connection; the loop serves the others
+                    }
+                }
+                runTasks();
+            }
+        } catch (IOException e) {
+            GameLog.error(Category.SERVER, "event-loop-failed").with("error", e.getMessage()).log();
+        } finally {
+            bufferPool.release(readBuffer);
+            for (SelectionKey key : selector.keys()) {
+                ((NioConnection) key.attachment()).closeNow();
+            }
+            try {
+                selector.close();
+            } catch (IOException e) {
+                GameLog.warn(Category.SERVER, "selector-close-failed").with("error", e.getMessage()).log();
+            }
+        }
+    }
+
+    private void runTasks() {
+        Runnable task;
+        while ((task = tasks.poll()) != null) {
+            try {
+                task.run();
+            } catch (RuntimeException e) {
+                GameLog.error(Category.SERVER, "event-loop-task-failed").with("error", e).log();
+            }
+        }
+    }
+}
@@ -0,0 +1,118 @@
+package MPMineSweeper;
+
+import MPMineSweeper.GameLog.Category;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+
+/**
+ * Selector-based server core. One acceptor thread hands new sockets to a small,
+ * fixed set of {@link NioEventLoop}s, so the thread count no longer grows with
+ * the number of connected clients.
+ */
+public class NioServer {
+    private static final int BUFFER_SIZE = 8192;
+    private static final int MAX_POOLED_BUFFERS = 1024;
+
+    private GameServer server;
+    private int port;
+    private NioEventLoop[] eventLoops;
+    private BufferPool bufferPool;
+    private ServerSocketChannel serverChannel;
+    private Selector acceptSelector;
+    private volatile boolean isRunning;
+    private int nextLoop;
+
+    /**
+     * Creates an NIO server core for the given game server.
+     *
+     * @param server     The game server whose handshake and game logic are used.
+     * @param port       The port to listen on.
+     * @param loopCount  The number of event-loop threads.
+     */
+    public NioServer(GameServer server, int port, int loopCount) {
+        this.server = server;
+        this.port = port;
+        this.bufferPool = new BufferPool(BUFFER_SIZE, MAX_POOLED_BUFFERS);
+        this.eventLoops = new NioEventLoop[Math.max(1, loopCount)];
+    }
+
+    /**
+     * Binds the listening socket and starts the acceptor and event-loop threads.
+     *
+     * @throws IOException If the port cannot be bound.
+     */
+    public void start() throws IOException {
+        for (int i = 0; i < eventLoops.length; i++) {
+            eventLoops[i] = new NioEventLoop(server, bufferPool);
+            Thread loopThread = new Thread(eventLoops[i], "nio-loop-" + i);
+            loopThread.setDaemon(true);
+            loopThread.start();
+        }
+
+        serverChannel = ServerSocketChannel.open();
+        serverChannel.bind(new InetSocketAddress(port));
+        serverChannel.configureBlocking(false);
+        acceptSelector = Selector.open();
+        serverChannel.register(acceptSelector, SelectionKey.OP_ACCEPT);
+        isRunning = true;
+
+        new Thread(this::acceptLoop, "nio-acceptor").start();
+    }
+
+    /**
+     * Accepts connections and spreads them round-robin over the event loops.
+     */
+    private void acceptLoop() {
+        while (isRunning) {
+            try {
+                acceptSelector.select();
+                Iterator<SelectionKey> keys = acceptSelector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    if (key.isValid() && key.isAcceptable()) {
+                        SocketChannel channel;
+                        while ((channel = serverChannel.accept()) != null) {
+                            channel.configureBlocking(false);
+                            channel.socket().setTcpNoDelay(true);
+                            eventLoops[nextLoop].register(channel);
+                            nextLoop = (nextLoop + 1) % eventLoops.length;
+                        }
+                    }
+                }
+            } catch (IOException e) {
+                if (isRunning) {
+                    GameLog.error(Category.SERVER, "accept-failed").with("error", e.getMessage()).log();
+                }
+            }
+        }
+    }
+
+    /**
+     * Stops accepting connections and shuts down every event loop.
+     */
+    public void stop() {
+        isRunning = false;
+        try {
+            if (acceptSelector != null) {
+                acceptSelector.wakeup();
+            }
+            if (serverChannel != null) {
+                serverChannel.close();
+            }
+        } catch (IOException e) {
+            GameLog.warn(Category.SERVER, "close-failed").with("error", e.getMessage()).log();
+        }
+        for (NioEventLoop loop : eventLoops) {
+            if (loop != null) {
+                loop.stop();
+            }
+        }
+    }
+}
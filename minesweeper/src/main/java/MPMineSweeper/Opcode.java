@@ -0,0 +1,101 @@
+package MPMineSweeper;
+
+/**
+ * Every command that travels between client and server after the handshake.
+ * The enum name is the word used by the text protocol; the code is the byte
+ * used by the binary protocol.
+ */
+public enum Opcode {
+    // Client to server
+    MOVE(1),
+    FLAG(2),
+    REQUEST_CELL_STATE(3),
+    READY(4),
+    QUIT(5),
+    RESYNC(6),
+    START_GAME(7),
+    VIEWPORT(8),
+
+    // Server to client
+    PASSWORD(20),
+    SERVER_FULL(21),
+    GAME_IN_PROGRESS(22),
+    PLAYER_NUMBER(23),
+    PLAYERS_CONNECTED(24),
+    GAME_STATE(25),
+    UPDATE(26, true),
+    SNAPSHOT(27, true),
+    SCORE(28),
+    GAMEOVER(29),
+    TURN_CHANGED(30),
+    CELL_STATE(31),
+    BOARD_SIZE(32),
+    STATUS(33),
+    SESSION(34),
+    SESSION_EXPIRED(35),
+
+    // Both directions
+    PLAYER_QUIT(40);
+
+    private static final Opcode[] BY_CODE = new Opcode[128];
+    static {
+        for (Opcode opcode : values()) {
+            BY_CODE[opcode.code] = opcode;
+        }
+    }
+
+    private final int code;
+    private final boolean cellList;
+
+    Opcode(int code) {
+        this(code, false);
+    }
+
+    Opcode(int code, boolean cellList) {
+        this.code = code;
+        this.cellList = cellList;
+    }
+
+    /**
+     * Gets the byte that identifies this opcode in the binary protocol.
+     *
+     * @return The opcode byte.
+     */
+    public int getCode() {
+        return code;
+    }
+
+    /**
+     * Checks whether the arguments of this opcode are a list of cells, stored as
+     * x, y, state, count quadruples.
+     *
+     * @return true for board updates.
+     */
+    public boolean isCellList() {
+        return cellList;
+    }
+
+    /**
+     * Looks up an opcode by its binary code.
+     *
+     * @param code The opcode byte.
+     * @return The opcode, or null if the code is unknown.
+     */
+    public static Opcode fromCode(int code) {
+        return code >= 0 && code < BY_CODE.length ? BY_CODE[code] : null;
+    }
+
+    /**
+     * Looks up an opcode by its text protocol name.
+     *
+     * @param name The command word.
+     * @return The opcode, or null if the name is unknown.
+     */
+    public static Opcode fromName(String name) {
+        try {
+            return valueOf(name);
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,163 @@
+package MPMineSweeper;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * The bounded queue of messages waiting to be written to one client. Game code
+ * only ever adds to it, so a client whose socket is not keeping up never blocks
+ * the thread holding the room's game lock. A writer owned by the
+ * {@link ClientHandler} takes messages off and does the actual writing.
+ */
+public class OutboundQueue {
+
+    /**
+     * What to do when a client falls so far behind that its queue is full.
+     */
+    public enum OverflowPolicy {
+        /** Drop the client. */
+        DISCONNECT,
+        /**
+         * Throw away the queued board updates and send one fresh snapshot in their
+         * place. The client is only dropped if the queue is still full without them.
+         */
+        SNAPSHOT,
+        /**
+         * Throw away the oldest queued message. Never drops the client, so a
+         * spectator who falls behind cannot hold anyone up; it notices the gap
+         * in the sequence numbers and asks for a resync.
+         */
+        DROP_OLDEST
+    }
+
+    public static final int DEFAULT_CAPACITY = 256;
+
+    /**
+     * Queued in place of collapsed board updates. The writer replaces it with a
+     * snapshot of the board as it is when the request is written.
+     */
+    static final Message SNAPSHOT_REQUEST = Message.of(Opcode.SNAPSHOT);
+
+    private final ArrayDeque<Message> messages;
+    private final int capacity;
+    private final OverflowPolicy overflowPolicy;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+    private boolean closed;
+
+    /**
+     * Creates an empty queue.
+     *
+     * @param capacity       The most messages that may wait at once.
+     * @param overflowPolicy What to do when that limit is reached.
+     */
+    public OutboundQueue(int capacity, OverflowPolicy overflowPolicy) {
+        this.messages = new ArrayDeque<>(capacity);
+        this.capacity = capacity;
+        this.overflowPolicy = overflowPolicy;
+    }
+
+    /**
+     * Adds a message without blocking.
+     *
+     * @param message The message to send.
+     * @return false if the queue overflowed and the client should be dropped,
+     *         true otherwise. Messages offered after {@link #close()} are
+     *         silently discarded.
+     */
+    public boolean offer(Message message) {
+        lock.lock();
+        try {
+            if (closed) {
+                return true;
+            }
+            if (messages.size() >= capacity) {
+                if (overflowPolicy == OverflowPolicy.DROP_OLDEST) {
+                    messages.poll();
+                } else if (!collapseBoardUpdates()) {
+                    return false;
+                }
+            }
+            messages.add(message);
+            notEmpty.signal();
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private boolean collapseBoardUpdates() {
+        if (overflowPolicy != OverflowPolicy.SNAPSHOT) {
+            return false;
+        }
+        // Cell states are absolute, so later updates still apply cleanly on top of the snapshot
+        messages.removeIf(queued -> queued.getOpcode().isCellList());
+        messages.add(SNAPSHOT_REQUEST);
+        return messages.size() < capacity;
+    }
+
+    /**
+     * Blocks until a message is available.
+     *
+     * @return The next message, {@link #SNAPSHOT_REQUEST}, or null once the queue
+     *         is closed and empty.
+     * @throws InterruptedException If the writer is interrupted while waiting.
+     */
+    public Message take() throws InterruptedException {
+        lock.lock();
+        try {
+            while (messages.isEmpty()) {
+                if (closed) {
+                    return null;
+                }
+                notEmpty.await();
+            }
+            return messages.poll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Stops accepting messages. Messages already queued are still handed to the
+     * writer.
+     */
+    public void close() {
+        lock.lock();
+        try {
+            closed = true;
+            notEmpty.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Stops accepting messages and drops everything still queued.
+     */
+    public void abort() {
+        lock.lock();
+        try {
+            closed = true;
+            messages.clear();
+            notEmpty.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Gets the number of messages waiting.
+     *
+     * @return The queue length.
+     */
+    public int size() {
+        lock.lock();
+        try {
+            return messages.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+}
@@ -0,0 +1,41 @@
+package MPMineSweeper;
+
+/**
+ * The cells one move revealed: the chosen cell first, then the empty region
+ * opened around it in breadth-first order.
+ */
+public final class RevealResult {
+    /** The result of a move that revealed nothing, e.g. on an already revealed cell. */
+    public static final RevealResult NONE = new RevealResult(new int[0], false);
+
+    private final int[] cells;
+    private final boolean mineHit;
+
+    /**
+     * Creates a result.
+     *
+     * @param cells   The indices (y * width + x) of the revealed cells.
+     * @param mineHit True if the chosen cell was a mine.
+     */
+    public RevealResult(int[] cells, boolean mineHit) {
+        this.cells = cells;
+        this.mineHit = mineHit;
+    }
+
+    /**
+     * Gets the revealed cells. Callers must not modify the array.
+     *
+     * @return The indices (y * width + x) of the revealed cells.
+     */
+    public int[] getRevealedCells() {
+        return cells;
+    }
+
+    public int getRevealedCount() {
+        return cells.length;
+    }
+
+    public boolean isMineHit() {
+        return mineHit;
+    }
+}
@@ -0,0 +1,288 @@
+package MPMineSweeper;
+
+import MPMineSweeper.GameLog.Category;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Keeps track of every {@link GameRoom} hosted by the server. Rooms are created
+ * on demand when a handshake asks for them and removed again when their game
+ * ends or their last player leaves. It also finds the {@link Session} a
+ * reconnecting client's token names.
+ */
+public class RoomManager {
+    private ConcurrentHashMap<String, GameRoom> rooms;
+    private final ConcurrentHashMap<String, Session> sessions = new ConcurrentHashMap<>(); // By token
+    private AtomicInteger roomCounter;
+    private volatile OutboundQueue.OverflowPolicy overflowPolicy;
+    private volatile int boardWidth = GameRoom.DEFAULT_WIDTH;
+    private volatile int boardHeight = GameRoom.DEFAULT_HEIGHT;
+    private volatile int boardMines = GameRoom.DEFAULT_MINES;
+    private volatile Long seed; // Null for a random seed per game
+    private volatile GameRoom.Mode gameMode = GameRoom.Mode.TURNS;
+    private volatile MoveLog moveLog = MoveLog.disabled();
+
+    /**
+     * Creates an empty room manager.
+     */
+    public RoomManager() {
+        this.rooms = new ConcurrentHashMap<>();
+        this.roomCounter = new AtomicInteger(0);
+        this.overflowPolicy = OutboundQueue.OverflowPolicy.SNAPSHOT;
+    }
+
+    /**
+     * Gets what happens to clients that fall behind.
+     *
+     * @return The policy for clients' outbound queues.
+     */
+    public OutboundQueue.OverflowPolicy getOverflowPolicy() {
+        return overflowPolicy;
+    }
+
+    /**
+     * Sets what happens to clients that fall behind, for players seated from now on.
+     *
+     * @param overflowPolicy The policy for new clients' outbound queues.
+     */
+    public void setOverflowPolicy(OutboundQueue.OverflowPolicy overflowPolicy) {
+        this.overflowPolicy = overflowPolicy;
+    }
+
+    /**
+     * Sets the board used by rooms created from now on.
+     *
+     * @param width  The board width in cells.
+     * @param height The board height in cells.
+     * @param mines  The number of mines.
+     */
+    public void setBoardSize(int width, int height, int mines) {
+        this.boardWidth = width;
+        this.boardHeight = height;
+        this.boardMines = mines;
+    }
+
+    /**
+     * Fixes the seed every game's mines are placed from, so every game with the
+     * same board size and first move gets the same mines.
+     *
+     * @param seed The seed, or null for a new random seed per game.
+     */
+    public void setSeed(Long seed) {
+        this.seed = seed;
+    }
+
+    /**
+     * Gets the seed every game's mines are placed from.
+     *
+     * @return The seed, or null if every game picks its own.
+     */
+    public Long getSeed() {
+        return seed;
+    }
+
+    /**
+     * Sets how players take their moves in rooms created from now on.
+     *
+     * @param gameMode Turns or simultaneous moves.
+     */
+    public void setGameMode(GameRoom.Mode gameMode) {
+        this.gameMode = gameMode;
+    }
+
+    /**
+     * Sets where rooms created from now on record their games.
+     *
+     * @param moveLog The log, or {@link MoveLog#disabled()} to record nothing.
+     */
+    public void setMoveLog(MoveLog moveLog) {
+        this.moveLog = moveLog;
+    }
+
+    /**
+     * Gets where new rooms record their games.
+     *
+     * @return The move log; disabled unless the server was started with one.
+     */
+    public MoveLog getMoveLog() {
+        return moveLog;
+    }
+
+    /**
+     * Routes a freshly authenticated client to the room named in its handshake,
+     * or to any lobby with a free seat if it named none, and seats them there.
+     * A client that presents the token of a seat still kept for it is
+     * reconnected to that seat instead; one whose seat is gone is answered
+     * {@code SESSION_EXPIRED} rather than seated in a new game it does not know
+     * about. A spectator watches the room it names, or any game under way, and
+     * is answered {@code GAME_IN_PROGRESS} if there is no such room; spectators
+     * never open rooms, since nothing would close a room only they were in.
+     *
+     * @param connection The client's connection.
+     * @param handshake  The client's handshake, already checked against the password.
+     * @param cipher     The session cipher keyed from the handshake.
+     * @return The handler for the new player, or null if they were turned away.
+     */
+    public ClientHandler joinRoom(ClientConnection connection, Handshake handshake, SessionCipher cipher) {
+        String token = handshake.getOption(Handshake.SESSION);
+        if (token != null) {
+            Session session = sessions.get(token);
+            ClientHandler resumed = session == null ? null
+                    : session.getRoom().resume(connection, handshake, cipher, session);
+            if (resumed == null) {
+                connection.sendLine(cipher.encryptLine(TextMessageCodec.format(Message.of(Opcode.SESSION_EXPIRED))));
+                connection.close();
+                GameLog.info(Category.ROOM, "resume-refused").with("address", connection.getRemoteAddress()).log();
+            }
+            return resumed;
+        }
+        boolean spectator = Handshake.ROLE_SPECTATOR.equals(handshake.getOption(Handshake.ROLE));
+        String roomName = handshake.getOption(Handshake.ROOM);
+        if (spectator) {
+            GameRoom room = roomName != null ? rooms.get(roomName) : findRoomToWatch();
+            if (room == null) {
+                connection.sendLine(cipher.encryptLine(TextMessageCodec.format(Message.of(Opcode.GAME_IN_PROGRESS))));
+                connection.close();
+                GameLog.info(Category.ROOM, "refused").with("room", roomName)
+                        .with("address", connection.getRemoteAddress()).with("reason", "no-room").log();
+                return null;
+            }
+            return room.watch(connection, handshake, cipher); // Answers GAME_IN_PROGRESS if the room has closed
+        }
+        while (true) {
+            GameRoom room = roomName != null ? getOrCreateRoom(roomName) : findOpenRoom();
+            if (room.isClosed()) {
+                // The room finished while we were looking it up; drop it and open a fresh one
+                removeRoom(room);
+                continue;
+            }
+            return room.join(connection, handshake, cipher);
+        }
+    }
+
+    /**
+     * Gets the room with the given name, creating it if it does not exist yet.
+     *
+     * @param roomName The room name.
+     * @return The live room.
+     */
+    public GameRoom getOrCreateRoom(String roomName) {
+        return rooms.computeIfAbsent(roomName, this::createRoom);
+    }
+
+    /**
+     * Finds a room whose game is under way, for a spectator who named no room.
+     *
+     * @return A room being played, or else one still in its lobby, or null if
+     *         there is no room open.
+     */
+    public GameRoom findRoomToWatch() {
+        GameRoom lobby = null;
+        for (GameRoom room : rooms.values()) {
+            if (room.isClosed()) {
+                continue;
+            }
+            if (room.isGameStarted()) {
+                return room;
+            }
+            lobby = room;
+        }
+        return lobby;
+    }
+
+    /**
+     * Finds a room that is still in its lobby and has a free seat, or opens a new
+     * one if every room is busy.
+     *
+     * @return A room that can take another player.
+     */
+    public GameRoom findOpenRoom() {
+        for (GameRoom room : rooms.values()) {
+            if (room.isAcceptingPlayers()) {
+                return room;
+            }
+        }
+        String roomName;
+        do {
+            roomName = "room-" + roomCounter.incrementAndGet();
+        } while (rooms.containsKey(roomName));
+        return getOrCreateRoom(roomName);
+    }
+
+    private GameRoom createRoom(String roomName) {
+        GameLog.info(Category.ROOM, "created").with("room", roomName).log();
+        return new GameRoom(roomName, this, boardWidth, boardHeight, boardMines, gameMode);
+    }
+
+    /**
+     * Opens a room for a game read from a snapshot, with its seats waiting for
+     * their players to rejoin. The room keeps the board size and mode it was
+     * played with.
+     *
+     * @param state The game as the snapshot recorded it.
+     * @return false if a room with that name already exists.
+     */
+    public boolean restoreRoom(SnapshotStore.RoomState state) {
+        if (rooms.containsKey(state.name)) {
+            return false; // Checked first, so a clash opens no room in the move log
+        }
+        GameRoom room = new GameRoom(state.name, this, state.width, state.height, state.mines, state.mode);
+        room.restore(state);
+        if (rooms.putIfAbsent(state.name, room) != null) {
+            return false;
+        }
+        GameLog.info(Category.ROOM, "restored").with("room", state.name).with("players", state.playerNumbers.length)
+                .with("seed", state.seed).with("mode", state.mode).log();
+        return true;
+    }
+
+    /**
+     * Forgets a room once it is closed, and the sessions of its players. A newer
+     * room with the same name is left alone.
+     *
+     * @param room The room to remove.
+     */
+    public void removeRoom(GameRoom room) {
+        rooms.remove(room.getName(), room);
+        sessions.values().removeIf(session -> session.getRoom() == room);
+    }
+
+    /**
+     * Lets a reconnecting client find a newly seated player's session by its token.
+     *
+     * @param session The session.
+     */
+    void addSession(Session session) {
+        sessions.put(session.getToken(), session);
+    }
+
+    /**
+     * Forgets the session of a player who left for good.
+     *
+     * @param session The session.
+     */
+    void removeSession(Session session) {
+        sessions.remove(session.getToken(), session);
+    }
+
+    /**
+     * Returns a snapshot of the currently hosted rooms.
+     *
+     * @return The live rooms.
+     */
+    public Collection<GameRoom> getRooms() {
+        return new ArrayList<>(rooms.values());
+    }
+
+    /**
+     * Gets the number of rooms currently hosted.
+     *
+     * @return The room count.
+     */
+    public int getRoomCount() {
+        return rooms.size();
+    }
+}
@@ -0,0 +1,300 @@
+package MPMineSweeper;
+
+import java.lang.management.ManagementFactory;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ * Process-wide counters and latency histograms for the server, published as a
+ * platform MBean so jconsole can read them.
+ *
+ * Every counter is a {@link LongAdder} and every histogram a
+ * {@link LatencyHistogram}, so recording from many client threads at once does
+ * not create a new point of contention. The client, game and room counts are
+ * read from the {@link RoomManager} when asked for rather than counted.
+ */
+public class ServerMetrics implements ServerMetricsMXBean {
+    public static final String OBJECT_NAME = "MPMineSweeper:type=ServerMetrics";
+
+    private static final ServerMetrics INSTANCE = new ServerMetrics();
+
+    private final LongAdder[] messagesIn = newAdders(Opcode.values().length);
+    private final LongAdder[] messagesOut = newAdders(Opcode.values().length);
+    private final LongAdder bytesIn = new LongAdder();
+    private final LongAdder bytesOut = new LongAdder();
+    private final LongAdder encryptCount = new LongAdder();
+    private final LongAdder encryptNanos = new LongAdder();
+    private final LongAdder decryptCount = new LongAdder();
+    private final LongAdder decryptNanos = new LongAdder();
+    private final LongAdder lockContended = new LongAdder();
+    private final LatencyHistogram moveLatency = new LatencyHistogram();
+    private final LatencyHistogram broadcastTime = new LatencyHistogram();
+    private final LatencyHistogram lockWait = new LatencyHistogram();
+    private volatile RoomManager roomManager;
+
+    private ServerMetrics() {
+    }
+
+    /**
+     * Gets the metrics of this process.
+     *
+     * @return The shared instance.
+     */
+    public static ServerMetrics get() {
+        return INSTANCE;
+    }
+
+    /**
+     * Publishes the metrics on the platform MBean server.
+     *
+     * @param roomManager The rooms to report clients and games for.
+     */
+    public static void register(RoomManager roomManager) {
+        INSTANCE.roomManager = roomManager;
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(INSTANCE, new ObjectName(OBJECT_NAME));
+        } catch (InstanceAlreadyExistsException e) {
+            // Already published by an earlier server in this process; it now reports the new rooms
+        } catch (JMException e) {
+            GameLog.warn(GameLog.Category.SERVER, "metrics-registration-failed").with("error", e.getMessage()).log();
+        }
+    }
+
+    private static LongAdder[] newAdders(int count) {
+        LongAdder[] adders = new LongAdder[count];
+        for (int i = 0; i < count; i++) {
+            adders[i] = new LongAdder();
+        }
+        return adders;
+    }
+
+    void messageIn(Opcode opcode, int bytes) {
+        messagesIn[opcode.ordinal()].increment();
+        bytesIn.add(bytes);
+    }
+
+    void messageOut(Opcode opcode, int bytes) {
+        messagesOut[opcode.ordinal()].increment();
+        bytesOut.add(bytes);
+    }
+
+    void bytesIn(int bytes) {
+        bytesIn.add(bytes);
+    }
+
+    void encrypted(long nanos) {
+        encryptCount.increment();
+        encryptNanos.add(nanos);
+    }
+
+    void decrypted(long nanos) {
+        decryptCount.increment();
+        decryptNanos.add(nanos);
+    }
+
+    void moveProcessed(long nanos) {
+        moveLatency.record(nanos);
+    }
+
+    void broadcast(long nanos) {
+        broadcastTime.record(nanos);
+    }
+
+    void lockAcquired(long waitNanos, boolean contended) {
+        if (contended) {
+            lockContended.increment();
+        }
+        lockWait.record(waitNanos);
+    }
+
+    @Override
+    public int getConnectedClients() {
+        RoomManager rooms = roomManager;
+        if (rooms == null) {
+            return 0;
+        }
+        int clients = 0;
+        for (GameRoom room : rooms.getRooms()) {
+            clients += room.getClientCount();
+        }
+        return clients;
+    }
+
+    @Override
+    public int getActiveGames() {
+        RoomManager rooms = roomManager;
+        if (rooms == null) {
+            return 0;
+        }
+        int games = 0;
+        for (GameRoom room : rooms.getRooms()) {
+            if (room.isGameStarted()) {
+                games++;
+            }
+        }
+        return games;
+    }
+
+    @Override
+    public int getSpectators() {
+        RoomManager rooms = roomManager;
+        if (rooms == null) {
+            return 0;
+        }
+        int spectators = 0;
+        for (GameRoom room : rooms.getRooms()) {
+            spectators += room.getSpectatorCount();
+        }
+        return spectators;
+    }
+
+    @Override
+    public int getRooms() {
+        RoomManager rooms = roomManager;
+        return rooms == null ? 0 : rooms.getRoomCount();
+    }
+
+    @Override
+    public Map<String, Long> getMessagesIn() {
+        return byOpcode(messagesIn);
+    }
+
+    @Override
+    public Map<String, Long> getMessagesOut() {
+        return byOpcode(messagesOut);
+    }
+
+    private static Map<String, Long> byOpcode(LongAdder[] counters) {
+        Map<String, Long> counts = new LinkedHashMap<>();
+        for (Opcode opcode : Opcode.values()) {
+            long count = counters[opcode.ordinal()].sum();
+            if (count > 0) {
+                counts.put(opcode.name(), count);
+            }
+        }
+        return counts;
+    }
+
+    @Override
+    public long getBytesIn() {
+        return bytesIn.sum();
+    }
+
+    @Override
+    public long getBytesOut() {
+        return bytesOut.sum();
+    }
+
+    @Override
+    public long getEncryptCount() {
+        return encryptCount.sum();
+    }
+
+    @Override
+    public long getEncryptTotalMicros() {
+        return encryptNanos.sum() / 1000;
+    }
+
+    @Override
+    public long getDecryptCount() {
+        return decryptCount.sum();
+    }
+
+    @Override
+    public long getDecryptTotalMicros() {
+        return decryptNanos.sum() / 1000;
+    }
+
+    @Override
+    public long getMoveCount() {
+        return moveLatency.getCount();
+    }
+
+    @Override
+    public double getMoveLatencyP50Micros() {
+        return micros(moveLatency.getPercentileNanos(50));
+    }
+
+    @Override
+    public double getMoveLatencyP99Micros() {
+        return micros(moveLatency.getPercentileNanos(99));
+    }
+
+    @Override
+    public double getMoveLatencyMaxMicros() {
+        return micros(moveLatency.getMaxNanos());
+    }
+
+    @Override
+    public long getBroadcastCount() {
+        return broadcastTime.getCount();
+    }
+
+    @Override
+    public double getBroadcastP50Micros() {
+        return micros(broadcastTime.getPercentileNanos(50));
+    }
+
+    @Override
+    public double getBroadcastP99Micros() {
+        return micros(broadcastTime.getPercentileNanos(99));
+    }
+
+    @Override
+    public double getBroadcastMaxMicros() {
+        return micros(broadcastTime.getMaxNanos());
+    }
+
+    @Override
+    public long getLockAcquisitions() {
+        return lockWait.getCount();
+    }
+
+    @Override
+    public long getLockContended() {
+        return lockContended.sum();
+    }
+
+    @Override
+    public long getLockWaitTotalMicros() {
+        return lockWait.getTotalNanos() / 1000;
+    }
+
+    @Override
+    public double getLockWaitP99Micros() {
+        return micros(lockWait.getPercentileNanos(99));
+    }
+
+    @Override
+    public double getLockWaitMaxMicros() {
+        return micros(lockWait.getMaxNanos());
+    }
+
+    @Override
+    public void reset() {
+        for (LongAdder counter : messagesIn) {
+            counter.reset();
+        }
+        for (LongAdder counter : messagesOut) {
+            counter.reset();
+        }
+        bytesIn.reset();
+        bytesOut.reset();
+        encryptCount.reset();
+        encryptNanos.reset();
+        decryptCount.reset();
+        decryptNanos.reset();
+        lockContended.reset();
+        moveLatency.reset();
+        broadcastTime.reset();
+        lockWait.reset();
+    }
+
+    private static double micros(long nanos) {
+        return nanos / 1000.0;
+    }
+}
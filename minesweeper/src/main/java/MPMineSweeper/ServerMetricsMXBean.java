@@ -0,0 +1,93 @@
+package MPMineSweeper;
+
+import java.util.Map;
+
+/**
+ * The management interface of {@link ServerMetrics}, readable with jconsole or
+ * any other JMX client under {@value ServerMetrics#OBJECT_NAME}.
+ *
+ * Durations are reported in microseconds. Percentiles come from a bucketed
+ * histogram and are within about 12% of the true value; maximums are exact.
+ */
+public interface ServerMetricsMXBean {
+
+    /** @return The number of players currently seated in a room. */
+    int getConnectedClients();
+
+    /** @return The number of spectators watching a room. */
+    int getSpectators();
+
+    /** @return The number of rooms whose game has started. */
+    int getActiveGames();
+
+    /** @return The number of rooms, including those still in their lobby. */
+    int getRooms();
+
+    /** @return Messages received from clients, by opcode. */
+    Map<String, Long> getMessagesIn();
+
+    /** @return Messages written to clients, by opcode. */
+    Map<String, Long> getMessagesOut();
+
+    /** @return Encoded bytes received from players after the handshake. */
+    long getBytesIn();
+
+    /** @return Encoded bytes written to players after the handshake. */
+    long getBytesOut();
+
+    /** @return The number of messages encrypted. */
+    long getEncryptCount();
+
+    /** @return The total time spent encrypting messages. */
+    long getEncryptTotalMicros();
+
+    /** @return The number of messages decrypted, rejected ones included. */
+    long getDecryptCount();
+
+    /** @return The total time spent decrypting messages. */
+    long getDecryptTotalMicros();
+
+    /** @return The number of moves processed. */
+    long getMoveCount();
+
+    /** @return The median time to process a move, lock wait included. */
+    double getMoveLatencyP50Micros();
+
+    /** @return The 99th percentile time to process a move, lock wait included. */
+    double getMoveLatencyP99Micros();
+
+    /** @return The longest time to process a move, lock wait included. */
+    double getMoveLatencyMaxMicros();
+
+    /** @return The number of broadcasts. */
+    long getBroadcastCount();
+
+    /** @return The median time to hand one broadcast to every player in a room. */
+    double getBroadcastP50Micros();
+
+    /** @return The 99th percentile time to hand one broadcast to every player in a room. */
+    double getBroadcastP99Micros();
+
+    /** @return The longest time to hand one broadcast to every player in a room. */
+    double getBroadcastMaxMicros();
+
+    /** @return The number of times a room's game lock was taken. */
+    long getLockAcquisitions();
+
+    /** @return The number of times a room's game lock was already held by another thread. */
+    long getLockContended();
+
+    /** @return The total time spent waiting for rooms' game locks. */
+    long getLockWaitTotalMicros();
+
+    /** @return The 99th percentile wait for a room's game lock, uncontended acquisitions included. */
+    double getLockWaitP99Micros();
+
+    /** @return The longest wait for a room's game lock. */
+    double getLockWaitMaxMicros();
+
+    /**
+     * Clears every counter and histogram, but not the client, game and room gauges.
+     */
+    void reset();
+}
@@ -0,0 +1,138 @@
+package MPMineSweeper;
+
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.Base64;
+
+/**
+ * A player's seat in a game as it outlives their connection. The handshake
+ * that seats a player issues a session token, and every message sent to the
+ * player from then on is numbered and kept in a bounded buffer. A client whose
+ * connection drops reconnects with its token and the number of the last
+ * message it received, and is sent only the messages it missed, or the whole
+ * game again if they are no longer all in the buffer.
+ *
+ * While the player is away, their {@link ClientHandler} stays in the room and
+ * messages sent to it are numbered and buffered but not written. Whichever
+ * handler a message goes through, it is written to the connection attached
+ * last, so messages that race a reconnect are not lost.
+ */
+public final class Session {
+    /** Messages kept for a reconnecting client; fewer than fit in its outbound queue. */
+    static final int REPLAY_CAPACITY = 128;
+
+    private static final SecureRandom RANDOM = new SecureRandom();
+
+    private final String token;
+    private final GameRoom room;
+    private final Player player;
+    private final Message[] sent = new Message[REPLAY_CAPACITY]; // Message n at n % REPLAY_CAPACITY
+    private int lastSequence; // Number of the last message sent, 0 before the first
+    private ClientHandler handler; // Null while the player is away
+
+    /**
+     * Opens a session with a fresh token for a player just seated.
+     *
+     * @param room   The room the player is seated in.
+     * @param player The player.
+     */
+    public Session(GameRoom room, Player player) {
+        this(room, player, newToken());
+    }
+
+    /**
+     * Opens a session under a token issued before, for a seat restored from a
+     * snapshot, so its player can rejoin with the token they already hold.
+     *
+     * @param room   The room the seat is restored in.
+     * @param player The seat's player.
+     * @param token  The token the player was given.
+     */
+    Session(GameRoom room, Player player, String token) {
+        this.token = token;
+        this.room = room;
+        this.player = player;
+    }
+
+    private static String newToken() {
+        byte[] bytes = new byte[16];
+        RANDOM.nextBytes(bytes);
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(bytes);
+    }
+
+    public String getToken() {
+        return token;
+    }
+
+    public GameRoom getRoom() {
+        return room;
+    }
+
+    public Player getPlayer() {
+        return player;
+    }
+
+    /**
+     * Numbers a message, keeps it for a reconnect and hands it to the attached
+     * handler's queue, if a handler is attached.
+     *
+     * @param message The message.
+     */
+    synchronized void send(Message message) {
+        Message numbered = message.withSequence(++lastSequence);
+        sent[lastSequence % REPLAY_CAPACITY] = numbered;
+        if (handler != null) {
+            handler.enqueue(numbered);
+        }
+    }
+
+    /**
+     * Makes a handler the one messages are written to, first queueing every
+     * message numbered after the client's last one.
+     *
+     * @param handler          The handler of the client's new connection.
+     * @param receivedSequence The number of the last message the client received.
+     * @return false if some of the messages it missed are no longer kept, or the
+     *         client claims messages never sent; nothing was queued for it then.
+     */
+    synchronized boolean attach(ClientHandler handler, int receivedSequence) {
+        this.handler = handler;
+        if (receivedSequence < 0 || receivedSequence > lastSequence
+                || receivedSequence < lastSequence - REPLAY_CAPACITY) {
+            return false;
+        }
+        for (int sequence = receivedSequence + 1; sequence <= lastSequence; sequence++) {
+            handler.enqueue(sent[sequence % REPLAY_CAPACITY]);
+        }
+        return true;
+    }
+
+    /**
+     * Stops writing messages to a handler; they are still numbered and kept.
+     *
+     * @param handler The handler whose connection dropped.
+     */
+    synchronized void detach(ClientHandler handler) {
+        if (this.handler == handler) {
+            this.handler = null;
+        }
+    }
+
+    /**
+     * Checks whether messages are being written to a handler.
+     *
+     * @param handler The handler.
+     * @return true if it is the handler attached last and it has not been detached.
+     */
+    synchronized boolean isAttached(ClientHandler handler) {
+        return this.handler == handler;
+    }
+
+    /**
+     * Forgets the kept messages once the player has left for good.
+     */
+    synchronized void close() {
+        handler = null;
+        Arrays.fill(sent, null);
+    }
+}
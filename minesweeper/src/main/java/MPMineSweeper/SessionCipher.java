@@ -0,0 +1,222 @@
+package MPMineSweeper;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.util.Base64;
+import java.util.concurrent.locks.ReentrantLock;
+import javax.crypto.Cipher;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * The encryption state of one connection. Each {@link ClientHandler} and the
+ * {@link GameClient} own one for as long as the connection lives, so the key
+ * and the two {@link Cipher} objects are set up once instead of per message.
+ *
+ * Messages are sealed with AES-GCM. Every sealed message is a 12-byte nonce
+ * followed by the ciphertext and its 16-byte tag. The nonce is a 4-byte
+ * direction marker and an 8-byte message counter, so the client and the
+ * server never reuse a nonce under their shared key. A message whose tag does
+ * not verify, or whose counter is not higher than the last one received, is
+ * rejected.
+ */
+public class SessionCipher {
+    private static final String TRANSFORMATION = "AES/GCM/NoPadding";
+    public static final int NONCE_LENGTH = 12;
+    public static final int TAG_LENGTH = 16;
+    /** Bytes a sealed message adds to its plaintext. */
+    public static final int OVERHEAD = NONCE_LENGTH + TAG_LENGTH;
+
+    private static final int CLIENT_TO_SERVER = 0x43325300; // "C2S"
+    private static final int SERVER_TO_CLIENT = 0x53324300; // "S2C"
+
+    private final SecretKeySpec key;
+    private final Cipher encryptCipher;
+    private final Cipher decryptCipher;
+    private final int outboundDirection;
+    private final int inboundDirection;
+    private final byte[] encryptNonce = new byte[NONCE_LENGTH];
+    private final byte[] decryptNonce = new byte[NONCE_LENGTH];
+    private final ReentrantLock encryptLock = new ReentrantLock();
+    private final ReentrantLock decryptLock = new ReentrantLock();
+    private long sendCounter;
+    private long lastReceivedCounter = -1;
+
+    private SessionCipher(byte[] keyBytes, int outboundDirection, int inboundDirection)
+            throws GeneralSecurityException {
+        this.key = new SecretKeySpec(keyBytes, "AES");
+        this.encryptCipher = Cipher.getInstance(TRANSFORMATION);
+        this.decryptCipher = Cipher.getInstance(TRANSFORMATION);
+        this.outboundDirection = outboundDirection;
+        this.inboundDirection = inboundDirection;
+    }
+
+    /**
+     * Creates the server side of a session.
+     *
+     * @param encryptionKey The Base64 key from the client's handshake.
+     * @return The cipher, or null if the key is not a valid AES key.
+     */
+    public static SessionCipher forServer(String encryptionKey) {
+        return create(encryptionKey, SERVER_TO_CLIENT, CLIENT_TO_SERVER);
+    }
+
+    /**
+     * Creates the client side of a session.
+     *
+     * @param encryptionKey The Base64 key the client sends in its handshake.
+     * @return The cipher, or null if the key is not a valid AES key.
+     */
+    public static SessionCipher forClient(String encryptionKey) {
+        return create(encryptionKey, CLIENT_TO_SERVER, SERVER_TO_CLIENT);
+    }
+
+    private static SessionCipher create(String encryptionKey, int outboundDirection, int inboundDirection) {
+        try {
+            byte[] keyBytes = Base64.getDecoder().decode(encryptionKey);
+            if (keyBytes.length != 16 && keyBytes.length != 24 && keyBytes.length != 32) {
+                return null;
+            }
+            return new SessionCipher(keyBytes, outboundDirection, inboundDirection);
+        } catch (IllegalArgumentException | GeneralSecurityException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Seals the remaining bytes of {@code plain} into {@code sealed}, starting at
+     * its position. Both buffers' positions are advanced.
+     *
+     * @param plain  The bytes to encrypt.
+     * @param sealed The buffer to write the nonce, ciphertext and tag to. Needs
+     *               {@code plain.remaining() + OVERHEAD} bytes of room.
+     * @throws IllegalStateException If the cipher fails, which only happens on
+     *                               a broken JCE provider or a full buffer.
+     */
+    public void encrypt(ByteBuffer plain, ByteBuffer sealed) {
+        long start = System.nanoTime();
+        encryptLock.lock();
+        try {
+            long counter = sendCounter++;
+            writeNonce(encryptNonce, outboundDirection, counter);
+            encryptCipher.init(Cipher.ENCRYPT_MODE, key, new GCMParameterSpec(TAG_LENGTH * 8, encryptNonce));
+            sealed.put(encryptNonce);
+            encryptCipher.doFinal(plain, sealed);
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("Could not encrypt message", e);
+        } finally {
+            encryptLock.unlock();
+            ServerMetrics.get().encrypted(System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Opens one sealed message. The remaining bytes of {@code sealed} must be
+     * exactly one message.
+     *
+     * @param sealed The nonce, ciphertext and tag.
+     * @param plain  The buffer to write the plaintext to. Needs
+     *               {@code sealed.remaining() - OVERHEAD} bytes of room.
+     * @return true if the message was authentic and in order, false if it was
+     *         rejected. Nothing is written to {@code plain} when it is rejected.
+     */
+    public boolean decrypt(ByteBuffer sealed, ByteBuffer plain) {
+        if (sealed.remaining() < OVERHEAD) {
+            return false;
+        }
+        long start = System.nanoTime();
+        decryptLock.lock();
+        try {
+            sealed.get(decryptNonce);
+            if (readInt(decryptNonce, 0) != inboundDirection) {
+                return false;
+            }
+            long counter = ((long) readInt(decryptNonce, 4) << 32) | (readInt(decryptNonce, 8) & 0xFFFFFFFFL);
+            if (counter <= lastReceivedCounter) {
+                return false; // Replayed or reordered
+            }
+            decryptCipher.init(Cipher.DECRYPT_MODE, key, new GCMParameterSpec(TAG_LENGTH * 8, decryptNonce));
+            decryptCipher.doFinal(sealed, plain);
+            lastReceivedCounter = counter;
+            return true;
+        } catch (GeneralSecurityException e) {
+            return false;
+        } finally {
+            decryptLock.unlock();
+            ServerMetrics.get().decrypted(System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Seals a byte array.
+     *
+     * @param plain The bytes to encrypt.
+     * @return The nonce, ciphertext and tag.
+     */
+    public byte[] encrypt(byte[] plain) {
+        byte[] sealed = new byte[plain.length + OVERHEAD];
+        encrypt(ByteBuffer.wrap(plain), ByteBuffer.wrap(sealed));
+        return sealed;
+    }
+
+    /**
+     * Opens a sealed byte array.
+     *
+     * @param sealed The nonce, ciphertext and tag.
+     * @return The plain bytes, or null if the message was rejected.
+     */
+    public byte[] decrypt(byte[] sealed) {
+        if (sealed.length < OVERHEAD) {
+            return null;
+        }
+        byte[] plain = new byte[sealed.length - OVERHEAD];
+        return decrypt(ByteBuffer.wrap(sealed), ByteBuffer.wrap(plain)) ? plain : null;
+    }
+
+    /**
+     * Seals a text protocol line. Lines stay printable by Base64 encoding the
+     * sealed bytes.
+     *
+     * @param line The plain line.
+     * @return The sealed line.
+     */
+    public String encryptLine(String line) {
+        return Base64.getEncoder().encodeToString(encrypt(line.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    /**
+     * Opens a line produced by {@link #encryptLine(String)}.
+     *
+     * @param line The sealed line.
+     * @return The plain line, or null if it is not valid Base64 or was rejected.
+     */
+    public String decryptLine(String line) {
+        byte[] sealed;
+        try {
+            sealed = Base64.getDecoder().decode(line);
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+        byte[] plain = decrypt(sealed);
+        return plain == null ? null : new String(plain, StandardCharsets.UTF_8);
+    }
+
+    private static void writeNonce(byte[] nonce, int direction, long counter) {
+        writeInt(nonce, 0, direction);
+        writeInt(nonce, 4, (int) (counter >>> 32));
+        writeInt(nonce, 8, (int) counter);
+    }
+
+    private static void writeInt(byte[] target, int offset, int value) {
+        target[offset] = (byte) (value >>> 24);
+        target[offset + 1] = (byte) (value >>> 16);
+        target[offset + 2] = (byte) (value >>> 8);
+        target[offset + 3] = (byte) value;
+    }
+
+    private static int readInt(byte[] source, int offset) {
+        return ((source[offset] & 0xFF) << 24) | ((source[offset + 1] & 0xFF) << 16)
+                | ((source[offset + 2] & 0xFF) << 8) | (source[offset + 3] & 0xFF);
+    }
+}
@@ -0,0 +1,440 @@
+package MPMineSweeper;
+
+import MPMineSweeper.GameLog.Category;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.CRC32C;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ * Keeps the games being played in a snapshot file, so a server that dies can be
+ * started again with its games where they were and their players can rejoin.
+ * Snapshots are written every few seconds, when the server shuts down, and on
+ * demand through JMX.
+ *
+ * Each started game is copied under its room's locks by
+ * {@link GameRoom#captureState()}, which costs one copy of the cell array; the
+ * copies are then encoded and written on the store's own thread, so moves only
+ * ever wait for the copy. A snapshot is written beside the file, forced to disk
+ * and moved over it, so a crash while writing leaves the previous snapshot whole.
+ *
+ * The file starts with a magic number, a version and the time, then holds each
+ * game: its room name, mode, board size, mine count, seed and first reveal, whose
+ * turn it is, the last player number handed out and each player's number, score,
+ * ready flag, flags placed and session token, then its board as two bit planes, revealed cells
+ * and flagged cells. Mines are not stored; they follow from the seed and the
+ * first reveal, so a 1000x1000 board takes 250 KB. A CRC-32C of everything
+ * before it ends the file.
+ */
+public final class SnapshotStore implements SnapshotStoreMXBean {
+    public static final String OBJECT_NAME = "MPMineSweeper:type=SnapshotStore";
+
+    private static final int MAGIC = 0x4D53534E; // "MSSN"
+    private static final byte VERSION = 2; // 1 had no session tokens
+
+    private final Path file;
+    private final RoomManager roomManager;
+    private final ReentrantLock writeLock = new ReentrantLock(); // One snapshot at a time
+    private ScheduledExecutorService executor; // Null until started
+    private volatile long snapshotsWritten;
+    private volatile int lastRooms;
+    private volatile long lastBytes;
+    private volatile long lastCaptureNanos;
+    private volatile long lastWriteNanos;
+
+    /**
+     * The state of one started game, copied from its room or read from a file.
+     * Copied from a room, the cells are the board's packed cells; read from a
+     * file, they hold only the REVEALED and FLAGGED bits.
+     */
+    public static final class RoomState {
+        final String name;
+        final GameRoom.Mode mode;
+        final int width;
+        final int height;
+        final int mines;
+        final long seed;
+        final int firstReveal;
+        final int currentPlayer; // 0 when everyone may move
+        final int lastPlayerNumber;
+        final int[] playerNumbers;
+        final int[] scores;
+        final boolean[] ready;
+        final int[] flagsPlaced;
+        final String[] tokens; // Null for a seat no player holds
+        final byte[] cells;
+
+        /**
+         * Copies a game. The caller keeps moves out of the board while it runs.
+         *
+         * @param name             The room name.
+         * @param mode             How players take their moves.
+         * @param board            The board.
+         * @param players          The seated players, in turn order.
+         * @param currentPlayer    The number of the player whose turn it is, or 0.
+         * @param lastPlayerNumber The last player number handed out in the room.
+         * @param tokens           Each player's session token, null for a seat nobody holds.
+         */
+        public RoomState(String name, GameRoom.Mode mode, GameBoard board, List<Player> players, int currentPlayer,
+                int lastPlayerNumber, String[] tokens) {
+            this.name = name;
+            this.mode = mode;
+            this.width = board.getWidth();
+            this.height = board.getHeight();
+            this.mines = board.getMineCount();
+            this.seed = board.getSeed();
+            this.firstReveal = board.getFirstReveal();
+            this.currentPlayer = currentPlayer;
+            this.lastPlayerNumber = lastPlayerNumber;
+            int count = players.size();
+            playerNumbers = new int[count];
+            scores = new int[count];
+            ready = new boolean[count];
+            flagsPlaced = new int[count];
+            for (int i = 0; i < count; i++) {
+                Player player = players.get(i);
+                playerNumbers[i] = player.getPlayerNumber();
+                scores[i] = player.getScore();
+                ready[i] = player.isReady();
+                flagsPlaced[i] = board.getFlagsPlaced(player);
+            }
+            this.tokens = tokens;
+            cells = board.copyCells();
+        }
+
+        private RoomState(DataInputStream in, byte version) throws IOException {
+            name = in.readUTF();
+            int modeOrdinal = in.readByte();
+            width = in.readUnsignedShort();
+            height = in.readUnsignedShort();
+            mines = in.readInt();
+            seed = in.readLong();
+            firstReveal = in.readInt();
+            currentPlayer = in.readInt();
+            lastPlayerNumber = in.readInt();
+            int count = in.readUnsignedByte();
+            long cellCount = (long) width * height;
+            if (modeOrdinal < 0 || modeOrdinal >= GameRoom.Mode.values().length || cellCount == 0
+                    || cellCount > GameServer.MAX_BOARD_CELLS || mines < 0 || mines >= cellCount
+                    || firstReveal < -1 || firstReveal >= cellCount || count > GameRoom.MAX_PLAYERS) {
+                throw new IOException("Snapshot of room " + name + " is damaged");
+            }
+            mode = GameRoom.Mode.values()[modeOrdinal];
+            playerNumbers = new int[count];
+            scores = new int[count];
+            ready = new boolean[count];
+            flagsPlaced = new int[count];
+            tokens = new String[count];
+            for (int i = 0; i < count; i++) {
+                playerNumbers[i] = in.readInt();
+                scores[i] = in.readInt();
+                ready[i] = in.readBoolean();
+                flagsPlaced[i] = in.readInt();
+                if (version >= 2) {
+                    String token = in.readUTF();
+                    tokens[i] = token.isEmpty() ? null : token;
+                }
+            }
+            byte[] revealed = new byte[planeBytes((int) cellCount)];
+            byte[] flagged = new byte[revealed.length];
+            in.readFully(revealed);
+            in.readFully(flagged);
+            cells = new byte[(int) cellCount];
+            for (int i = 0; i < cells.length; i++) {
+                int bit = i & 7;
+                cells[i] = (byte) (((revealed[i >>> 3] >>> bit) & 1) * GameBoard.REVEALED
+                        | ((flagged[i >>> 3] >>> bit) & 1) * GameBoard.FLAGGED);
+            }
+        }
+
+        private void write(DataOutputStream out) throws IOException {
+            out.writeUTF(name);
+            out.writeByte(mode.ordinal());
+            out.writeShort(width);
+            out.writeShort(height);
+            out.writeInt(mines);
+            out.writeLong(seed);
+            out.writeInt(firstReveal);
+            out.writeInt(currentPlayer);
+            out.writeInt(lastPlayerNumber);
+            out.writeByte(playerNumbers.length);
+            for (int i = 0; i < playerNumbers.length; i++) {
+                out.writeInt(playerNumbers[i]);
+                out.writeInt(scores[i]);
+                out.writeBoolean(ready[i]);
+                out.writeInt(flagsPlaced[i]);
+                out.writeUTF(tokens[i] == null ? "" : tokens[i]);
+            }
+            out.write(plane(cells, GameBoard.REVEALED));
+            out.write(plane(cells, GameBoard.FLAGGED));
+        }
+
+        /**
+         * Gets the name of the room this game was played in.
+         *
+         * @return The room name.
+         */
+        public String getName() {
+            return name;
+        }
+    }
+
+    /**
+     * Creates a store for a snapshot file. Nothing is written until
+     * {@link #start(int)} or {@link #snapshotNow()}.
+     *
+     * @param file        The snapshot file.
+     * @param roomManager The rooms whose games are snapshotted and restored.
+     */
+    public SnapshotStore(Path file, RoomManager roomManager) {
+        this.file = file;
+        this.roomManager = roomManager;
+    }
+
+    private static int planeBytes(int cells) {
+        return (cells + 7) >>> 3;
+    }
+
+    /**
+     * Packs one bit of every cell into a bit plane, eight cells to a byte.
+     *
+     * @param cells The packed cells.
+     * @param bit   The cell bit to collect.
+     * @return The plane, cell i in bit i % 8 of byte i / 8.
+     */
+    private static byte[] plane(byte[] cells, int bit) {
+        byte[] plane = new byte[planeBytes(cells.length)];
+        int shift = Integer.numberOfTrailingZeros(bit);
+        for (int i = 0; i < cells.length; i++) {
+            plane[i >>> 3] |= (byte) (((cells[i] & bit) >>> shift) << (i & 7));
+        }
+        return plane;
+    }
+
+    /**
+     * Writes a snapshot every few seconds on a thread of its own and a last one
+     * when the server shuts down, and publishes the store on the platform MBean
+     * server.
+     *
+     * @param intervalSeconds Seconds between snapshots.
+     */
+    public void start(int intervalSeconds) {
+        executor = Executors.newSingleThreadScheduledExecutor(task -> {
+            Thread thread = new Thread(task, "snapshot-writer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        executor.scheduleWithFixedDelay(this::writeLogged, intervalSeconds, intervalSeconds, TimeUnit.SECONDS);
+        Runtime.getRuntime().addShutdownHook(new Thread(this::writeLogged, "snapshot-final"));
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this, new ObjectName(OBJECT_NAME));
+        } catch (InstanceAlreadyExistsException e) {
+            // Another store in this process got there first; it stays the one JMX reaches
+        } catch (JMException e) {
+            GameLog.warn(Category.SERVER, "snapshot-registration-failed").with("error", e.getMessage()).log();
+        }
+    }
+
+    private void writeLogged() {
+        try {
+            write();
+        } catch (IOException | RuntimeException e) {
+            GameLog.error(Category.SERVER, "snapshot-failed").with("file", file).with("error", e.getMessage()).log();
+        }
+    }
+
+    /**
+     * Copies every started game and writes them to the snapshot file.
+     *
+     * @throws IOException If the file cannot be written; the previous snapshot is kept.
+     */
+    public void write() throws IOException {
+        writeLock.lock();
+        try {
+            long start = System.nanoTime();
+            List<RoomState> games = new ArrayList<>();
+            for (GameRoom room : roomManager.getRooms()) {
+                RoomState state = room.captureState();
+                if (state != null) {
+                    games.add(state);
+                }
+            }
+            long captured = System.nanoTime();
+            long bytes = write(games, file);
+            long written = System.nanoTime();
+            lastRooms = games.size();
+            lastBytes = bytes;
+            lastCaptureNanos = captured - start;
+            lastWriteNanos = written - captured;
+            snapshotsWritten++;
+            GameLog.debug(Category.SERVER, "snapshot").with("rooms", games.size()).with("bytes", bytes)
+                    .with("captureMicros", lastCaptureNanos / 1000).with("writeMicros", lastWriteNanos / 1000).log();
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * Writes games to a snapshot file, replacing it only once the new snapshot
+     * is on disk.
+     *
+     * @param games The games.
+     * @param file  The snapshot file.
+     * @return The size of the snapshot in bytes.
+     * @throws IOException If the file cannot be written.
+     */
+    public static long write(List<RoomState> games, Path file) throws IOException {
+        Path temporary = file.resolveSibling(file.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            CRC32C checksum = new CRC32C();
+            DataOutputStream out = new DataOutputStream(new CheckedOutputStream(
+                    new BufferedOutputStream(Channels.newOutputStream(channel), 1 << 16), checksum));
+            out.writeInt(MAGIC);
+            out.writeByte(VERSION);
+            out.writeLong(System.currentTimeMillis());
+            out.writeInt(games.size());
+            for (RoomState game : games) {
+                game.write(out);
+            }
+            out.writeInt((int) checksum.getValue());
+            out.flush();
+            channel.force(true);
+        }
+        long bytes = Files.size(temporary);
+        Files.move(temporary, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        return bytes;
+    }
+
+    /**
+     * Reads the games in a snapshot file.
+     *
+     * @param file The snapshot file.
+     * @return The games, in the order they were written.
+     * @throws IOException If the file cannot be read, is not a snapshot or is damaged.
+     */
+    public static List<RoomState> read(Path file) throws IOException {
+        CRC32C checksum = new CRC32C();
+        try (DataInputStream in = new DataInputStream(new CheckedInputStream(
+                new BufferedInputStream(Files.newInputStream(file), 1 << 16), checksum))) {
+            if (in.readInt() != MAGIC) {
+                throw new IOException(file + " is not a snapshot");
+            }
+            byte version = in.readByte();
+            if (version < 1 || version > VERSION) {
+                throw new IOException(file + " is a version " + version + " snapshot");
+            }
+            in.readLong(); // Time written
+            int count = in.readInt();
+            List<RoomState> games = new ArrayList<>();
+            for (int i = 0; i < count; i++) {
+                games.add(new RoomState(in, version));
+            }
+            int expected = (int) checksum.getValue();
+            if (in.readInt() != expected) {
+                throw new IOException(file + " is damaged");
+            }
+            return games;
+        }
+    }
+
+    /**
+     * Opens a room for every game in the snapshot file, waiting for its players
+     * to rejoin.
+     *
+     * @return The number of games restored, 0 if there is no snapshot file.
+     * @throws IOException If the file cannot be read, is not a snapshot or is damaged.
+     */
+    public int restore() throws IOException {
+        List<RoomState> games;
+        try {
+            games = read(file);
+        } catch (NoSuchFileException e) {
+            GameLog.info(Category.SERVER, "no-snapshot").with("file", file).log();
+            return 0;
+        }
+        int restored = 0;
+        for (RoomState game : games) {
+            if (roomManager.restoreRoom(game)) {
+                restored++;
+            }
+        }
+        return restored;
+    }
+
+    @Override
+    public String getFile() {
+        return file.toString();
+    }
+
+    @Override
+    public long getSnapshotsWritten() {
+        return snapshotsWritten;
+    }
+
+    @Override
+    public int getLastSnapshotRooms() {
+        return lastRooms;
+    }
+
+    @Override
+    public long getLastSnapshotBytes() {
+        return lastBytes;
+    }
+
+    @Override
+    public long getLastCaptureMicros() {
+        return lastCaptureNanos / 1000;
+    }
+
+    @Override
+    public long getLastWriteMicros() {
+        return lastWriteNanos / 1000;
+    }
+
+    @Override
+    public String snapshotNow() {
+        try {
+            if (executor == null) {
+                write();
+            } else {
+                executor.submit(() -> {
+                    write();
+                    return null;
+                }).get();
+            }
+            return "Wrote " + lastRooms + " games, " + lastBytes + " bytes, to " + file + " in "
+                    + (lastCaptureNanos + lastWriteNanos) / 1000 + " us";
+        } catch (IOException e) {
+            return "Snapshot failed: " + e.getMessage();
+        } catch (ExecutionException e) {
+            return "Snapshot failed: " + e.getCause().getMessage();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return "Interrupted";
+        }
+    }
+}
@@ -0,0 +1,34 @@
+package MPMineSweeper;
+
+/**
+ * The management interface of {@link SnapshotStore}, under
+ * {@value SnapshotStore#OBJECT_NAME}: figures for the last snapshot written and
+ * an operation to write one now.
+ */
+public interface SnapshotStoreMXBean {
+
+    /** @return The file snapshots are written to. */
+    String getFile();
+
+    /** @return The number of snapshots written since the server started. */
+    long getSnapshotsWritten();
+
+    /** @return The number of games in the last snapshot. */
+    int getLastSnapshotRooms();
+
+    /** @return The size of the last snapshot file in bytes. */
+    long getLastSnapshotBytes();
+
+    /** @return How long the games were held to copy them for the last snapshot. */
+    long getLastCaptureMicros();
+
+    /** @return How long encoding and writing the last snapshot took. */
+    long getLastWriteMicros();
+
+    /**
+     * Writes a snapshot now, on the snapshot thread, and waits for it.
+     *
+     * @return What was written, or why it failed.
+     */
+    String snapshotNow();
+}
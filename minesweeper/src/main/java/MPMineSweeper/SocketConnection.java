@@ -0,0 +1,142 @@
+package MPMineSweeper;
+
+import MPMineSweeper.GameLog.Category;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A blocking {@link ClientConnection} over a plain socket. Used by the classic
+ * thread-per-connection server mode and by the client. Lines and binary frames
+ * share one buffered byte stream, so a connection can switch from the text
+ * handshake to binary framing without losing buffered bytes.
+ */
+public class SocketConnection implements ClientConnection {
+    private Socket socket;
+    private InputStream in;
+    private OutputStream out;
+    private final ReentrantLock writeLock = new ReentrantLock();
+
+    /**
+     * Wraps a connected socket.
+     *
+     * @param socket The connected socket.
+     * @throws IOException If the socket streams cannot be opened.
+     */
+    public SocketConnection(Socket socket) throws IOException {
+        this.socket = socket;
+        this.in = new BufferedInputStream(socket.getInputStream());
+        this.out = new BufferedOutputStream(socket.getOutputStream());
+    }
+
+    /**
+     * Blocks until the next line arrives.
+     *
+     * @return The line read, or null if the other side closed the connection.
+     * @throws IOException If reading from the socket fails.
+     */
+    public String readLine() throws IOException {
+        ByteArrayOutputStream line = new ByteArrayOutputStream(128);
+        int b;
+        while ((b = in.read()) != '\n') {
+            if (b < 0) {
+                return line.size() == 0 ? null : line.toString(StandardCharsets.UTF_8);
+            }
+            line.write(b);
+        }
+        byte[] bytes = line.toByteArray();
+        int length = bytes.length > 0 && bytes[bytes.length - 1] == '\r' ? bytes.length - 1 : bytes.length;
+        return new String(bytes, 0, length, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Blocks until the next binary frame arrives.
+     *
+     * @return The frame payload, or null if the other side closed the connection.
+     * @throws IOException If reading fails or the frame is malformed.
+     */
+    public byte[] readFrame() throws IOException {
+        return BinaryMessageDecoder.readFrame(in);
+    }
+
+    @Override
+    public void sendLine(String line) {
+        if (socket.isClosed() || socket.isOutputShutdown()) {
+            return;
+        }
+        byte[] bytes = line.getBytes(StandardCharsets.UTF_8);
+        writeLock.lock();
+        try {
+            out.write(bytes);
+            out.write('\n');
+            out.flush();
+        } catch (IOException e) {
+            GameLog.warn(Category.CONNECTION, "write-failed").with("address", getRemoteAddress())
+                    .with("error", e.getMessage()).log();
+            shutdownOutput(); // Stop writing into a dead socket, but let the reader finish what already arrived
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    @Override
+    public void sendFrame(byte[] payload) {
+        if (socket.isClosed() || socket.isOutputShutdown()) {
+            return;
+        }
+        byte[] header = new byte[5];
+        int headerLength = BinaryMessageEncoder.writeVarint(header, 0, payload.length);
+        writeLock.lock();
+        try {
+            out.write(header, 0, headerLength);
+            out.write(payload);
+            out.flush();
+        } catch (IOException e) {
+            GameLog.warn(Category.CONNECTION, "write-failed").with("address", getRemoteAddress())
+                    .with("error", e.getMessage()).log();
+            shutdownOutput(); // Stop writing into a dead socket, but let the reader finish what already arrived
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    private void shutdownOutput() {
+        try {
+            socket.shutdownOutput();
+        } catch (IOException e) {
+            close();
+        }
+    }
+
+    @Override
+    public void awaitWritable() {
+        // Writes block until the socket takes the data, so there is never a backlog to wait for
+    }
+
+    @Override
+    public void close() {
+        try {
+            socket.close();
+        } catch (IOException e) {
+            GameLog.warn(Category.CONNECTION, "close-failed").with("address", getRemoteAddress())
+                    .with("error", e.getMessage()).log();
+        }
+    }
+
+    @Override
+    public void abort() {
+        close();
+    }
+
+    @Override
+    public String getRemoteAddress() {
+        return socket.getInetAddress().getHostAddress();
+    }
+}
@@ -0,0 +1,134 @@
+package MPMineSweeper;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The events of one room's game as its spectators see them: board updates and
+ * snapshots, the board status, turn changes, every player's score and the game
+ * state. Each event is numbered once for the whole feed, and that one numbered
+ * message goes to every spectator's queue, so it is encoded only once, by the
+ * first writer to get to it. Only the encryption is done per spectator.
+ *
+ * Spectators' queues are small and drop their oldest message when full, so
+ * however many spectators fall behind, publishing never blocks and never waits
+ * for them. A spectator that misses a message sees the gap in the numbers and
+ * asks for a resync. Resyncs cost a whole-board snapshot under the game lock,
+ * so the feed builds at most one every {@link #RESYNC_INTERVAL_MILLIS} and
+ * sends it to every spectator that asked since the last one.
+ */
+final class SpectatorFeed {
+    /** Messages a spectator may fall behind before it starts losing them. */
+    static final int QUEUE_CAPACITY = 64;
+    /** Least time between two resync snapshots of a room. */
+    static final long RESYNC_INTERVAL_MILLIS = 1000;
+
+    private final GameRoom room;
+    private final List<SpectatorHandler> spectators = new CopyOnWriteArrayList<>();
+    private int lastSequence; // Number of the last event published
+    private final Set<SpectatorHandler> resyncsWanted = new LinkedHashSet<>(); // Guarded by itself
+    private boolean resyncScheduled;
+    private long lastResyncNanos = System.nanoTime() - TimeUnit.MILLISECONDS.toNanos(RESYNC_INTERVAL_MILLIS);
+
+    /**
+     * Creates an empty feed for a room.
+     *
+     * @param room The room whose board resyncs are built from.
+     */
+    SpectatorFeed(GameRoom room) {
+        this.room = room;
+    }
+
+    /**
+     * Numbers an event and queues it for every spectator.
+     *
+     * @param message The event, as broadcast to the players.
+     */
+    synchronized void publish(Message message) {
+        if (spectators.isEmpty()) {
+            return;
+        }
+        Message numbered = message.withSequence(++lastSequence);
+        for (SpectatorHandler spectator : spectators) {
+            spectator.enqueue(numbered);
+        }
+    }
+
+    /**
+     * Asks for the whole board to be sent to a spectator. The request joins the
+     * next resync, which is built as soon as the last one is
+     * {@link #RESYNC_INTERVAL_MILLIS} old. Asking again before then changes
+     * nothing.
+     *
+     * @param spectator The spectator that missed events.
+     */
+    void requestResync(SpectatorHandler spectator) {
+        long delayNanos;
+        synchronized (resyncsWanted) {
+            if (!resyncsWanted.add(spectator) || resyncScheduled) {
+                return;
+            }
+            resyncScheduled = true;
+            long intervalNanos = TimeUnit.MILLISECONDS.toNanos(RESYNC_INTERVAL_MILLIS);
+            delayNanos = Math.max(0, lastResyncNanos + intervalNanos - System.nanoTime());
+        }
+        CompletableFuture.delayedExecutor(delayNanos, TimeUnit.NANOSECONDS).execute(this::resync);
+    }
+
+    private void resync() {
+        List<SpectatorHandler> targets;
+        synchronized (resyncsWanted) {
+            targets = new ArrayList<>(resyncsWanted);
+            resyncsWanted.clear();
+            resyncScheduled = false;
+            lastResyncNanos = System.nanoTime();
+        }
+        targets.retainAll(spectators); // Some may have left meanwhile
+        if (!targets.isEmpty()) {
+            room.resyncSpectators(targets);
+        }
+    }
+
+    /**
+     * Starts sending events to a spectator.
+     *
+     * @param spectator The spectator.
+     */
+    void add(SpectatorHandler spectator) {
+        spectators.add(spectator);
+    }
+
+    /**
+     * Stops sending events to a spectator.
+     *
+     * @param spectator The spectator.
+     */
+    void remove(SpectatorHandler spectator) {
+        spectators.remove(spectator);
+    }
+
+    /**
+     * Gets the number of spectators.
+     *
+     * @return The number of spectators watching.
+     */
+    int size() {
+        return spectators.size();
+    }
+
+    /**
+     * Closes every spectator's connection once the messages queued for it are
+     * written.
+     */
+    void closeAll() {
+        for (SpectatorHandler spectator : spectators) {
+            spectator.closeConnection();
+        }
+        spectators.clear();
+    }
+}
@@ -0,0 +1,63 @@
+package MPMineSweeper;
+
+import MPMineSweeper.GameLog.Category;
+
+/**
+ * A client that watches a room's game without playing in it. A spectator has
+ * no seat, so it does not count against {@link GameRoom#MAX_PLAYERS} and may
+ * join a game under way. It is sent the room's {@link SpectatorFeed} and may
+ * ask for a resync; moves, flags and anything else it sends are ignored.
+ */
+final class SpectatorHandler extends ClientHandler {
+
+    /**
+     * Constructs a handler for a spectator, with a small queue that drops its
+     * oldest message rather than the spectator.
+     *
+     * @param connection     The connection through which the spectator is connected.
+     * @param room           The game room being watched.
+     * @param cipher         The connection's session cipher, keyed from the spectator's handshake.
+     * @param binaryProtocol true if the spectator negotiated binary framing, false for text lines.
+     */
+    SpectatorHandler(ClientConnection connection, GameRoom room, SessionCipher cipher, boolean binaryProtocol) {
+        super(connection, room, null, cipher, binaryProtocol, null,
+                new OutboundQueue(SpectatorFeed.QUEUE_CAPACITY, OutboundQueue.OverflowPolicy.DROP_OLDEST));
+    }
+
+    /**
+     * Queues a message for this spectator alone, unnumbered.
+     *
+     * @param message The message to be sent.
+     */
+    @Override
+    public void sendMessage(Message message) {
+        enqueue(message);
+    }
+
+    @Override
+    public boolean isAttached() {
+        return true;
+    }
+
+    @Override
+    boolean handleMessage(Message message) {
+        switch (message.getOpcode()) {
+            case RESYNC:
+                getRoom().requestSpectatorResync(this);
+                return true;
+            case QUIT:
+            case PLAYER_QUIT:
+                return false;
+            default:
+                GameLog.debug(Category.PROTOCOL, "spectator-command-ignored").with("room", getRoom().getName())
+                        .with("opcode", message.getOpcode()).log();
+                return true;
+        }
+    }
+
+    @Override
+    void handleDisconnect() {
+        getRoom().removeSpectator(this);
+        closeConnection();
+    }
+}
@@ -0,0 +1,129 @@
+package MPMineSweeper;
+
+import java.util.Arrays;
+
+/**
+ * The original space-separated text protocol, kept as the fallback when the
+ * binary protocol is not negotiated. Board updates use "x,y,state,count;"
+ * entries, everything else is "COMMAND arg arg ... [word]". A numbered message
+ * starts with its sequence number, as in "17 UPDATE 3,4,1,0;".
+ */
+public class TextMessageCodec {
+
+    /**
+     * Formats a message as a text protocol line.
+     *
+     * @param message The message.
+     * @return The line, without a terminator.
+     */
+    public static String format(Message message) {
+        StringBuilder sb = new StringBuilder();
+        if (message.getSequence() != 0) {
+            sb.append(message.getSequence()).append(' ');
+        }
+        sb.append(message.getOpcode().name());
+        int[] args = message.getArgs();
+        if (message.getOpcode().isCellList()) {
+            if (args.length > 0) {
+                sb.append(' ');
+            }
+            for (int i = 0; i + 3 < args.length; i += 4) {
+                sb.append(args[i]).append(',').append(args[i + 1]).append(',').append(args[i + 2]).append(',')
+                        .append(args[i + 3]).append(';');
+            }
+        } else {
+            for (int arg : args) {
+                sb.append(' ').append(arg);
+            }
+        }
+        if (message.getText() != null) {
+            sb.append(' ').append(message.getText());
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Parses a text protocol line.
+     *
+     * @param line The decrypted line.
+     * @return The message, or null if the command is unknown or the line is malformed.
+     */
+    public static Message parse(String line) {
+        if (line == null || line.isEmpty()) {
+            return null;
+        }
+        int space = line.indexOf(' ');
+        if (space > 0 && isInteger(line.substring(0, space))) {
+            Message message = parse(line.substring(space + 1));
+            try {
+                return message == null ? null : message.withSequence(Integer.parseInt(line.substring(0, space)));
+            } catch (NumberFormatException e) {
+                return null;
+            }
+        }
+        String[] parts = line.split(" ");
+        Opcode opcode = Opcode.fromName(parts[0]);
+        if (opcode == null) {
+            return null;
+        }
+        try {
+            if (opcode.isCellList()) {
+                return Message.of(opcode, parts.length > 1 ? parseCells(parts[1]) : new int[0]);
+            }
+            int[] args = new int[parts.length - 1];
+            int argCount = 0;
+            String text = null;
+            for (int i = 1; i < parts.length; i++) {
+                if (isInteger(parts[i])) {
+                    args[argCount++] = Integer.parseInt(parts[i]);
+                } else {
+                    text = String.join(" ", Arrays.copyOfRange(parts, i, parts.length));
+                    break;
+                }
+            }
+            if (argCount < args.length) {
+                args = Arrays.copyOf(args, argCount);
+            }
+            return Message.withText(opcode, text, args);
+        } catch (NumberFormatException | ArrayIndexOutOfBoundsException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Parses "x,y,state,count;" entries into a flat array of quadruples.
+     *
+     * @param entries The cell entries.
+     * @return The cells as x, y, state, count quadruples.
+     */
+    public static int[] parseCells(String entries) {
+        String[] updates = entries.split(";");
+        int[] cells = new int[updates.length * 4];
+        int count = 0;
+        for (String update : updates) {
+            if (update.isEmpty()) {
+                continue;
+            }
+            String[] cellData = update.split(",");
+            cells[count++] = Integer.parseInt(cellData[0]);
+            cells[count++] = Integer.parseInt(cellData[1]);
+            cells[count++] = Integer.parseInt(cellData[2]);
+            cells[count++] = Integer.parseInt(cellData[3]);
+        }
+        return count == cells.length ? cells : Arrays.copyOf(cells, count);
+    }
+
+    private static boolean isInteger(String token) {
+        if (token.isEmpty()) {
+            return false;
+        }
+        int start = token.charAt(0) == '-' && token.length() > 1 ? 1 : 0;
+        for (int i = start; i < token.length(); i++) {
+            char c = token.charAt(i);
+            if (c < '0' || c > '9') {
+                return false;
+            }
+        }
+        return true;
+    }
+}
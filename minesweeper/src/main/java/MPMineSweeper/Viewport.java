@@ -0,0 +1,144 @@
+package MPMineSweeper;
+
+import java.util.Arrays;
+
+/**
+ * The rectangle of the board a client has on screen. The server only sends a
+ * client the cells inside its viewport, so a client's traffic grows with the
+ * size of its window rather than the size of the board.
+ */
+public final class Viewport {
+    private final int x;
+    private final int y;
+    private final int width;
+    private final int height;
+
+    /**
+     * Creates a viewport.
+     *
+     * @param x      The leftmost column.
+     * @param y      The top row.
+     * @param width  The number of columns.
+     * @param height The number of rows.
+     */
+    public Viewport(int x, int y, int width, int height) {
+        this.x = x;
+        this.y = y;
+        this.width = width;
+        this.height = height;
+    }
+
+    /**
+     * Creates a viewport moved and shrunk as needed to lie on a board, at least
+     * one cell in size.
+     *
+     * @param x           The requested leftmost column.
+     * @param y           The requested top row.
+     * @param width       The requested number of columns.
+     * @param height      The requested number of rows.
+     * @param boardWidth  The board width in cells.
+     * @param boardHeight The board height in cells.
+     * @return The viewport that fits.
+     */
+    public static Viewport clamped(int x, int y, int width, int height, int boardWidth, int boardHeight) {
+        int clampedWidth = Math.max(1, Math.min(width, boardWidth));
+        int clampedHeight = Math.max(1, Math.min(height, boardHeight));
+        int clampedX = Math.max(0, Math.min(x, boardWidth - clampedWidth));
+        int clampedY = Math.max(0, Math.min(y, boardHeight - clampedHeight));
+        return new Viewport(clampedX, clampedY, clampedWidth, clampedHeight);
+    }
+
+    /**
+     * Parses the "WxH" size a client gives in its handshake. The viewport starts
+     * in the top left corner of the board.
+     *
+     * @param size        The size, e.g. "30x20".
+     * @param boardWidth  The board width in cells.
+     * @param boardHeight The board height in cells.
+     * @return The viewport, or null if the size is missing or malformed.
+     */
+    public static Viewport parseSize(String size, int boardWidth, int boardHeight) {
+        if (size == null) {
+            return null;
+        }
+        int separator = size.indexOf('x');
+        if (separator <= 0) {
+            return null;
+        }
+        try {
+            return clamped(0, 0, Integer.parseInt(size.substring(0, separator)),
+                    Integer.parseInt(size.substring(separator + 1)), boardWidth, boardHeight);
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    public int getX() {
+        return x;
+    }
+
+    public int getY() {
+        return y;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * Checks whether a cell is inside this viewport.
+     *
+     * @param cellX X-coordinate of the cell.
+     * @param cellY Y-coordinate of the cell.
+     * @return true if the cell is visible.
+     */
+    public boolean contains(int cellX, int cellY) {
+        return cellX >= x && cellX < x + width && cellY >= y && cellY < y + height;
+    }
+
+    /**
+     * Checks whether this viewport shows a whole board.
+     *
+     * @param boardWidth  The board width in cells.
+     * @param boardHeight The board height in cells.
+     * @return true if no cell of the board is outside the viewport.
+     */
+    public boolean covers(int boardWidth, int boardHeight) {
+        return x <= 0 && y <= 0 && x + width >= boardWidth && y + height >= boardHeight;
+    }
+
+    /**
+     * Keeps the cells inside this viewport.
+     *
+     * @param cells Cells as x, y, state, count quadruples.
+     * @return The visible cells as quadruples; the same array if all are visible.
+     */
+    public int[] filter(int[] cells) {
+        int[] visible = null;
+        int count = 0;
+        for (int i = 0; i + 3 < cells.length; i += 4) {
+            if (contains(cells[i], cells[i + 1])) {
+                if (visible != null) {
+                    System.arraycopy(cells, i, visible, count, 4);
+                }
+                count += 4;
+            } else if (visible == null) {
+                visible = new int[cells.length - 4];
+                System.arraycopy(cells, 0, visible, 0, count);
+            }
+        }
+        if (visible == null) {
+            return cells;
+        }
+        return count == visible.length ? visible : Arrays.copyOf(visible, count);
+    }
+
+    @Override
+    public String toString() {
+        return x + "," + y + " " + width + "x" + height;
+    }
+}
@@ -0,0 +1,224 @@
+package MPMineSweeper;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assertions.fail;
+
+/**
+ * Four players clearing one lock-free room at once, through the same calls
+ * their handlers make. Every player visits every safe cell in its own random
+ * order, flagging and unflagging some of them before revealing them, while
+ * another thread keeps taking snapshots of the game.
+ *
+ * Every snapshot must show the players' scores adding up to 10 points per
+ * revealed cell, so no move is ever half copied and no cell is credited twice.
+ * Once the board is cleared the scores must add up to every safe cell, and
+ * each player must have been told exactly once that the game was won.
+ */
+class LockFreeRoomTest {
+    private static final int WIDTH = 40;
+    private static final int HEIGHT = 40;
+    private static final int MINES = 250;
+    private static final int PLAYERS = GameRoom.MAX_PLAYERS;
+    private static final int ROUNDS = 20;
+
+    /**
+     * A connection that decrypts and keeps every message the room writes to it.
+     */
+    private static final class RecordingConnection implements ClientConnection {
+        private final SessionCipher cipher;
+        private final List<Message> messages = Collections.synchronizedList(new ArrayList<>());
+
+        RecordingConnection(String encryptionKey) {
+            cipher = SessionCipher.forClient(encryptionKey);
+        }
+
+        @Override
+        public void sendLine(String line) {
+            messages.add(TextMessageCodec.parse(cipher.decryptLine(line)));
+        }
+
+        @Override
+        public void sendFrame(byte[] payload) {
+            fail("A text client was sent a binary frame");
+        }
+
+        @Override
+        public void awaitWritable() {
+        }
+
+        @Override
+        public void close() {
+        }
+
+        @Override
+        public void abort() {
+        }
+
+        @Override
+        public String getRemoteAddress() {
+            return "test";
+        }
+
+        int count(Opcode opcode, String text) {
+            synchronized (messages) {
+                return (int) messages.stream()
+                        .filter(message -> message.getOpcode() == opcode && text.equals(message.getText())).count();
+            }
+        }
+    }
+
+    @BeforeAll
+    static void quietLog() {
+        GameLog.configure("warn");
+    }
+
+    @Test
+    void concurrentMovesCreditEveryCellOnce() throws Exception {
+        for (int round = 0; round < ROUNDS; round++) {
+            playRound(round);
+        }
+    }
+
+    private void playRound(long seed) throws Exception {
+        RoomManager roomManager = new RoomManager();
+        roomManager.setGameMode(GameRoom.Mode.LOCK_FREE);
+        roomManager.setBoardSize(WIDTH, HEIGHT, MINES);
+        roomManager.setSeed(seed);
+        roomManager.setOverflowPolicy(OutboundQueue.OverflowPolicy.DROP_OLDEST); // Keeps every player seated
+
+        List<ClientHandler> handlers = new ArrayList<>();
+        List<RecordingConnection> connections = new ArrayList<>();
+        List<Thread> writers = new ArrayList<>();
+        for (int i = 0; i < PLAYERS; i++) {
+            String key = EncryptionUtil.createKey();
+            RecordingConnection connection = new RecordingConnection(key);
+            Handshake handshake = Handshake.parse("password " + key + " room=stress");
+            ClientHandler handler = roomManager.joinRoom(connection, handshake, SessionCipher.forServer(key));
+            assertNotNull(handler);
+            Thread writer = new Thread(handler::runWriter, "writer-" + i);
+            writer.start();
+            handlers.add(handler);
+            connections.add(connection);
+            writers.add(writer);
+        }
+        GameRoom room = roomManager.getOrCreateRoom("stress");
+        for (ClientHandler handler : handlers) {
+            room.playerReady(handler.getPlayer());
+        }
+        assertTrue(room.isGameStarted());
+
+        // The first reveal may move mines; after it the room's board matches this one
+        int firstX = WIDTH / 2;
+        int firstY = HEIGHT / 2;
+        GameBoard mirror = new GameBoard(WIDTH, HEIGHT, MINES, null, seed);
+        mirror.revealCell(firstX, firstY, new Player(0));
+        room.processPlayerMove(handlers.get(0).getPlayer(), firstX, firstY);
+        int[] safeCells = new int[WIDTH * HEIGHT - MINES];
+        int safe = 0;
+        for (int index = 0; index < WIDTH * HEIGHT; index++) {
+            if (!mirror.getCell(index % WIDTH, index / WIDTH).isMine()) {
+                safeCells[safe++] = index;
+            }
+        }
+
+        AtomicBoolean playing = new AtomicBoolean(true);
+        List<String> failures = Collections.synchronizedList(new ArrayList<>());
+        Thread snapshots = new Thread(() -> {
+            while (playing.get()) {
+                SnapshotStore.RoomState state = room.captureState();
+                if (state != null) {
+                    checkSnapshot(state, failures);
+                }
+            }
+        }, "snapshots");
+        snapshots.start();
+
+        List<Thread> sweepers = new ArrayList<>();
+        for (int i = 0; i < PLAYERS; i++) {
+            Player player = handlers.get(i).getPlayer();
+            int flagged = i;
+            Thread sweeper = new Thread(() -> sweep(room, player, safeCells, flagged), "sweeper-" + i);
+            sweeper.start();
+            sweepers.add(sweeper);
+        }
+        for (Thread sweeper : sweepers) {
+            sweeper.join(TimeUnit.SECONDS.toMillis(30));
+            assertFalse(sweeper.isAlive(), "A player was still moving after 30 seconds");
+        }
+        playing.set(false);
+        snapshots.join();
+        for (Thread writer : writers) {
+            writer.join(TimeUnit.SECONDS.toMillis(10));
+            assertFalse(writer.isAlive(), "A player's connection was not closed after the game");
+        }
+
+        assertEquals(List.of(), failures);
+        assertTrue(room.isClosed(), "The room did not close after the board was cleared");
+        int scores = 0;
+        for (ClientHandler handler : handlers) {
+            scores += handler.getPlayer().getScore();
+        }
+        assertEquals(safeCells.length * 10, scores, "Scores do not add up to every safe cell");
+        for (RecordingConnection connection : connections) {
+            assertEquals(1, connection.count(Opcode.GAMEOVER, "AllCellsCleared"),
+                    "Each player is told of the win once");
+        }
+    }
+
+    /**
+     * Visits every safe cell in a random order, flagging and unflagging every
+     * fourth one before revealing it.
+     */
+    private static void sweep(GameRoom room, Player player, int[] safeCells, int flagged) {
+        int[] order = safeCells.clone();
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        for (int i = order.length - 1; i > 0; i--) {
+            int j = random.nextInt(i + 1);
+            int swap = order[i];
+            order[i] = order[j];
+            order[j] = swap;
+        }
+        for (int index : order) {
+            int x = index % WIDTH;
+            int y = index / WIDTH;
+            if (index % PLAYERS == flagged) {
+                room.toggleFlag(x, y, true, player);
+                room.toggleFlag(x, y, false, player);
+            }
+            room.processPlayerMove(player, x, y);
+        }
+    }
+
+    /**
+     * Checks that a snapshot's scores match its revealed cells. No mine is ever
+     * revealed, so every revealed cell is worth 10 points to exactly one player.
+     */
+    private static void checkSnapshot(SnapshotStore.RoomState state, List<String> failures) {
+        int revealed = 0;
+        for (byte cell : state.cells) {
+            if ((cell & GameBoard.REVEALED) != 0) {
+                revealed++;
+            }
+        }
+        int scores = 0;
+        for (int score : state.scores) {
+            scores += score;
+        }
+        if (scores != revealed * 10) {
+            failures.add("Snapshot with " + revealed + " cells revealed has scores adding up to " + scores);
+        }
+    }
+}